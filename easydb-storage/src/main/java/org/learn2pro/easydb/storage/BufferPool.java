@@ -1,10 +1,14 @@
 package org.learn2pro.easydb.storage;
 
+import com.google.common.base.Preconditions;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.learn2pro.easydb.storage.buffer.ReplacementPolicyType;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk. Access methods call into it to retrieve
@@ -12,8 +16,37 @@ import java.util.Set;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches a page, BufferPool checks that the
  * transaction has the appropriate locks to read/write the page.
+ * <p>
+ * Resident pages live in a sharded {@link PageTable}, so a page hit only takes the lock of one shard and never a
+ * pool-wide monitor. Which page leaves when the pool is full is decided by a {@link ReplacementPolicyType configurable}
+ * replacement policy per shard.
+ * <p>
+ * Sequential scans may have their next pages read in the background by the pool's {@link ReadAhead}.
+ * <p>
+ * Operators {@link #pinPage pin} the pages they are working on; pinned pages are never evicted and carry a latch for
+ * short-term reader/writer exclusion, separate from the transaction locks, see {@link PinnedPage}.
+ * <p>
+ * Committing only logs the dirty pages of a transaction; the pool's {@link PageCleaner} writes them to their files
+ * later. When no page can be evicted as it is, a dirty or unwritten page is written to make room (STEAL): its change
+ * is logged first and the page is written once the log is durable up to its {@link Page#getLsn() page LSN}. Aborts and
+ * recovery undo such pages from the log, see {@link LogFile}.
+ * <p>
+ * The pool can be sized in bytes ({@value #BYTES_PROPERTY}, {@link #setBudgetBytes(long)}) as well as in pages, and
+ * {@link #resize(int) resized} while it is in use. It also shrinks by itself when the JVM heap runs full, see
+ * {@link HeapPressureMonitor}.
+ * <p>
+ * With {@value OffHeapFrames#BYTES_PROPERTY} set, clean pages evicted from the pool keep their bytes in
+ * {@link OffHeapFrames} outside the heap, and later misses decode them from there instead of reading the file.
+ * <p>
+ * With {@value PoolSnapshot#FILE_PROPERTY} set, the ids of the resident pages are saved on close and on checkpoints, so
+ * the pool can be warmed up again after a restart, see {@link PoolSnapshot}.
+ * <p>
+ * Read-only transactions can run on a {@link #beginSnapshot snapshot}: they read the pages as committed when they
+ * started, from the old versions kept in {@link PageVersions}, and take no locks. Transactions can also run
+ * {@link #beginOptimistic optimistically}: they take no locks either, write private copies of the pages and are
+ * validated when they commit, see {@link OptimisticTransactions}.
  *
- * @Threadsafe, all fields are final
+ * @Threadsafe
  */
 public class BufferPool {
 
@@ -30,25 +63,128 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
     /**
-     * page number
+     * Size of the pool of the Database in bytes; if not set, the pool has {@link #DEFAULT_PAGES} pages.
      */
-    private int numPages;
+    public static final String BYTES_PROPERTY = "easydb.buffer.poolBytes";
+    /**
+     * Heap pressure never shrinks a pool below this many pages, overridden by {@value #MIN_PAGES_PROPERTY}.
+     */
+    public static final int DEFAULT_MIN_PAGES = 16;
+    public static final String MIN_PAGES_PROPERTY = "easydb.buffer.minPoolPages";
+    /**
+     * pages evicted per step when the pool shrinks
+     */
+    static final int SHRINK_STEP_PAGES = 8;
+    /**
+     * the capacity the pool is shrinking to or has grown to
+     */
+    private volatile int targetPages;
+    /**
+     * serializes resizes
+     */
+    private final Object resizeLock = new Object();
     /**
      * page data hold by memory
      */
-    private final LRUCache<PageId, Page> pageData;
+    private final PageTable pageTable;
     private PageLock pageLock;
+    /**
+     * lookup counters, see {@link #getHitCount()}
+     */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder ringReads = new LongAdder();
+    private final LongAdder pressureShrinks = new LongAdder();
+    private final LongAdder steals = new LongAdder();
+    private final LongAdder readOnlyCompletions = new LongAdder();
+    /**
+     * tables with more pages than this are scanned through a {@link BufferRing}
+     */
+    private volatile int ringThresholdPages;
+    /**
+     * frames per ring, at most a quarter of the pool; 0 if the pool is too small for rings
+     */
+    private volatile int ringPages;
+    private final ReadAhead readAhead;
+    private final PageCleaner cleaner;
+    /**
+     * bytes of evicted pages off the heap, null if not configured
+     */
+    private final OffHeapFrames offHeap;
+    private final PoolSnapshot snapshot;
+    /**
+     * old committed versions of pages for snapshot reads
+     */
+    private final PageVersions versions = new PageVersions();
+    private final OptimisticTransactions optimistic = new OptimisticTransactions(versions);
+    /**
+     * the committed contents of the pages written while a running transaction had changed them, until it ends; the
+     * file holds the uncommitted contents meanwhile
+     */
+    private final ConcurrentHashMap<PageId, Page> stolen = new ConcurrentHashMap<>();
+    /**
+     * pages pinned by each transaction, so pins left behind are dropped when it completes
+     */
+    private final ConcurrentHashMap<TransactionId, Set<PinnedPage>> pins = new ConcurrentHashMap<>();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the replacement policy from the configuration.
      *
      * @param numPages maximum number of pages in this buffer pool.
+     * @see ReplacementPolicyType#fromConfig()
      */
     public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicyType.fromConfig());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy used to pick eviction victims
+     */
+    public BufferPool(int numPages, ReplacementPolicyType policy) {
         // some code goes here
-        this.numPages = numPages;
-        this.pageData = new LRUCache<>(numPages);
+        Preconditions.checkArgument(numPages > 0, "a buffer pool needs at least one page");
+        this.targetPages = numPages;
+        this.pageTable = new PageTable(numPages, policy);
         this.pageLock = new PageLock();
+        this.readAhead = new ReadAhead(this, 0);
+        this.cleaner = new PageCleaner(this);
+        this.offHeap = OffHeapFrames.fromConfig();
+        this.snapshot = new PoolSnapshot(this);
+        sizeScans(numPages);
+        HeapPressureMonitor.register(this);
+    }
+
+    /**
+     * Creates a BufferPool that holds at most budgetBytes of pages.
+     */
+    public static BufferPool ofBytes(long budgetBytes) {
+        return new BufferPool(pagesFor(budgetBytes));
+    }
+
+    /**
+     * @return the number of pages of the Database's pool: {@value #BYTES_PROPERTY} if set, or {@link #DEFAULT_PAGES}
+     */
+    public static int configuredPages() {
+        Long bytes = Long.getLong(BYTES_PROPERTY);
+        return bytes == null ? DEFAULT_PAGES : pagesFor(bytes);
+    }
+
+    private static int pagesFor(long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / getPageSize()));
+    }
+
+    /**
+     * Rings and read-ahead are sized relative to the pool.
+     */
+    private void sizeScans(int pages) {
+        this.ringThresholdPages = (int) (pages * BufferRing.configuredThreshold());
+        int maxRingPages = Math.min(BufferRing.configuredRingPages(), pages / 4);
+        this.ringPages = maxRingPages < BufferRing.MIN_RING_PAGES ? 0 : maxRingPages;
+        readAhead.setWindow(Math.min(ReadAhead.configuredWindow(), pages / 4));
     }
 
     public static int getPageSize() {
@@ -80,24 +216,539 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
+        if (versions.inSnapshot(tid)) {
+            return getSnapshotPage(tid, pid, perm);
+        }
+        if (optimistic.isRunning(tid)) {
+            return getOptimisticPage(tid, pid, perm);
+        }
         pageLock.lockPage(tid, pid, perm);
-        Page page = pageData.get(pid);
-        if (page == null) {
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            page = dbFile.readPage(pid);
+        Page page = pageTable.get(pid);
+        // a page being read ahead is waited for rather than read twice
+        while (page == null && !readAhead.beginRead(pid)) {
+            readAhead.awaitRead(pid);
+            page = pageTable.get(pid);
+        }
+        if (page != null) {
+            hits.increment();
+            readAhead.hit(pid);
+            return page;
+        }
+        try {
+            misses.increment();
+            page = loadPage(pid, true);
             if (page != null) {
-                if (pageData.size() >= this.numPages) {
-                    evictPage();
+                while (!pageTable.reserve()) {
+                    evictPage(pid, true);
                 }
                 if (perm == Permissions.READ_WRITE) {
                     page.markDirty(true, tid);
                 }
-                pageData.put(pid, page);
+                page = pageTable.install(pid, page);
             }
+        } finally {
+            readAhead.endRead(pid);
         }
         return page;
     }
 
+    /**
+     * Retrieve the specified page on behalf of a sequential scan. Pages resident in the pool are returned from the
+     * pool, other pages are read into the scan's private ring instead of the pool, so they don't push out anything.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the scan, or null to use the pool as usual
+     * @see #newScanRing(int)
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        if (ring == null || perm != Permissions.READ_ONLY || isUnlocked(tid)) {
+            return getPage(tid, pid, perm);
+        }
+        pageLock.lockPage(tid, pid, perm);
+        Page page = null;
+        boolean reading = false;
+        while (!reading) {
+            page = pageTable.get(pid);
+            if (page != null) {
+                hits.increment();
+                readAhead.hit(pid);
+                return page;
+            }
+            page = ring.get(pid, pageTable.stamp(pid));
+            if (page != null) {
+                readAhead.hit(pid);
+                return page;
+            }
+            reading = readAhead.beginRead(pid);
+            if (!reading) {
+                readAhead.awaitRead(pid);
+            }
+        }
+        try {
+            misses.increment();
+            ringReads.increment();
+            page = loadPage(pid, false);
+            if (page != null) {
+                readAhead.dropped(ring.put(pid, page));
+            }
+        } finally {
+            readAhead.endRead(pid);
+        }
+        return page;
+    }
+
+    /**
+     * Read a page as the snapshot of a read-only transaction sees it, without locking it. The page returned is a copy
+     * that is never put into the pool.
+     */
+    private Page getSnapshotPage(TransactionId tid, PageId pid, Permissions perm) throws DbException {
+        if (perm != Permissions.READ_ONLY) {
+            throw new DbException(String.format("read-only transaction %d can't write page %d", tid.getId(),
+                    pid.getPageNumber()));
+        }
+        Page version = versions.get(tid, pid);
+        if (version != null) {
+            return version;
+        }
+        Page committed = getCommittedPage(pid);
+        // a commit may have replaced them meanwhile, it preserves the old ones first
+        version = versions.get(tid, pid);
+        return version != null ? version : committed;
+    }
+
+    /**
+     * @return the committed contents of a page, not to be changed: a resident page may be dirty, a page on disk never
+     * is. A page read from disk is cached like a page read ahead, without a lock.
+     */
+    private Page getCommittedPage(PageId pid) {
+        Page page = stolen.get(pid);
+        if (page != null) {
+            return page;
+        }
+        page = pageTable.peek(pid);
+        if (page == null) {
+            long stamp = pageTable.stamp(pid);
+            page = loadPage(pid, true);
+            if (page != null && reserveWithoutWriting(pid)) {
+                pageTable.installIfUnchanged(pid, page, stamp);
+            }
+        }
+        return page == null ? null : page.getReadOnlyBeforeImage();
+    }
+
+    /**
+     * Read a page for an optimistic transaction without locking it: its own copy if it wrote the page, else the
+     * committed page. A page to write is copied first.
+     */
+    private Page getOptimisticPage(TransactionId tid, PageId pid, Permissions perm) {
+        Page copy = optimistic.read(tid, pid);
+        if (copy != null) {
+            return copy;
+        }
+        Page committed = getCommittedPage(pid);
+        if (committed == null || perm == Permissions.READ_ONLY) {
+            return committed;
+        }
+        return optimistic.copy(tid, pid, committed.getBeforeImage());
+    }
+
+    /**
+     * Start an optimistic transaction: it takes no locks until it commits with {@link #commitOptimistic}.
+     */
+    public void beginOptimistic(TransactionId tid) {
+        optimistic.begin(tid);
+    }
+
+    /**
+     * Validate an optimistic transaction and install its pages. The pages it wrote are locked exclusively to be
+     * installed; then, on the LogFile monitor so no other commit comes in between, the transaction is validated and its
+     * pages are put into the pool and logged like the pages of any committing transaction.
+     *
+     * @throws TransactionAbortedException if the transaction fails validation; nothing is installed then
+     */
+    public void commitOptimistic(TransactionId tid) throws TransactionAbortedException, IOException {
+        List<Page> writes = optimistic.getWrites(tid);
+        // file order, so installing transactions don't deadlock
+        for (Page page : writes) {
+            pageLock.lockPage(tid, page.getId(), Permissions.READ_WRITE);
+        }
+        synchronized (Database.getLogFile()) {
+            if (!optimistic.validate(tid)) {
+                throw new TransactionAbortedException(
+                        String.format("transaction %d failed validation", tid.getId()));
+            }
+            for (Page page : writes) {
+                page.markDirty(true, tid);
+                pageTable.put(page.getId(), page);
+            }
+            flushPages(tid);
+        }
+    }
+
+    /**
+     * @return the optimistic transactions of this pool
+     */
+    public OptimisticTransactions getOptimisticTransactions() {
+        return optimistic;
+    }
+
+    /**
+     * @return true if the transaction reads pages without locking them
+     */
+    private boolean isUnlocked(TransactionId tid) {
+        return versions.inSnapshot(tid) || optimistic.isRunning(tid);
+    }
+
+    /**
+     * Start a read-only transaction on a snapshot of the committed pages. Until {@link #transactionComplete} it sees
+     * no commit made after this call, takes no locks and can't write.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.begin(tid);
+    }
+
+    /**
+     * @return the old page versions kept for snapshots
+     */
+    public PageVersions getPageVersions() {
+        return versions;
+    }
+
+    /**
+     * Create a ring for a sequential scan over a table with the given number of pages, if the table is big enough to
+     * flood the pool. Pools too small to spare a ring never hand one out.
+     *
+     * @return the ring, or null if the scan should go through the pool
+     */
+    public BufferRing newScanRing(int tablePages) {
+        if (ringPages == 0 || tablePages <= ringThresholdPages) {
+            return null;
+        }
+        return new BufferRing(ringPages);
+    }
+
+    /**
+     * Look at a page without locking it, to choose a page worth locking; what the caller sees may have changed by the
+     * time it gets the lock. A page read from disk is cached if room can be made without writing anything.
+     *
+     * @return the page, cached or not, or null if it can't be read
+     */
+    Page peekPage(PageId pid) {
+        Page page = pageTable.peek(pid);
+        if (page != null) {
+            return page;
+        }
+        long stamp = pageTable.stamp(pid);
+        page = loadPage(pid, true);
+        if (page != null && reserveWithoutWriting(pid)) {
+            pageTable.installIfUnchanged(pid, page, stamp);
+        }
+        return page;
+    }
+
+    /**
+     * Read a page ahead of a scan. No lock is taken: the page only becomes visible through {@link #getPage}, which
+     * locks it first. Pages already resident are left alone, and a page read from disk is only cached if the pool did
+     * not drop a page of its shard meanwhile (a newer version may have been written and evicted in between), and if
+     * room can be made without writing anything.
+     *
+     * @param pid the page to read
+     * @param ring the ring of the scan, or null to read into the pool
+     * @return the page, cached or not
+     */
+    Page prefetchPage(PageId pid, BufferRing ring) {
+        Page page = pageTable.peek(pid);
+        if (page != null) {
+            return page;
+        }
+        long stamp = pageTable.stamp(pid);
+        if (ring != null && (page = ring.get(pid, stamp)) != null) {
+            return page;
+        }
+        page = loadPage(pid, ring == null);
+        if (page == null) {
+            return null;
+        }
+        if (ring != null) {
+            ringReads.increment();
+            readAhead.prefetched(pid);
+            readAhead.dropped(ring.put(pid, page, stamp));
+            return page;
+        }
+        if (!reserveWithoutWriting(pid)) {
+            return page;
+        }
+        readAhead.prefetched(pid);
+        if (!pageTable.installIfUnchanged(pid, page, stamp)) {
+            readAhead.cancelled(pid);
+        }
+        return page;
+    }
+
+    /**
+     * Reserve a slot for a page read without a lock, evicting a clean page if the pool is full.
+     *
+     * @return false if no slot could be had without writing a page
+     */
+    private boolean reserveWithoutWriting(PageId pid) {
+        if (pageTable.reserve()) {
+            return true;
+        }
+        Page victim = pageTable.evict(pid, this::evictable);
+        if (victim != null) {
+            evicted(victim);
+        }
+        return victim != null && pageTable.reserve();
+    }
+
+    /**
+     * Get a page that is not resident from the off-heap frames, or else from its file.
+     *
+     * @param intoPool true if the page becomes resident, so its frame is given up
+     */
+    private Page loadPage(PageId pid, boolean intoPool) {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (offHeap != null) {
+            byte[] data = intoPool ? offHeap.take(pid) : offHeap.get(pid);
+            Page page = data == null ? null : dbFile.decodePage(pid, data);
+            if (page != null) {
+                return page;
+            }
+        }
+        return dbFile.readPage(pid);
+    }
+
+    /**
+     * Load a page for warm-up into a free slot; never evicts, and leaves pages that are resident or being read alone.
+     *
+     * @return true if the page was loaded
+     */
+    boolean warmPage(PageId pid) {
+        if (pageTable.peek(pid) != null || !readAhead.beginRead(pid)) {
+            return false;
+        }
+        try {
+            long stamp = pageTable.stamp(pid);
+            if (pageTable.peek(pid) != null || !pageTable.reserve()) {
+                return false;
+            }
+            Page page = null;
+            try {
+                page = loadPage(pid, true);
+            } finally {
+                if (page == null) {
+                    pageTable.unreserve();
+                }
+            }
+            return page != null && pageTable.installIfUnchanged(pid, page, stamp);
+        } finally {
+            readAhead.endRead(pid);
+        }
+    }
+
+    /**
+     * Retrieve a page like {@link #getPage(TransactionId, PageId, Permissions)} and pin it, so it stays in the pool
+     * until the returned handle is closed.
+     */
+    public PinnedPage pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve a page for a sequential scan like {@link #getPage(TransactionId, PageId, Permissions, BufferRing)} and
+     * pin it. A page read into the ring gets a handle without latch, the ring is private to the scan.
+     *
+     * @return the pinned page, or null if the page can't be read
+     */
+    public PinnedPage pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        if (isUnlocked(tid)) {
+            // a private copy, nothing to latch
+            Page page = getPage(tid, pid, perm);
+            return page == null ? null : pinned(tid, page, null);
+        }
+        for (; ; ) {
+            Page page = getPage(tid, pid, perm, ring);
+            if (page == null) {
+                return null;
+            }
+            PageTable.Latch latch = pageTable.pin(pid, page);
+            if (latch != null || ring != null && perm == Permissions.READ_ONLY) {
+                return pinned(tid, page, latch);
+            }
+            // evicted right after it was read, get it again
+        }
+    }
+
+    /**
+     * Pin a page the caller got from the pool before, e.g. to latch it. A page that is not resident, like a new page
+     * not in the pool yet, gets a handle without latch.
+     */
+    public PinnedPage pin(TransactionId tid, Page page) {
+        return pinned(tid, page, pageTable.pin(page.getId(), page));
+    }
+
+    private PinnedPage pinned(TransactionId tid, Page page, PageTable.Latch latch) {
+        PinnedPage pinned = new PinnedPage(this, tid, page, latch);
+        if (latch != null) {
+            pins.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(pinned);
+        }
+        return pinned;
+    }
+
+    /**
+     * Drop a pin, called by {@link PinnedPage#close()}.
+     */
+    void unpinPage(PinnedPage pinned) {
+        if (pinned.getLatch() == null) {
+            return;
+        }
+        Set<PinnedPage> held = pins.get(pinned.getTransactionId());
+        if (held != null) {
+            held.remove(pinned);
+        }
+        pageTable.unpin(pinned.getId(), pinned.getLatch());
+    }
+
+    /**
+     * Drop the pins a completing transaction left behind.
+     */
+    private void unpinAll(TransactionId tid) {
+        Set<PinnedPage> held = pins.remove(tid);
+        if (held == null) {
+            return;
+        }
+        for (PinnedPage pinned : held) {
+            if (pinned.release()) {
+                pageTable.unpin(pinned.getId(), pinned.getLatch());
+            }
+        }
+    }
+
+    /**
+     * Move a read-only traversal from a pinned page to the page it links to, with latch coupling: the next page is
+     * locked and pinned first, then the current page is latched while the link is checked and the next page latched,
+     * and only then the current page is let go. The traversal never sees the link change under it, and no latch is held
+     * while waiting for a lock.
+     *
+     * @param from the current page, pinned and not latched; it is closed when this returns
+     * @param to the page the link pointed to when the caller read it
+     * @param link reads the link out of a page
+     * @return the next page, pinned and latched shared; or null if the link is gone
+     */
+    public PinnedPage couple(PinnedPage from, PageId to, Function<Page, PageId> link)
+            throws TransactionAbortedException, DbException {
+        try {
+            while (to != null) {
+                PinnedPage next = pinPage(from.getTransactionId(), to, Permissions.READ_ONLY);
+                if (next == null) {
+                    return null;
+                }
+                from.latchShared();
+                PageId now = link.apply(from.getPage());
+                if (to.equals(now)) {
+                    next.latchShared();
+                    return next;
+                }
+                from.unlatch();
+                next.close();
+                to = now;
+            }
+            return null;
+        } finally {
+            from.close();
+        }
+    }
+
+    /**
+     * @return the number of pages pinned right now
+     */
+    public int getPinnedPageCount() {
+        return pageTable.pinnedCount();
+    }
+
+    /**
+     * @return the number of pages eviction holds out of the replacement policy until they are written
+     */
+    public int getHeldPageCount() {
+        return pageTable.heldCount();
+    }
+
+    /**
+     * @return true if a page can be loaded without evicting another one
+     */
+    boolean hasFreeSlot() {
+        return pageTable.size() < pageTable.capacity();
+    }
+
+    /**
+     * @return a snapshot of the ids of the resident pages
+     */
+    List<PageId> residentPageIds() {
+        return pageTable.pageIds();
+    }
+
+    /**
+     * @return the residency snapshot of this pool
+     */
+    public PoolSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the off-heap frames of this pool, or null if it keeps no pages off the heap
+     */
+    public OffHeapFrames getOffHeapFrames() {
+        return offHeap;
+    }
+
+    /**
+     * @return the page cleaner of this pool
+     */
+    public PageCleaner getPageCleaner() {
+        return cleaner;
+    }
+
+    /**
+     * @return the read-ahead of this pool
+     */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @return the lock table of this pool
+     */
+    public PageLock getPageLock() {
+        return pageLock;
+    }
+
+    /**
+     * Lock a whole table, so its pages are not locked one by one. A scan of a table too big to lock page by page takes
+     * a shared table lock up front instead of escalating to it later.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param mode the mode of the table lock
+     */
+    public void lockTable(TransactionId tid, int tableId, LockMode mode) throws TransactionAbortedException {
+        if (isUnlocked(tid)) {
+            return;
+        }
+        pageLock.lockTable(tid, tableId, mode);
+    }
+
+    /**
+     * @return true if a scan of that many pages should lock the table rather than each page
+     */
+    public boolean locksTableForScan(int tablePages) {
+        return tablePages > pageLock.getEscalationThreshold();
+    }
+
     /**
      * Releases the lock on a page. Calling this is very risky, and may result in wrong behavior. Think hard about who
      * needs to call this and why, and why they can run the risk of calling it.
@@ -112,8 +763,12 @@ public class BufferPool {
     }
 
     public void updatePage(TransactionId tid, Page page) throws TransactionAbortedException {
+        if (optimistic.isRunning(tid)) {
+            optimistic.written(tid, page);
+            return;
+        }
         pageLock.lockPage(tid, page.getId(), Permissions.READ_WRITE);
-        pageData.put(page.getId(), page);
+        pageTable.put(page.getId(), page);
     }
 
     /**
@@ -127,13 +782,28 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /**
+     * @return true if the transaction may have changed pages, i.e. it was granted a lock to write with; one that only
+     * read has nothing to flush when it commits
+     */
+    public boolean mayHaveWritten(TransactionId tid) {
+        return pageLock.holdsWriteLocks(tid);
+    }
+
+    /**
+     * @return the number of locking transactions that completed without having written, and took the fast path
+     */
+    public long getReadOnlyCompletionCount() {
+        return readOnlyCompletions.sum();
+    }
+
     /**
      * Return true if the specified transaction has a lock on the specified page
      */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return pageLock.readLockable(tid, p) || pageLock.writeLockable(tid, p);
+        return pageLock.holdsLock(tid, p);
     }
 
     /**
@@ -145,22 +815,41 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        unpinAll(tid);
+        if (versions.inSnapshot(tid)) {
+            versions.end(tid);
+            return;
+        }
+        if (optimistic.isRunning(tid)) {
+            // pages it installed are locked and handled below
+            optimistic.end(tid);
+        }
+        if (!pageLock.holdsWriteLocks(tid)) {
+            // it only read: nothing to write, log or restore, just drop its locks at once
+            readOnlyCompletions.increment();
+            pageLock.releaseLockTrans(tid);
+            return;
+        }
         try {
             Set<PageId> heldByTid = pageLock.getPagesHeldByTid(tid);
-            if (heldByTid.isEmpty()) {
-                return;
-            }
-            for (PageId pageId : heldByTid) {
-                if (commit) {
-                    flushPage(pageId);
-                } else {
-                    discardPage(pageId);
+            if (commit) {
+                if (!heldByTid.isEmpty()) {
+                    flushPages(tid);
+                }
+            } else {
+                // aborted without LogFile.logAbort: undo the pages written already and log the ABORT, so the
+                // transaction is not active any more; does nothing if it was aborted that way, or logged nothing
+                Database.getLogFile().logAbort(tid);
+                for (PageId pageId : heldByTid) {
+                    restorePage(pageId);
                 }
             }
-            pageLock.releaseLockTrans(tid);
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IOException | TransactionAbortedException e) {
+            // its pages may be half written or not rolled back, so nobody else may get them
+            throw new RuntimeException("transaction " + tid.getId() + " failed to " + (commit ? "commit" : "abort"), e);
         }
+        // table locks too, which may cover no page
+        pageLock.releaseLockTrans(tid);
     }
 
     /**
@@ -182,10 +871,7 @@ public class BufferPool {
         // not necessary for lab1
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> dirtyPage = dbFile.insertTuple(tid, t);
-        for (Page page : dirtyPage) {
-            page.markDirty(true, tid);
-            pageData.put(page.getId(), page);
-        }
+        installDirty(tid, dirtyPage);
     }
 
     /**
@@ -206,22 +892,31 @@ public class BufferPool {
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> dirtyPage = dbFile.deleteTuple(tid, t);
+        installDirty(tid, dirtyPage);
+    }
+
+    private void installDirty(TransactionId tid, List<Page> dirtyPage) {
+        boolean unlocked = optimistic.isRunning(tid);
         for (Page page : dirtyPage) {
             page.markDirty(true, tid);
-            pageData.put(page.getId(), page);
+            if (unlocked) {
+                // stays private until commit
+                optimistic.written(tid, page);
+            } else {
+                pageTable.put(page.getId(), page);
+            }
         }
     }
 
     /**
-     * Flush all dirty pages to disk. NB: Be careful using this routine -- it writes dirty data to disk so will break
-     * simpledb if running in NO STEAL mode.
+     * Flush all dirty pages to disk. Pages of running transactions are written like stolen pages, after logging them,
+     * and are undone from the log if their transaction aborts.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        List<Entry<PageId, Page>> entrySet = new ArrayList<>(pageData.entrySet());
-        for (Entry<PageId, Page> entry : entrySet) {
-            flushPage(entry.getKey());
+        for (PageId pid : pageTable.pageIds()) {
+            flushPage(pid);
         }
     }
 
@@ -231,66 +926,507 @@ public class BufferPool {
      *
      * Also used by B+ tree files to ensure that deleted pages are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pageData.remove(pid);
+        pageTable.remove(pid);
+        cleaner.remove(pid);
+        stolen.remove(pid);
+        Database.getLogFile().unlogged(pid);
+        readAhead.dropped(pid);
+        if (offHeap != null) {
+            offHeap.remove(pid);
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Undo the changes of an aborting transaction to a page. The file still has the committed version of the page
+     * unless it is waiting for the cleaner, in which case the committed version is put back from the before image (the
+     * page may have been changed before it was marked dirty).
+     */
+    private void restorePage(PageId pid) {
+        Page p = pageTable.peek(pid);
+        if (p != null && cleaner.isPending(pid)) {
+            // the committed version must not be written before its log records are durable either
+            Page before = p.getBeforeImage();
+            before.setLsn(p.getLsn());
+            pageTable.put(pid, before);
+            return;
+        }
+        discardPage(pid);
+    }
+
+    /**
+     * Flushes a certain page to disk.
+     * <p>
+     * Flushes are serialized on the LogFile monitor rather than on the pool: every flush writes a log record anyway,
+     * and LogFile may call back into the pool (checkpoint, rollback) while holding its own monitor, so taking the
+     * LogFile monitor first keeps the lock order the same on both paths.
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page p = pageData.get(pid);
-        if (p != null && p.isDirty() != null) {
-            int tableId = p.getId().getTableId();
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-            dbFile.writePage(p);
-            TransactionId dirtier = p.isDirty();
-            if (dirtier != null) {
-                Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
-                Database.getLogFile().force();
+        Page p = pageTable.peek(pid);
+        if (p == null || (p.isDirty() == null && !cleaner.isPending(pid))) {
+            return;
+        }
+        synchronized (Database.getLogFile()) {
+            if (p.isDirty() != null) {
+                writeUncommitted(p);
+            } else if (cleaner.isPending(pid)) {
+                // committed, but the log may not be durable up to its record yet
+                Database.getLogFile().awaitDurable(p.getLsn());
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+                cleaner.remove(pid);
+                pageTable.release(pid);
             }
-            p.setBeforeImage();
-            p.markDirty(false, null);
         }
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Write a page a running transaction has changed (STEAL). The change is logged first and the page is written once
+     * the log is durable up to its new page LSN. The page stays with its transaction: it is clean now and its before
+     * image is what was logged, so the next record of the page can be a delta; the committed contents are kept for the
+     * readers that skip locks until the transaction ends. Called on the LogFile monitor.
+     */
+    private void writeUncommitted(Page p) throws IOException {
+        TransactionId dirtier = p.isDirty();
+        if (dirtier == null) {
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        PageId pid = p.getId();
+        Page before = p.getBeforeImage();
+        // a page written before keeps the committed image it had then
+        stolen.putIfAbsent(pid, before);
+        p.setLsn(log.logWrite(dirtier, before, p));
+        log.awaitDurable(p.getLsn());
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+        p.setBeforeImage();
+        p.markDirty(false, null);
+        cleaner.remove(pid);
+        pageTable.release(pid);
+        steals.increment();
+    }
+
+    /**
+     * Log all pages dirtied by the specified transaction and hand them to the page cleaner. Neither the pages are
+     * written nor the log is forced here: the COMMIT record that follows is forced together with these records, and
+     * the cleaner only writes a page once the log is durable up to its page LSN. Pages stolen before are on disk
+     * already, their committed image is published all the same.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        // clone for avoid concurrent modified exception
-        for (PageId pid : pageLock.getPagesHeldByTid(tid)) {
-            flushPage(pid);
+        LogFile log = Database.getLogFile();
+        long commit = 0;
+        List<PageId> written = new ArrayList<>();
+        synchronized (log) {
+            for (PageId pid : pageLock.getPagesHeldByTid(tid)) {
+                Page p = pageTable.peek(pid);
+                TransactionId dirtier = p == null ? null : p.isDirty();
+                // the committed contents the file had before the page was stolen, if it was
+                Page replaced = stolen.get(pid);
+                if (dirtier == null && replaced == null) {
+                    continue;
+                }
+                if (commit == 0) {
+                    commit = versions.nextCommit();
+                }
+                if (dirtier != null) {
+                    Page before = p.getBeforeImage();
+                    p.setLsn(log.logWrite(dirtier, before, p));
+                    // running snapshots keep reading the replaced contents
+                    versions.preserve(pid, commit, replaced != null ? replaced : before);
+                    p.setBeforeImage();
+                    // pending before clean, so the page can't be evicted in between
+                    cleaner.add(pid);
+                    p.markDirty(false, null);
+                } else {
+                    // the file holds the page already
+                    versions.preserve(pid, commit, replaced);
+                    if (p != null) {
+                        p.setBeforeImage();
+                    }
+                }
+                stolen.remove(pid);
+                written.add(pid);
+            }
+            if (commit != 0) {
+                versions.publish(commit);
+                optimistic.committed(commit, written);
+            }
         }
+        cleaner.wakeUp();
     }
 
     /**
-     * Discards a page from the buffer pool. Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Write a committed page for the page cleaner. The page is only written while the cleaner holds a shared lock on it
+     * and nobody has dirtied it again, so no uncommitted change reaches the file.
+     *
+     * @return true if the page was written
      */
-    private synchronized void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
-        List<Entry<PageId, Page>> entrySet = new ArrayList<>(pageData.entrySet());
-        for (Entry<PageId, Page> entry : entrySet) {
-            if (entry.getValue().isDirty() == null) {
+    boolean cleanPage(PageId pid, TransactionId cleanerTid) {
+        Page p = pageTable.peek(pid);
+        if (p == null) {
+            cleaner.remove(pid);
+            return false;
+        }
+        if (p.isDirty() != null) {
+            return false;
+        }
+        if (!pageLock.tryLockPage(cleanerTid, pid, Permissions.READ_ONLY, PageCleaner.LOCK_TIMEOUT_MILLIS)) {
+            return false;
+        }
+        try {
+            synchronized (cleaner.writeLock) {
+                p = pageTable.peek(pid);
+                if (p == null || p.isDirty() != null || !cleaner.isPending(pid)) {
+                    return false;
+                }
+                Database.getLogFile().awaitDurable(p.getLsn());
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+                cleaner.written(pid);
+                pageTable.release(pid);
+                return true;
+            }
+        } catch (IOException e) {
+            Debug.log("BufferPool: page cleaner failed to write page %d: %s", pid.getPageNumber(), e.getMessage());
+            return false;
+        } finally {
+            pageLock.releaseLock(cleanerTid, pid);
+        }
+    }
+
+    /**
+     * The dirty page table of a checkpoint: the pages changed by logged records that are not on disk yet, in file
+     * order. Only the committed pages waiting for the cleaner are, a stolen page was written when it was logged. Called
+     * on the LogFile monitor, which every logged change of a page is made under.
+     */
+    List<PageId> getDirtyPageTable() {
+        return cleaner.pendingPages();
+    }
+
+    /**
+     * Write a page of the dirty page table of a checkpoint, unless somebody wrote it meanwhile. The page is pinned and
+     * latched exclusively while it is written; if a running transaction has changed it again, its committed version is
+     * written, which is what the log holds up to the checkpoint.
+     *
+     * @return true if the page was written
+     */
+    boolean checkpointPage(PageId pid) throws IOException {
+        Page p = pageTable.peek(pid);
+        if (p == null || !cleaner.isPending(pid)) {
+            return false;
+        }
+        PageTable.Latch latch = pageTable.pin(pid, p);
+        if (latch == null) {
+            // put back by an abort meanwhile, the next pass of the caller gets it
+            return false;
+        }
+        try {
+            latch.rw.writeLock().lock();
+            try {
+                synchronized (cleaner.writeLock) {
+                    if (pageTable.peek(pid) != p || !cleaner.isPending(pid)) {
+                        return false;
+                    }
+                    Page committed = p.isDirty() == null ? p : p.getBeforeImage();
+                    Database.getLogFile().awaitDurable(p.getLsn());
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(committed);
+                    cleaner.remove(pid);
+                    if (committed == p) {
+                        pageTable.release(pid);
+                    }
+                    return true;
+                }
+            } finally {
+                latch.rw.writeLock().unlock();
+            }
+        } finally {
+            pageTable.unpin(pid, latch);
+        }
+    }
+
+    /**
+     * Shut the pool down: stop the page cleaner and write the committed pages it has not written yet, each once the log
+     * is durable up to its page LSN (an asynchronous commit may not be yet). Pages an active transaction dirtied again
+     * are written as of their last commit. Then save the residency snapshot, if configured.
+     */
+    public void close() {
+        stop();
+        for (PageId pid : cleaner.pendingPages()) {
+            Page p = pageTable.peek(pid);
+            if (p != null) {
+                Page committed = p.isDirty() == null ? p : p.getBeforeImage();
                 try {
-                    flushPage(entry.getKey());
-                } catch (IOException e) {
-                    throw new DbException(e);
+                    Database.getLogFile().awaitDurable(p.getLsn());
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(committed);
+                } catch (IOException | RuntimeException e) {
+                    Debug.log("BufferPool: failed to write page %d on close: %s", pid.getPageNumber(), e.getMessage());
+                    continue;
                 }
-                discardPage(entry.getKey());
+            }
+            cleaner.remove(pid);
+        }
+        try {
+            snapshot.save();
+        } catch (IOException e) {
+            Debug.log("BufferPool: failed to save the snapshot on close: %s", e.getMessage());
+        }
+        if (offHeap != null) {
+            offHeap.clear();
+        }
+    }
+
+    /**
+     * Drop the pool as if the process died: the threads are stopped, but no page is written and nothing is saved.
+     */
+    public void abandon() {
+        stop();
+        if (offHeap != null) {
+            offHeap.clear();
+        }
+    }
+
+    private void stop() {
+        HeapPressureMonitor.unregister(this);
+        snapshot.close();
+        pageLock.close();
+        cleaner.close();
+    }
+
+    /**
+     * Discards a page from the buffer pool. Clean pages are evicted first, so nothing has to be written; if all clean
+     * pages are still waiting for the page cleaner, a cleaning pass is run on the calling thread first. If that frees
+     * nothing either, a page that is not pinned is written to make room, even if a running transaction changed it
+     * (STEAL).
+     *
+     * @param hint the page whose miss caused the eviction; its shard is searched first
+     * @param steal false to give up rather than write a page a running transaction changed
+     */
+    private void evictPage(PageId hint, boolean steal) throws DbException {
+        // some code goes here
+        // not necessary for lab1
+        Page victim = pageTable.evict(hint, this::evictable);
+        if (victim == null && cleaner.getPendingCount() > 0 && cleaner.cleanNow() > 0) {
+            victim = pageTable.evict(hint, this::evictable);
+        }
+        if (victim == null && steal && stealPage(hint)) {
+            victim = pageTable.evict(hint, this::evictable);
+        }
+        if (victim == null) {
+            throw new DbException("Can not found clean page to evict!");
+        }
+        evicted(victim);
+    }
+
+    /**
+     * Write a page that can't be evicted as it is, so it can be. The page is pinned and latched exclusively while it is
+     * written, so nobody changes it meanwhile. The page is one that eviction held out of the replacement policy.
+     *
+     * @return false if every page is pinned
+     */
+    private boolean stealPage(PageId hint) throws DbException {
+        Page p = pageTable.findHeld(hint);
+        if (p == null) {
+            return false;
+        }
+        PageId pid = p.getId();
+        if (evictable(p)) {
+            // became evictable without telling the table, e.g. put back clean by an abort
+            pageTable.release(pid);
+            return true;
+        }
+        PageTable.Latch latch = pageTable.pin(pid, p);
+        if (latch == null) {
+            // gone meanwhile, which made room as well
+            return true;
+        }
+        try {
+            latch.rw.writeLock().lock();
+            try {
+                flushPage(pid);
+            } finally {
+                latch.rw.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            throw new DbException(String.format("failed to write page %d to evict it: %s", pid.getPageNumber(),
+                    e.getMessage()));
+        } finally {
+            pageTable.unpin(pid, latch);
+        }
+        return true;
+    }
+
+    /**
+     * A clean page left the pool; keep its bytes off the heap if configured.
+     */
+    private void evicted(Page victim) {
+        evictions.increment();
+        readAhead.dropped(victim.getId());
+        if (offHeap != null) {
+            offHeap.put(victim);
+        }
+    }
+
+    /**
+     * A page may leave the pool if nobody has changed it, or the changes are written already. Called by the page table
+     * under a shard lock, so it only reads and never blocks.
+     */
+    private boolean evictable(Page p) {
+        return p.isDirty() == null && !cleaner.isPending(p.getId());
+    }
+
+    /**
+     * Change the number of pages this pool may hold, while it is in use. Growing takes effect at once, frames are only
+     * filled by later misses. Shrinking lowers the capacity {@value #SHRINK_STEP_PAGES} pages at a time and evicts
+     * clean pages after each step, so other threads keep getting through in between. Pages that can't be evicted yet
+     * (dirty or not written by the cleaner) leave later, when misses need room.
+     *
+     * @param pages the new capacity
+     */
+    public void resize(int pages) {
+        Preconditions.checkArgument(pages > 0, "a buffer pool needs at least one page");
+        synchronized (resizeLock) {
+            targetPages = pages;
+            int capacity = pageTable.capacity();
+            if (pages >= capacity) {
+                pageTable.setCapacity(pages);
+                sizeScans(pages);
                 return;
             }
+            while (capacity > pages) {
+                capacity = Math.max(pages, capacity - SHRINK_STEP_PAGES);
+                pageTable.setCapacity(capacity);
+                sizeScans(capacity);
+                if (!evictExcess()) {
+                    // go straight to the target, the pages that are left go when they can
+                    pageTable.setCapacity(pages);
+                    sizeScans(pages);
+                    return;
+                }
+            }
         }
-        throw new DbException("Can not found clean page to evict!");
+    }
+
+    /**
+     * Change the number of bytes worth of pages this pool may hold.
+     *
+     * @see #resize(int)
+     */
+    public void setBudgetBytes(long budgetBytes) {
+        resize(pagesFor(budgetBytes));
+    }
+
+    /**
+     * Evict clean pages until the pool is within its capacity.
+     *
+     * @return false if it has to stop because no page can be evicted
+     */
+    private boolean evictExcess() {
+        while (pageTable.size() > pageTable.capacity()) {
+            try {
+                evictPage(null, false);
+            } catch (DbException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The heap is running full: give back a quarter of the pool, but keep at least {@value #MIN_PAGES_PROPERTY}
+     * pages. Called by the {@link HeapPressureMonitor}; the pool does not grow back by itself.
+     */
+    public void onHeapPressure() {
+        int capacity = targetPages;
+        int pages = Math.max(capacity - capacity / 4, Math.min(capacity, Integer.getInteger(MIN_PAGES_PROPERTY,
+                DEFAULT_MIN_PAGES)));
+        if (pages < capacity) {
+            pressureShrinks.increment();
+            Debug.log("BufferPool: heap pressure, shrinking from %d to %d pages", capacity, pages);
+            resize(pages);
+        }
+    }
+
+    /**
+     * @return the number of pages the pool may hold
+     */
+    public int getCapacityPages() {
+        return targetPages;
+    }
+
+    /**
+     * @return the number of bytes worth of pages the pool may hold
+     */
+    public long getCapacityBytes() {
+        return (long) targetPages * getPageSize();
+    }
+
+    /**
+     * @return the number of pages in the pool; more than the capacity right after the pool was shrunk
+     */
+    public int getResidentPages() {
+        return pageTable.size();
+    }
+
+    /**
+     * @return the number of bytes of the pages in the pool
+     */
+    public long getResidentBytes() {
+        return (long) pageTable.size() * getPageSize();
+    }
+
+    /**
+     * @return the number of times the pool shrunk because the heap ran full
+     */
+    public long getHeapPressureShrinkCount() {
+        return pressureShrinks.sum();
+    }
+
+    /**
+     * @return the replacement policy of this pool
+     */
+    public ReplacementPolicyType getReplacementPolicy() {
+        return pageTable.policyType();
+    }
+
+    /**
+     * @return the number of getPage calls answered from the pool
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of getPage calls that had to read the page from disk
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of pages evicted to make room
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of pages written while a running transaction had changed them
+     */
+    public long getStealCount() {
+        return steals.sum();
+    }
+
+    /**
+     * @return the number of pages read into a scan ring instead of the pool, by the scan or ahead of it
+     */
+    public long getRingReadCount() {
+        return ringReads.sum();
     }
 
 }
@@ -0,0 +1,124 @@
+package org.learn2pro.easydb.storage;
+
+import java.util.HashMap;
+
+/**
+ * BufferRing is a small private set of frames used by one large sequential scan instead of the shared page table of
+ * the BufferPool. Pages the scan reads from disk are kept in the ring and recycled round robin, so a scan over a table
+ * bigger than the pool does not push hot index and small-table pages out of the pool.
+ * <p>
+ * A ring only ever holds clean, read-only copies: pages that are resident in the pool are always taken from there
+ * first, and the scan holds a shared lock on every page it reads, so the copy cannot go stale while it is in use.
+ *
+ * @see BufferPool#newScanRing(int)
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    /**
+     * Default number of frames of a ring, overridden by the system property {@value #SIZE_PROPERTY}.
+     */
+    public static final int DEFAULT_RING_PAGES = 16;
+    public static final String SIZE_PROPERTY = "easydb.buffer.ringPages";
+    /**
+     * A ring never takes more than a quarter of the pool; pools that can't spare this many frames don't use rings.
+     */
+    public static final int MIN_RING_PAGES = 2;
+    /**
+     * Default fraction of the pool size a table has to exceed before its scans use a ring, overridden by the system
+     * property {@value #THRESHOLD_PROPERTY}.
+     */
+    public static final double DEFAULT_SCAN_THRESHOLD = 0.25;
+    public static final String THRESHOLD_PROPERTY = "easydb.buffer.ringThreshold";
+
+    private final PageId[] frames;
+    private final HashMap<PageId, Page> pages;
+    /**
+     * page table stamps of pages read ahead without a lock, see {@link #get(PageId, long)}
+     */
+    private final HashMap<PageId, Long> stamps;
+    private int next = 0;
+
+    public BufferRing(int numPages) {
+        this.frames = new PageId[numPages];
+        this.pages = new HashMap<>(numPages * 2);
+        this.stamps = new HashMap<>(numPages * 2);
+    }
+
+    /**
+     * @return the configured ring size in pages
+     */
+    public static int configuredRingPages() {
+        return Integer.getInteger(SIZE_PROPERTY, DEFAULT_RING_PAGES);
+    }
+
+    /**
+     * @return the configured fraction of the pool size above which scans use a ring
+     */
+    public static double configuredThreshold() {
+        String threshold = System.getProperty(THRESHOLD_PROPERTY);
+        return threshold == null ? DEFAULT_SCAN_THRESHOLD : Double.parseDouble(threshold);
+    }
+
+    public synchronized Page get(PageId pid) {
+        return pages.get(pid);
+    }
+
+    /**
+     * Look up a page, ignoring a copy that was read ahead before the pool last dropped a page of its shard: that copy
+     * may predate a write which has been committed and evicted since.
+     *
+     * @param stamp the current page table stamp of pid
+     */
+    synchronized Page get(PageId pid, long stamp) {
+        Long readStamp = stamps.get(pid);
+        if (readStamp != null && readStamp != stamp) {
+            return null;
+        }
+        return pages.get(pid);
+    }
+
+    /**
+     * Keep a page in the ring, recycling the oldest frame if the ring is full.
+     *
+     * @return the page recycled to make room, or null
+     */
+    public synchronized PageId put(PageId pid, Page page) {
+        stamps.remove(pid);
+        return doPut(pid, page);
+    }
+
+    /**
+     * Keep a page read ahead of the scan, remembering the page table stamp taken before it was read.
+     *
+     * @return the page recycled to make room, or null
+     */
+    synchronized PageId put(PageId pid, Page page, long stamp) {
+        stamps.put(pid, stamp);
+        return doPut(pid, page);
+    }
+
+    private PageId doPut(PageId pid, Page page) {
+        if (pages.containsKey(pid)) {
+            pages.put(pid, page);
+            return null;
+        }
+        PageId old = frames[next];
+        if (old != null) {
+            pages.remove(old);
+            stamps.remove(old);
+        }
+        frames[next] = pid;
+        pages.put(pid, page);
+        next = (next + 1) % frames.length;
+        return old;
+    }
+
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    public int capacity() {
+        return frames.length;
+    }
+}
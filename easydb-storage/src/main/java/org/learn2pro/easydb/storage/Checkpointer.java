@@ -0,0 +1,189 @@
+package org.learn2pro.easydb.storage;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Takes fuzzy checkpoints of a {@link LogFile} in the background, see {@link LogFile#logCheckpoint}.
+ * <p>
+ * A checkpoint is taken when one is {@link #request requested}, and every {@value #INTERVAL_PROPERTY} milliseconds if
+ * that is set. The dirty pages of a checkpoint are written {@value #BATCH_PROPERTY} at a time, with a pause of
+ * {@value #PAUSE_PROPERTY} milliseconds between the batches, so the checkpoint doesn't take the disk from the
+ * foreground. Like the page cleaner, the thread only runs while there is something to do.
+ *
+ * @Threadsafe
+ */
+public class Checkpointer {
+
+    public static final String INTERVAL_PROPERTY = "easydb.log.checkpointIntervalMillis";
+    public static final int DEFAULT_BATCH_PAGES = 32;
+    public static final String BATCH_PROPERTY = "easydb.log.checkpointBatchPages";
+    public static final long DEFAULT_PAUSE_MILLIS = 1;
+    public static final String PAUSE_PROPERTY = "easydb.log.checkpointPauseMillis";
+
+    private final LogFile log;
+    /**
+     * 0 to only checkpoint on request
+     */
+    private final long intervalMillis;
+    private final int batchPages;
+    private final long pauseMillis;
+
+    /**
+     * serializes checkpoints, whichever thread takes them
+     */
+    final Object checkpointLock = new Object();
+
+    private final LongAdder checkpoints = new LongAdder();
+    private final LongAdder pagesWritten = new LongAdder();
+
+    // protected by this
+    private Thread thread;
+    private boolean requested = false;
+    private boolean closed = false;
+
+    public Checkpointer(LogFile log) {
+        this(log, Long.getLong(INTERVAL_PROPERTY, 0), Integer.getInteger(BATCH_PROPERTY, DEFAULT_BATCH_PAGES),
+                Long.getLong(PAUSE_PROPERTY, DEFAULT_PAUSE_MILLIS));
+    }
+
+    public Checkpointer(LogFile log, long intervalMillis, int batchPages, long pauseMillis) {
+        this.log = log;
+        this.intervalMillis = intervalMillis;
+        this.batchPages = Math.max(1, batchPages);
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Start the thread if checkpoints are taken periodically.
+     */
+    synchronized void start() {
+        if (intervalMillis > 0 && thread == null && !closed) {
+            startThread();
+        }
+    }
+
+    /**
+     * Ask for a checkpoint in the background; returns at once.
+     */
+    public synchronized void request() {
+        if (closed) {
+            return;
+        }
+        requested = true;
+        if (thread == null) {
+            startThread();
+        } else {
+            notifyAll();
+        }
+    }
+
+    private void startThread() {
+        thread = new Thread(this::run, "easydb-checkpointer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Wait until the checkpoints requested so far are taken.
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (requested && !closed) {
+            wait(100);
+        }
+    }
+
+    /**
+     * Called after a batch of pages was written by a checkpoint.
+     */
+    void pause(int written) {
+        pagesWritten.add(written);
+        if (pauseMillis > 0) {
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    int getBatchPages() {
+        return batchPages;
+    }
+
+    /**
+     * Called after a checkpoint was taken, whichever thread took it.
+     */
+    void taken() {
+        checkpoints.increment();
+    }
+
+    private void run() {
+        try {
+            for (; ; ) {
+                synchronized (this) {
+                    if (!requested && !closed && intervalMillis > 0) {
+                        wait(intervalMillis);
+                        requested = true;
+                    }
+                    // the database was reset, the log is not in use any more
+                    if (closed || !requested || Database.getLogFile() != log) {
+                        thread = null;
+                        requested = false;
+                        notifyAll();
+                        return;
+                    }
+                }
+                log.logCheckpoint();
+                synchronized (this) {
+                    requested = false;
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                thread = null;
+            }
+        } catch (IOException | RuntimeException e) {
+            Debug.log("Checkpointer: stopped by %s", e);
+            synchronized (this) {
+                thread = null;
+                requested = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stop the thread, letting a checkpoint it is taking finish first.
+     */
+    void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            t = thread;
+        }
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of checkpoints taken, in the background or not
+     */
+    public long getCheckpointCount() {
+        return checkpoints.sum();
+    }
+
+    /**
+     * @return the number of pages checkpoints wrote
+     */
+    public long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+}
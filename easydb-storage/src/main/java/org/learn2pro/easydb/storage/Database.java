@@ -24,7 +24,7 @@ public class Database {
 
     private Database() {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool = new BufferPool(BufferPool.configuredPages());
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -57,6 +57,7 @@ public class Database {
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF=null;
+        _instance.get()._bufferpool.close();
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
@@ -76,6 +77,13 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        _instance.get()._bufferpool.close();
+        _instance.set(new Database());
+    }
+
+    // drop the database as if the process died, nothing is written; used for unit tests only.
+    public static void crash() {
+        _instance.get()._bufferpool.abandon();
         _instance.set(new Database());
     }
 
@@ -19,6 +19,16 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Build the specified page from its bytes, as {@link #readPage} would after reading them from disk. Used by the
+     * BufferPool to bring back pages it kept off the heap.
+     *
+     * @return the page, or null if this file only builds pages by reading them
+     */
+    default Page decodePage(PageId id, byte[] data) {
+        return null;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -0,0 +1,217 @@
+package org.learn2pro.easydb.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * GroupCommit lets concurrent committers share one log force. The log tells it the LSN after every record it appends;
+ * a committer then waits until the log is durable up to its COMMIT record instead of forcing the file itself.
+ * <p>
+ * The first waiter that finds no force running becomes the leader of the next group. It may wait up to
+ * {@value #WINDOW_PROPERTY} microseconds (default {@value #DEFAULT_WINDOW_MICROS}) for more commits to join, but no
+ * longer than until {@value #MAX_GROUP_PROPERTY} commits (default {@value #DEFAULT_MAX_GROUP}) are waiting, forces the
+ * log once for everything appended by then, and releases the whole group. Commits arriving while a force is running
+ * form the next group, so even without a window the log is forced at most once per running force.
+ *
+ * @Threadsafe
+ */
+public class GroupCommit {
+
+    public static final long DEFAULT_WINDOW_MICROS = 0;
+    public static final String WINDOW_PROPERTY = "easydb.log.groupCommitMicros";
+    public static final int DEFAULT_MAX_GROUP = 64;
+    public static final String MAX_GROUP_PROPERTY = "easydb.log.groupCommitMaxSize";
+
+    /**
+     * makes the log durable up to an LSN
+     */
+    @FunctionalInterface
+    interface Force {
+
+        void force(long lsn) throws IOException;
+    }
+
+    private final Force force;
+    private volatile long windowNanos;
+    private volatile int maxGroup;
+
+    /**
+     * the LSN after the last record appended and the number of COMMIT records, written on the log monitor only
+     */
+    private volatile long appended = 0;
+    private volatile long commits = 0;
+
+    /**
+     * guards the fields below
+     */
+    private final Object groupLock = new Object();
+    private long durable = 0;
+    private long durableCommits = 0;
+    private boolean forcing = false;
+
+    private final LongAdder forces = new LongAdder();
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder grouped = new LongAdder();
+
+    public GroupCommit(Force force) {
+        this(force, Long.getLong(WINDOW_PROPERTY, DEFAULT_WINDOW_MICROS),
+                Integer.getInteger(MAX_GROUP_PROPERTY, DEFAULT_MAX_GROUP));
+    }
+
+    public GroupCommit(Force force, long windowMicros, int maxGroup) {
+        this.force = force;
+        configure(windowMicros, maxGroup);
+    }
+
+    /**
+     * @param windowMicros how long a leader waits for more commits before it forces, 0 not to wait
+     * @param maxGroup the number of waiting commits that ends the window early
+     */
+    public void configure(long windowMicros, int maxGroup) {
+        if (windowMicros < 0 || maxGroup < 1) {
+            throw new IllegalArgumentException(
+                    String.format("bad group commit window %dus or group size %d", windowMicros, maxGroup));
+        }
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxGroup = maxGroup;
+    }
+
+    /**
+     * Count a record the log appended, called on the log monitor once the record is in the log buffer.
+     *
+     * @param position the LSN after the record
+     */
+    void appended(long position, boolean commit) {
+        // the position first: whoever sees the commit sees its record
+        appended = position;
+        if (commit) {
+            commits++;
+            synchronized (groupLock) {
+                if (forcing && commits - durableCommits >= maxGroup) {
+                    groupLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the LSN after the last record appended
+     */
+    long position() {
+        return appended;
+    }
+
+    /**
+     * @return the LSN the log is durable up to
+     */
+    long durable() {
+        synchronized (groupLock) {
+            return durable;
+        }
+    }
+
+    /**
+     * Wait until the log is durable up to the given LSN, forcing it as the leader of a group if nobody else is.
+     *
+     * @param mayWait false if the caller holds the log monitor, so nobody could join a group it waits for
+     */
+    void await(long position, boolean mayWait) throws IOException {
+        synchronized (groupLock) {
+            while (durable < position) {
+                if (!forcing) {
+                    forcing = true;
+                    break;
+                }
+                waitOn(0);
+            }
+            if (durable >= position) {
+                return;
+            }
+        }
+        lead(mayWait);
+    }
+
+    private void lead(boolean mayWait) throws IOException {
+        long target;
+        long targetCommits;
+        try {
+            if (mayWait && windowNanos > 0) {
+                long deadline = System.nanoTime() + windowNanos;
+                synchronized (groupLock) {
+                    long left;
+                    while (commits - durableCommits < maxGroup && (left = deadline - System.nanoTime()) > 0) {
+                        waitOn(left);
+                    }
+                }
+            }
+            targetCommits = commits;
+            target = appended;
+            force.force(target);
+        } catch (IOException | RuntimeException e) {
+            synchronized (groupLock) {
+                // let the next waiter try
+                forcing = false;
+                groupLock.notifyAll();
+            }
+            throw e;
+        }
+        synchronized (groupLock) {
+            forces.increment();
+            if (targetCommits > durableCommits) {
+                groups.increment();
+                grouped.add(targetCommits - durableCommits);
+            }
+            durable = Math.max(durable, target);
+            durableCommits = Math.max(durableCommits, targetCommits);
+            forcing = false;
+            groupLock.notifyAll();
+        }
+    }
+
+    /**
+     * wait on the group lock, held by the caller
+     */
+    private void waitOn(long nanos) throws InterruptedIOException {
+        try {
+            if (nanos > 0) {
+                TimeUnit.NANOSECONDS.timedWait(groupLock, nanos);
+            } else {
+                groupLock.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the log to be forced");
+        }
+    }
+
+    /**
+     * @return the number of times the log was forced, for commits or not
+     */
+    public long getForceCount() {
+        return forces.sum();
+    }
+
+    /**
+     * @return the number of commits made durable by the forces so far
+     */
+    public long getGroupedCommitCount() {
+        return grouped.sum();
+    }
+
+    /**
+     * @return the number of forces that made at least one commit durable
+     */
+    public long getGroupCount() {
+        return groups.sum();
+    }
+
+    /**
+     * @return the average number of commits made durable by one force
+     */
+    public double getAverageGroupSize() {
+        long n = groups.sum();
+        return n == 0 ? 0 : (double) grouped.sum() / n;
+    }
+}
@@ -38,7 +38,11 @@ public class HeapFile implements DbFile {
     /**
      * the page size
      */
-    private int pageSize;
+    private volatile int pageSize;
+    /**
+     * guards appending pages
+     */
+    private final Object allocation = new Object();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -104,7 +108,7 @@ public class HeapFile implements DbFile {
                         + BufferPool.getPageSize() + " bytes from BTreeFile");
             }
             Debug.log(1, "HeapFile.readPage: read page %d", pid.getPageNumber());
-            return new HeapPage((HeapPageId) pid, pageBuf);
+            return decodePage(pid, pageBuf);
         } catch (FileNotFoundException e) {
             Debug.log("file not found:%s", file.getName());
             return null;
@@ -117,6 +121,16 @@ public class HeapFile implements DbFile {
         }
     }
 
+    // see DbFile.java for javadocs
+    @Override
+    public Page decodePage(PageId pid, byte[] data) {
+        try {
+            return new HeapPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
@@ -124,8 +138,10 @@ public class HeapFile implements DbFile {
         Preconditions.checkArgument(page instanceof HeapPage, "the input page id must be heap page!");
         //append
         if (page.getId().getPageNumber() >= numPages()) {
-            Files.write(file.toPath(), page.getPageData(), StandardOpenOption.APPEND);
-            incrPageSize(1);
+            synchronized (allocation) {
+                Files.write(file.toPath(), page.getPageData(), StandardOpenOption.APPEND);
+                incrPageSize(1);
+            }
         }
         //update
         else {
@@ -150,28 +166,38 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        int i = 0;
-        //update history page
-        for (; i < numPages(); i++) {
+        for (int i = 0; ; i++) {
             HeapPageId pageId = new HeapPageId(this.tableId, i);
-            Page page = Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-            try {
-                page.insertTuple(t);
-                //succeed then return
-                return Lists.newArrayList(page);
-            } catch (DbException e) {
-                //do not change page
-                page.markDirty(false, null);
-            } finally {
-//                Database.getBufferPool().releasePage(tid, pageId);
+            if (i >= numPages()) {
+                allocatePage(pageId);
+            }
+            // look before locking: a full page is passed over without a lock, so it never needs an upgrade
+            HeapPage page = (HeapPage) Database.getBufferPool().peekPage(pageId);
+            if (page != null && page.getNumEmptySlots() == 0) {
+                continue;
+            }
+            page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+            //filled up since the look, try the next one
+            if (page.getNumEmptySlots() == 0) {
+                continue;
+            }
+            page.insertTuple(t);
+            //succeed then return
+            return Lists.newArrayList(page);
+        }
+    }
+
+    /**
+     * Append an empty page to the file, unless another transaction did already. The file gets the empty page first, so
+     * the page is known to it like any other and may be evicted before the transaction ends; appending under the
+     * allocation lock makes sure that a page is written empty only once, and never over a page in use.
+     */
+    private void allocatePage(HeapPageId pageId) throws IOException {
+        synchronized (allocation) {
+            if (pageId.getPageNumber() >= numPages()) {
+                writePage(new HeapPage(new HeapPageId(this.tableId, numPages()), HeapPage.createEmptyPageData()));
             }
         }
-        //create new page
-        byte[] data = HeapPage.createEmptyPageData();
-        HeapPage heapPage = new HeapPage(new HeapPageId(this.tableId, i), data);
-        heapPage.insertTuple(t);
-//        writePage(heapPage);
-        return Lists.newArrayList(heapPage);
     }
 
     // see DbFile.java for javadocs
@@ -206,13 +232,22 @@ public class HeapFile implements DbFile {
          */
         private TransactionId tid;
         /**
-         * the current page
+         * the current page, pinned while the scan reads it
          */
         private HeapPage current;
+        private PinnedPage pinned;
         /**
          * the iterator of tuple
          */
         private Iterator<Tuple> it;
+        /**
+         * private frames for a table too big for the buffer pool, null if the scan goes through the pool
+         */
+        private BufferRing ring;
+        /**
+         * the read-ahead stream of this scan, null if read-ahead is off
+         */
+        private ReadAhead.Stream readAhead;
 
         public HeadFileIterator(TransactionId tid) {
             this.tid = tid;
@@ -226,7 +261,13 @@ public class HeapFile implements DbFile {
         @Override
         public void open() throws DbException, TransactionAbortedException {
             HeapPageId pageId = new HeapPageId(tableId, 0);
-            current = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
+            if (Database.getBufferPool().locksTableForScan(numPages())) {
+                // one table lock instead of a lock per page
+                Database.getBufferPool().lockTable(tid, tableId, LockMode.S);
+            }
+            ring = Database.getBufferPool().newScanRing(numPages());
+            readAhead = Database.getBufferPool().getReadAhead().newStream(ring);
+            pin(pageId);
             it = current.iterator();
         }
 
@@ -252,21 +293,47 @@ public class HeapFile implements DbFile {
                     if (pageId.getPageNumber() >= pageSize) {
                         return null;
                     }
-                    current = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
+                    pin(pageId);
                     it = current.iterator();
                 }
             }
             return null;
         }
 
+        private void pin(HeapPageId pageId) throws DbException, TransactionAbortedException {
+            if (pinned != null) {
+                pinned.close();
+                pinned = null;
+            }
+            pinned = Database.getBufferPool().pinPage(tid, pageId, Permissions.READ_ONLY, ring);
+            if (pinned == null) {
+                throw new DbException(String.format("can't read page %d of table %d", pageId.getPageNumber(),
+                        pageId.getTableId()));
+            }
+            current = (HeapPage) pinned.getPage();
+            readAhead(pageId);
+        }
+
+        private void readAhead(HeapPageId pageId) {
+            if (readAhead != null) {
+                readAhead.onPage(pageId, pageSize);
+            }
+        }
+
         /**
          * If subclasses override this, they should call super.close().
          */
         @Override
         public void close() {
             super.close();
+            if (pinned != null) {
+                pinned.close();
+                pinned = null;
+            }
             it = null;
             current = null;
+            ring = null;
+            readAhead = null;
         }
     }
 
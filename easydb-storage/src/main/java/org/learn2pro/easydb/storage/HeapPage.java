@@ -44,6 +44,10 @@ public class HeapPage implements Page {
      * the old data
      */
     byte[] oldData;
+    /**
+     * the page made from oldData by {@link #getReadOnlyBeforeImage()}, null until asked for; guarded by oldDataLock
+     */
+    private HeapPage readOnlyBeforeImage;
     /**
      * true=dirty page
      */
@@ -52,6 +56,10 @@ public class HeapPage implements Page {
      * dirty by this tid
      */
     private TransactionId dirtyTid;
+    /**
+     * the page LSN, see {@link Page#getLsn()}
+     */
+    private volatile long lsn;
     /**
      * lock for change
      */
@@ -145,6 +153,17 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized (oldDataLock) {
             oldData = getPageData().clone();
+            readOnlyBeforeImage = null;
+        }
+    }
+
+    @Override
+    public HeapPage getReadOnlyBeforeImage() {
+        synchronized (oldDataLock) {
+            if (readOnlyBeforeImage == null) {
+                readOnlyBeforeImage = getBeforeImage();
+            }
+            return readOnlyBeforeImage;
         }
     }
 
@@ -349,6 +368,14 @@ public class HeapPage implements Page {
         return dirtyTid;
     }
 
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -0,0 +1,95 @@
+package org.learn2pro.easydb.storage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * HeapPressureMonitor tells the live BufferPools to shrink when the JVM heap runs full.
+ * <p>
+ * It asks the JVM to report when a heap memory pool is still above {@value #DEFAULT_THRESHOLD} of its maximum (system
+ * property {@value #THRESHOLD_PROPERTY}, 0 turns it off) right after a garbage collection, which means live data and
+ * not garbage fills the heap. Every report shrinks every registered pool by a quarter, see
+ * {@link BufferPool#onHeapPressure()}. Pools are held weakly, a pool that was never closed does not leak.
+ *
+ * @Threadsafe
+ */
+class HeapPressureMonitor {
+
+    public static final double DEFAULT_THRESHOLD = 0.9;
+    public static final String THRESHOLD_PROPERTY = "easydb.buffer.heapPressureThreshold";
+
+    private static final Set<BufferPool> POOLS = Collections.newSetFromMap(
+            Collections.synchronizedMap(new WeakHashMap<>()));
+    // protected by POOLS
+    private static boolean installed = false;
+
+    private HeapPressureMonitor() {
+    }
+
+    static void register(BufferPool pool) {
+        POOLS.add(pool);
+        synchronized (POOLS) {
+            if (!installed) {
+                installed = true;
+                install();
+            }
+        }
+    }
+
+    static void unregister(BufferPool pool) {
+        POOLS.remove(pool);
+    }
+
+    private static void install() {
+        double threshold = Double.parseDouble(System.getProperty(THRESHOLD_PROPERTY,
+                Double.toString(DEFAULT_THRESHOLD)));
+        if (threshold <= 0) {
+            return;
+        }
+        boolean watching = false;
+        for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = mp.getUsage().getMax();
+            if (mp.getType() == MemoryType.HEAP && mp.isCollectionUsageThresholdSupported() && max > 0) {
+                mp.setCollectionUsageThreshold((long) (max * Math.min(threshold, 1.0)));
+                watching = true;
+            }
+        }
+        if (watching) {
+            NotificationListener listener = HeapPressureMonitor::handle;
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(listener, null, null);
+        }
+    }
+
+    private static void handle(Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            fire();
+        }
+    }
+
+    /**
+     * Shrink all registered pools, as if the heap ran full.
+     */
+    static void fire() {
+        List<BufferPool> pools;
+        synchronized (POOLS) {
+            pools = new ArrayList<>(POOLS);
+        }
+        for (BufferPool pool : pools) {
+            try {
+                pool.onHeapPressure();
+            } catch (RuntimeException e) {
+                Debug.log("HeapPressureMonitor: shrinking a pool failed: %s", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.learn2pro.easydb.storage;
+
+/**
+ * The modes of a lock in the lock hierarchy table &gt; page &gt; record. Shared (S) and exclusive (X) lock a resource
+ * and everything below it. The intention modes lock nothing by themselves: IS and IX announce S and X locks further
+ * down, SIX is S on the whole resource plus the intention to write some parts of it.
+ * <pre>
+ *          IS   IX   S    SIX  X
+ *     IS   y    y    y    y    -
+ *     IX   y    y    -    -    -
+ *     S    y    -    y    -    -
+ *     SIX  y    -    -    -    -
+ *     X    -    -    -    -    -
+ * </pre>
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //         IS     IX     S      SIX    X
+            /* IS  */ {true, true, true, true, false},
+            /* IX  */ {true, true, false, false, false},
+            /* S   */ {true, false, true, false, false},
+            /* SIX */ {true, false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /**
+     * @return the shared or exclusive mode of a page access
+     */
+    public static LockMode of(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? X : S;
+    }
+
+    public boolean compatible(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return the weakest mode that grants at least what both modes grant
+     */
+    public LockMode join(LockMode other) {
+        if (this == other || other.covers(this)) {
+            return other;
+        }
+        if (covers(other)) {
+            return this;
+        }
+        // only S and IX are incomparable
+        return SIX;
+    }
+
+    /**
+     * @return true if holding this mode makes a request for the other one unnecessary
+     */
+    public boolean covers(LockMode other) {
+        switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+                return other == S || other == IS;
+            case IX:
+                return other == IX || other == IS;
+            default:
+                return other == IS;
+        }
+    }
+
+    /**
+     * @return the mode to lock the parent of a resource with before locking the resource in this mode
+     */
+    public LockMode intention() {
+        return this == S || this == IS ? IS : IX;
+    }
+}
@@ -0,0 +1,282 @@
+package org.learn2pro.easydb.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LogBuffer collects log records in memory and has a single writer thread append them to the log segments. Records
+ * are serialized straight into a ByteBuffer; the buffer is double buffered, so records keep going into one buffer while
+ * the writer thread writes the other with one large positional write, see {@link LogSegments#write}.
+ * <p>
+ * Every byte of the log has a log sequence number, its logical address: LSNs only grow, and a record is known by the
+ * LSN of its first byte. {@link #awaitWritten} waits until the segments hold everything up to an LSN; forcing them is
+ * left to the caller, see {@link GroupCommit}. A buffer is written when it is full or when somebody waits for it.
+ * <p>
+ * Buffers are {@value #DEFAULT_BUFFER_BYTES} bytes (system property {@value #BUFFER_PROPERTY}); a record that doesn't
+ * fit into an empty buffer gets a buffer of its own. The writer thread is started on demand and exits after
+ * {@value #IDLE_MILLIS}ms without work.
+ *
+ * @Threadsafe
+ */
+public class LogBuffer {
+
+    public static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+    public static final String BUFFER_PROPERTY = "easydb.log.bufferBytes";
+    static final long IDLE_MILLIS = 1000;
+
+    /**
+     * writes the bytes of one record
+     */
+    @FunctionalInterface
+    interface Body {
+
+        void write(ByteBuffer out);
+    }
+
+    private final int capacity;
+
+    // all guarded by this
+    private LogSegments segments;
+    /**
+     * the buffer records are appended to, and the LSN of its first byte
+     */
+    private ByteBuffer filling;
+    private long fillingLsn;
+    /**
+     * the buffer handed to the writer thread, if any, and the LSN of its first byte
+     */
+    private ByteBuffer sealed;
+    private long sealedLsn;
+    private ByteBuffer spare;
+    /**
+     * the LSN the next record gets
+     */
+    private long end;
+    /**
+     * the segments hold everything before this LSN
+     */
+    private long written;
+    /**
+     * somebody waits for the segments to hold everything before this LSN
+     */
+    private long requested;
+    private Thread writer;
+    private IOException failure;
+    private boolean closed = false;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    public LogBuffer() {
+        this(Integer.getInteger(BUFFER_PROPERTY, DEFAULT_BUFFER_BYTES));
+    }
+
+    public LogBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("bad log buffer size " + capacity);
+        }
+        this.capacity = capacity;
+        this.filling = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Append from now on at the given LSN of the segments, which hold everything before. The buffer must have been
+     * written out.
+     *
+     * @param lsn the LSN of the next record
+     */
+    synchronized void reopen(LogSegments segments, long lsn) {
+        if (sealed != null || filling.position() > 0) {
+            throw new IllegalStateException("log buffer reopened before it was written");
+        }
+        this.segments = segments;
+        this.fillingLsn = lsn;
+        this.end = lsn;
+        this.written = lsn;
+        this.requested = lsn;
+        this.closed = false;
+    }
+
+    /**
+     * Append a record of the given size.
+     *
+     * @return the LSN after the record
+     */
+    synchronized long append(int size, Body body) throws IOException {
+        checkFailure();
+        if (closed) {
+            throw new IOException("log buffer closed");
+        }
+        if (filling.remaining() < size) {
+            if (filling.position() > 0) {
+                while (sealed != null) {
+                    startWriter();
+                    waitForWriter();
+                }
+                seal();
+                startWriter();
+                notifyAll();
+            }
+            if (filling.capacity() < size) {
+                filling = ByteBuffer.allocate(size);
+            }
+        }
+        int start = filling.position();
+        body.write(filling);
+        if (filling.position() - start != size) {
+            throw new IllegalStateException(
+                    String.format("log record of %d bytes wrote %d", size, filling.position() - start));
+        }
+        end += size;
+        return end;
+    }
+
+    /**
+     * @return the LSN the next record gets
+     */
+    synchronized long end() {
+        return end;
+    }
+
+    synchronized long getWrittenLsn() {
+        return written;
+    }
+
+    /**
+     * Wait until the segments hold everything before the given LSN.
+     */
+    synchronized void awaitWritten(long lsn) throws IOException {
+        while (written < Math.min(lsn, end)) {
+            checkFailure();
+            requested = Math.max(requested, lsn);
+            startWriter();
+            notifyAll();
+            waitForWriter();
+        }
+    }
+
+    /**
+     * Wait until the segments hold everything appended so far.
+     */
+    void flush() throws IOException {
+        awaitWritten(end());
+    }
+
+    /**
+     * Write everything out and let the writer thread exit.
+     */
+    void close() throws IOException {
+        flush();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    private void seal() {
+        filling.flip();
+        sealed = filling;
+        sealedLsn = fillingLsn;
+        fillingLsn = end;
+        filling = spare != null ? spare : ByteBuffer.allocateDirect(capacity);
+        spare = null;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("log writer failed", failure);
+        }
+    }
+
+    private void startWriter() {
+        if (writer == null) {
+            writer = new Thread(this::run, "easydb-log-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private void waitForWriter() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the log writer");
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return true if the writer thread has something to write
+     */
+    private boolean hasWork() {
+        return sealed != null || (requested > written && filling.position() > 0);
+    }
+
+    private void run() {
+        try {
+            for (; ; ) {
+                ByteBuffer buf;
+                long lsn;
+                LogSegments out;
+                synchronized (this) {
+                    boolean idle = false;
+                    while (!hasWork()) {
+                        if (idle || closed) {
+                            writer = null;
+                            return;
+                        }
+                        wait(IDLE_MILLIS);
+                        idle = true;
+                    }
+                    if (sealed == null) {
+                        seal();
+                    }
+                    buf = sealed;
+                    lsn = sealedLsn;
+                    out = segments;
+                }
+                int size = buf.remaining();
+                out.write(buf, lsn);
+                writes.increment();
+                bytes.add(size);
+                synchronized (this) {
+                    written = lsn + size;
+                    sealed = null;
+                    buf.clear();
+                    if (buf.capacity() == capacity && buf.isDirect()) {
+                        spare = buf;
+                    }
+                    notifyAll();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                writer = null;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                writer = null;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of writes to the segments
+     */
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+    /**
+     * @return the number of bytes written to the segments
+     */
+    public long getBytesWritten() {
+        return bytes.sum();
+    }
+}
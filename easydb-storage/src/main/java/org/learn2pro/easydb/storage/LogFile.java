@@ -2,20 +2,22 @@
 package org.learn2pro.easydb.storage;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * LogFile implements the recovery subsystem of SimpleDb.  This class is able to write different log records as needed,
@@ -41,48 +43,90 @@ import java.util.Stack;
  * }
  * }
  * </pre>
+ * <p>
+ * Records are not written to the file on the LogFile monitor: they are serialized into a {@link LogBuffer}, whose
+ * writer thread appends them to the log segments in large writes. Reading the log (rollback, recovery, truncation)
+ * first waits until the buffer is written out.
+ * <p>
+ * Commits don't force the log themselves: {@link #logCommit} appends the COMMIT record and waits for a
+ * {@link GroupCommit group commit}, so concurrent committers share one force. The force runs outside the LogFile
+ * monitor and other transactions keep appending meanwhile. {@link #awaitDurable} waits until the log is durable up to
+ * any LSN. An asynchronous commit doesn't wait at all, the {@link LogFlusher} forces its record within a bounded
+ * interval.
+ * <p>
+ * The buffer pool is STEAL/NO-FORCE: it may write pages of running transactions to make room, after logging them and
+ * waiting until the log is durable up to the page LSN, and committing writes the log only. Aborts and recovery undo
+ * with compensation log records (CLRs), so an update is never undone twice; {@link #recover} repeats history from the
+ * last checkpoint, then undoes the transactions that did not finish.
+ * <p>
+ * Checkpoints are fuzzy, see {@link #logCheckpoint}: they hold the LogFile monitor only to append their records, and
+ * the dirty pages are written in between, by the caller or by the {@link Checkpointer} in the background.
  */
 
 /**
- * <p> The format of the log file is as follows:
+ * <p> The format of the log is as follows:
  *
  * <ul>
  *
- * <li> The first long integer of the file represents the offset of the
- * last written checkpoint, or -1 if there are no checkpoints
+ * <li> Records are known by their LSN, the logical address of their first
+ * byte. LSNs only grow; truncating the log drops its head but doesn't
+ * change the LSN of any record.
+ *
+ * <li> The log is a directory of fixed size segment files, see
+ * LogSegments; a record may span two segments. The MANIFEST file of the
+ * directory holds the LSN of the CHECKPOINT record of the last completed
+ * checkpoint, or -1 if there are no checkpoints, and the LSN of the first
+ * record the log needs. Truncating the log deletes the segments before it.
  *
- * <li> All additional data in the log consists of log records.  Log
- * records are variable length.
+ * <li> All other data in the log consists of log records.  Log
+ * records are variable length. Segments are preallocated with zeros, and
+ * the log ends at the first record of type 0 or the first record cut
+ * short.
  *
  * <li> Each log record begins with an integer type and a long integer
  * transaction id.
  *
- * <li> Each log record ends with a long integer file offset representing
- * the position in the log file where the record began.
+ * <li> Each log record ends with a long integer LSN, the LSN of the
+ * record.
  *
- * <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- * CHECKPOINT
+ * <li> There are eight record types: ABORT, COMMIT, UPDATE, BEGIN,
+ * CHECKPOINT, CLR, DELTA and CHECKPOINT_END
  *
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  *
  * <li>UPDATE RECORDS consist of two entries, a before image and an
  * after image.  These images are serialized Page objects, and can be
- * accessed with the LogFile.readPageData() and LogFile.writePageData()
- * methods.  See LogFile.print() for an example.
+ * accessed with the PageCodecs.readPage() and PageCodecs.writePage()
+ * methods: a one byte tag of the page class, the page id, the integer
+ * length of the page data and the data.  See LogFile.print() for an
+ * example.
+ *
+ * <li> CLR records consist of the LSN of the UPDATE or DELTA record they
+ * undo and the page image that undoes it.
+ *
+ * <li> DELTA records are UPDATE records that only hold the bytes of the
+ * page that changed: the page id (see PageCodecs.writePageId()), an integer
+ * count of runs, and for each run its integer offset and length, the
+ * bytes before and the bytes after.
  *
  * <li> CHECKPOINT records consist of active transactions at the time
  * the checkpoint was taken and their first log record on disk.  The format
  * of the record is an integer count of the number of transactions, as well
- * as a long integer transaction id and a long integer first record offset
+ * as a long integer transaction id and a long integer first record LSN
  * for each active transaction.
  *
+ * <li> CHECKPOINT_END records complete a checkpoint once the pages that
+ * were dirty at its CHECKPOINT record are written. They consist of the
+ * long integer LSN of that CHECKPOINT record and the integer number of
+ * pages in its dirty page table.
+ *
  * </ul>
  */
 
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -90,16 +134,40 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
+    static final int DELTA_RECORD = 7;
+    static final int CHECKPOINT_END_RECORD = 8;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    /**
+     * the LSN of the first record of a new log; no record has LSN 0
+     */
+    final static long FIRST_LSN = 2 * LONG_SIZE;
+    /**
+     * unchanged bytes between two changed ones that a DELTA record logs rather than start another run
+     */
+    final static int DELTA_GAP = 2 * INT_SIZE;
 
-    long currentOffset = -1;//protected by this
+    long currentOffset = -1;//the LSN of the next record, protected by this
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
+    /**
+     * the pages logged with a full image since the last checkpoint, and the number of records with full images and with
+     * deltas; the counts are protected by this
+     */
+    private final Set<PageId> imaged = ConcurrentHashMap.newKeySet();
+    private long imageRecords = 0;
+    private long deltaRecords = 0;
 
     HashMap<Long, Long> tidToFirstLogRecord = new HashMap<Long, Long>();
+    private volatile RecoveryStats recoveryStats;
+
+    private final LogBuffer buffer = new LogBuffer();
+    private final GroupCommit group;
+    private final Checkpointer checkpointer = new Checkpointer(this);
+    private final LogFlusher flusher = new LogFlusher(this);
 
     /**
      * Constructor. Initialize and back the log file with the specified file. We're not sure yet whether the caller is
@@ -107,12 +175,16 @@ public class LogFile {
      * to recover (after populating the Catalog). So we make this decision lazily: if someone calls recover(), then do
      * it, while if someone starts adding log file entries, then first throw out the initial log file contents.
      *
-     * @param f The log file's name
+     * @param f The log directory's name
      */
     public LogFile(File f) throws IOException {
         this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, FIRST_LSN);
         recoveryUndecided = true;
+        group = new GroupCommit(lsn -> {
+            buffer.awaitWritten(lsn);
+            segments.force();
+        });
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -132,14 +204,38 @@ public class LogFile {
         totalRecords++;
         if (recoveryUndecided) {
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.reset(FIRST_LSN);
+            currentOffset = FIRST_LSN;
+            imaged.clear();
+            buffer.reopen(segments, currentOffset);
+            checkpointer.start();
         }
     }
 
+    /**
+     * Append a record to the log buffer: type, tid, body and LSN.
+     *
+     * @return the LSN of the record
+     */
+    private long append(int type, long tid, int bodySize, LogBuffer.Body body, boolean commit) throws IOException {
+        long lsn = currentOffset;
+        currentOffset = buffer.append(INT_SIZE + LONG_SIZE + bodySize + LONG_SIZE, out -> {
+            out.putInt(type);
+            out.putLong(tid);
+            body.write(out);
+            out.putLong(lsn);
+        });
+        group.appended(currentOffset, commit);
+        return lsn;
+    }
+
+    /**
+     * Make everything in the log buffer readable from the segments.
+     */
+    private void readable() throws IOException {
+        buffer.flush();
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -156,6 +252,10 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
 
             synchronized (this) {
+                if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+                    // it logged nothing, so there is nothing to roll back or to mark aborted
+                    return;
+                }
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
@@ -164,10 +264,8 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                append(ABORT_RECORD, tid.getId(), 0, out -> {
+                }, false);
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -175,134 +273,185 @@ public class LogFile {
     }
 
     /**
-     * Write a commit record to disk for the specified tid, and force the log to disk.
+     * Write a commit record to disk for the specified tid, and wait until the log is forced up to it. The force is
+     * shared with the transactions committing at the same time, see {@link GroupCommit}.
      *
      * @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        logCommit(tid, false);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Write a commit record for the specified tid. A synchronous commit waits until the log is forced up to it, like
+     * {@link #logCommit(TransactionId)}; an asynchronous one returns at once and leaves the force to the
+     * {@link LogFlusher}, so a crash may lose it, but only together with the commits after it.
+     * <p>
+     * A transaction that logged no BEGIN record only read: it gets no COMMIT record and waits for nothing.
+     *
+     * @param tid The committing transaction.
+     * @param async true not to wait for the record to be durable
+     */
+    public void logCommit(TransactionId tid, boolean async) throws IOException {
+        long position;
+        synchronized (this) {
+            if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+                return;
+            }
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            append(COMMIT_RECORD, tid.getId(), 0, out -> {
+            }, !async);
+            position = currentOffset;
+            tidToFirstLogRecord.remove(tid.getId());
+            if (async) {
+                flusher.committed(position);
+                return;
+            }
+        }
+        group.await(position, !Thread.holdsLock(this));
     }
 
     /**
      * Write an UPDATE record to disk for the specified tid and page (with provided         before and after images.)
+     * <p>
+     * The first record of a page after a checkpoint holds both images in full; later records of the page only hold the
+     * bytes that changed, as a DELTA record, so the before image must be the page as it was logged last. Redo starts at
+     * the checkpoint and finds the full image before any delta of the page.
+     * <p>
+     * The first record of a transaction is preceded by its BEGIN record, see {@link #logXactionBegin}.
      *
      * @param tid The transaction performing the write
      * @param before The before image of the page
      * @param after The after image of the page
+     * @return the LSN after the record, the new page LSN of the page
      * @see Page#getBeforeImage
      */
-    public synchronized void logWrite(TransactionId tid, Page before,
+    public synchronized long logWrite(TransactionId tid, Page before,
             Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, lsn = " + currentOffset);
+        if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+            logXactionBegin(tid);
+        }
         preAppend();
         /* update record conists of
 
            record type
            transaction id
-           before page data (see writePageData)
+           before page data (see PageCodecs.writePage)
            after page data
-           start offset
+           start lsn
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        byte[] delta = imaged.add(after.getId()) ? null : pageDelta(before, after);
+        if (delta != null) {
+            append(DELTA_RECORD, tid.getId(), delta.length, out -> out.put(delta), false);
+            deltaRecords++;
+        } else {
+            byte[] images = pageImages(before, after);
+            append(UPDATE_RECORD, tid.getId(), images.length, out -> out.put(images), false);
+            imageRecords++;
+        }
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+        Debug.log("WRITE LSN = " + currentOffset);
+        return currentOffset;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+    /**
+     * A page is written or dropped without a log record, e.g. a B+ tree page that was freed: the file may not have the
+     * page as it was logged last, so its next record holds a full image again.
+     */
+    void unlogged(PageId pid) {
+        imaged.remove(pid);
+    }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+    /**
+     * Write a CLR: the image undoes the UPDATE or DELTA record at undoneLsn.
+     */
+    private void logClr(long tid, Page image, long undoneLsn) throws IOException {
+        preAppend();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BufferPool.getPageSize() + 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(undoneLsn);
+        PageCodecs.writePage(out, image);
+        out.flush();
+        byte[] body = bytes.toByteArray();
+        append(CLR_RECORD, tid, body.length, o -> o.put(body), false);
+    }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    /**
+     * @return the before and after image as written by {@link PageCodecs#writePage}
+     */
+    private byte[] pageImages(Page before, Page after) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 * (BufferPool.getPageSize() + 128));
+        DataOutputStream out = new DataOutputStream(bytes);
+        PageCodecs.writePage(out, before);
+        PageCodecs.writePage(out, after);
+        out.flush();
+        return bytes.toByteArray();
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+    /**
+     * @return the body of a DELTA record from before to after: the page id and the runs of bytes that differ, or null
+     * if a full image is about as small
+     */
+    private byte[] pageDelta(Page before, Page after) throws IOException {
+        byte[] from = before.getPageData();
+        byte[] to = after.getPageData();
+        if (from.length != to.length) {
+            return null;
+        }
+        List<int[]> runs = changedRuns(from, to);
+        int changed = 0;
+        for (int[] run : runs) {
+            changed += run[1];
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        if (2 * changed >= from.length) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + runs.size() * 2 * INT_SIZE + 2 * changed);
+        DataOutputStream out = new DataOutputStream(bytes);
+        PageCodecs.writePageId(out, after.getId());
+        out.writeInt(runs.size());
+        for (int[] run : runs) {
+            out.writeInt(run[0]);
+            out.writeInt(run[1]);
+            out.write(from, run[0], run[1]);
+            out.write(to, run[0], run[1]);
+        }
+        out.flush();
+        return bytes.toByteArray();
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = new Integer(raf.readInt());
+    /**
+     * @return the runs of bytes that differ, as {offset, length}; runs closer than {@value #DELTA_GAP} bytes are
+     * merged, the gap costs less than the header of another run
+     */
+    private static List<int[]> changedRuns(byte[] from, byte[] to) {
+        List<int[]> runs = new ArrayList<>();
+        int i = 0;
+        while (i < from.length) {
+            if (from[i] == to[i]) {
+                i++;
+                continue;
             }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+            int end = i + 1;
+            for (int j = end; j < from.length && j - end < DELTA_GAP; j++) {
+                if (from[j] != to[j]) {
+                    end = j + 1;
+                }
+            }
+            runs.add(new int[]{i, end - i});
+            i = end;
         }
-        return newPage;
-
+        return runs;
     }
 
     /**
-     * Write a BEGIN record for the specified transaction
+     * Write a BEGIN record for the specified transaction. {@link Transaction} leaves it to {@link #logWrite}, which
+     * writes it before the first update of a transaction, so a transaction that only reads logs nothing.
      *
      * @param tid The transaction that is beginning
      */
@@ -314,153 +463,111 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = append(BEGIN_RECORD, tid.getId(), 0, out -> {
+        }, false);
+        tidToFirstLogRecord.put(tid.getId(), lsn);
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        Debug.log("BEGIN LSN = " + currentOffset);
     }
 
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Take a fuzzy checkpoint; neither the log nor the pool is held while the pages are written, so transactions keep
+     * running meanwhile.
+     * <p>
+     * The CHECKPOINT record is appended first, with the active transactions, and the dirty page table is taken with it
+     * on the LogFile monitor: the pages changed by records before it that are not on disk yet. These pages are written
+     * a batch at a time, then the CHECKPOINT_END record is appended and the manifest pointed at the CHECKPOINT record,
+     * so recovery only repeats history from there once everything before it is on disk. A crash in between leaves the
+     * manifest at the previous checkpoint.
      */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        synchronized (checkpointer.checkpointLock) {
+            long startCpOffset;
+            List<PageId> dirtyPages;
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                //write list of outstanding transactions, no tid
+                startCpOffset = append(CHECKPOINT_RECORD, -1, INT_SIZE + keys.size() * 2 * LONG_SIZE, out -> {
+                    out.putInt(keys.size());
+                    Iterator<Long> els = keys.iterator();
+                    while (els.hasNext()) {
+                        Long key = els.next();
+                        Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                        out.putLong(key);
+                        out.putLong(tidToFirstLogRecord.get(key));
+                    }
+                }, false);
+                // records after the checkpoint must not need records before it
+                imaged.clear();
+                dirtyPages = Database.getBufferPool().getDirtyPageTable();
+            }
+
+            BufferPool pool = Database.getBufferPool();
+            int batch = 0;
+            for (PageId pid : dirtyPages) {
+                if (pool.checkpointPage(pid) && ++batch == checkpointer.getBatchPages()) {
+                    checkpointer.pause(batch);
+                    batch = 0;
                 }
+            }
+            checkpointer.pause(batch);
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            synchronized (this) {
+                append(CHECKPOINT_END_RECORD, -1, LONG_SIZE + INT_SIZE, out -> {
+                    out.putLong(startCpOffset);
+                    out.putInt(dirtyPages.size());
+                }, false);
+                //once the CP is durable, make sure the CP location in the
+                // manifest is updated
+                force();
+                segments.writeManifest(startCpOffset, segments.getFirstLsn());
             }
+            checkpointer.taken();
         }
 
+        try {
+            // a restart should come back with what is resident now
+            Database.getBufferPool().getSnapshot().save();
+        } catch (IOException e) {
+            Debug.log("CHECKPOINT: failed to save the buffer pool snapshot: " + e.getMessage());
+        }
         logTruncate();
     }
 
     /**
-     * Truncate any unneeded portion of the log to reduce its space consumption
+     * Truncate any unneeded portion of the log to reduce its space consumption: the manifest moves the head of the log
+     * to the oldest record still needed, and the segments before it are deleted. Records are neither copied nor moved.
      */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        readable();
+        long cpLoc = segments.getCheckpointLsn();
 
         long minLogRecord = cpLoc;
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
         }
+        LogRecord checkpoint = LogRecord.readNext(new LogReader(segments, cpLoc, currentOffset).input());
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                    case UPDATE_RECORD:
-                        Page before = readPageData(raf);
-                        Page after = readPageData(raf);
-
-                        writePageData(logNew, before);
-                        writePageData(logNew, after);
-                        break;
-                    case CHECKPOINT_RECORD:
-                        int numXactions = raf.readInt();
-                        logNew.writeInt(numXactions);
-                        while (numXactions-- > 0) {
-                            long xid = raf.readLong();
-                            long xoffset = raf.readLong();
-                            logNew.writeLong(xid);
-                            logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                        }
-                        break;
-                    case BEGIN_RECORD:
-                        tidToFirstLogRecord.put(record_tid, newStart);
-                        break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+        if (!(checkpoint instanceof CheckPointRecord)) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
-            } catch (EOFException e) {
-                break;
+        for (long firstLogRecord : ((CheckPointRecord) checkpoint).getTidToFirstLogRecord().values()) {
+            if (firstLogRecord < minLogRecord) {
+                minLogRecord = firstLogRecord;
             }
         }
+        if (minLogRecord <= segments.getFirstLsn()) {
+            return;
+        }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (
-                raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
+        // we can truncate everything before minLogRecord; LSNs don't change, so the segments after it stay as they are
+        segments.writeManifest(cpLoc, minLogRecord);
+        int deleted = segments.deleteBefore(minLogRecord);
+        Debug.log("TRUNCATING LOG; NEW START : " + minLogRecord + " SEGMENTS DELETED: " + deleted);
         //print();
     }
 
@@ -468,6 +575,8 @@ public class LogFile {
      * Rollback the specified transaction, setting the state of any of pages it updated to their pre-updated state.  To
      * preserve transaction semantics, this should not be called on transactions that have already committed (though
      * this may not be enforced by this method.)
+     * <p>
+     * Every update is undone with a CLR, newest first, see {@link #undo}.
      *
      * @param tid The transaction to rollback
      */
@@ -477,33 +586,83 @@ public class LogFile {
             synchronized (this) {
                 preAppend();
                 // some code goes here
-                raf.seek(tidToFirstLogRecord.get(tid.getId()));
-                while (raf.getFilePointer() < raf.length()) {
-                    LogRecord logRecord = LogRecord.readNext(raf);
-                    if (logRecord == null) {
-                        break;
-                    }
-                    if ((logRecord instanceof UpdateRecord) && tid.getId() == logRecord.tid) {
-                        Page page = ((UpdateRecord) logRecord).getBefore();
-                        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                        Database.getBufferPool().discardPage(page.getId());
-                        tidToFirstLogRecord.remove(tid);
-                        break;
-                    }
-                }
-                raf.seek(currentOffset);
+                undo(Collections.singletonMap(tid.getId(), firstRecord(tid.getId())), new PartitionedRecovery(1));
             }
         }
     }
 
+    /**
+     * @return the LSN to search the records of a transaction from: its BEGIN record, or the head of the log if it
+     * logged none
+     */
+    private long firstRecord(long tid) {
+        Long first = tidToFirstLogRecord.get(tid);
+        return first == null ? segments.getFirstLsn() : first;
+    }
+
+    /**
+     * Undo the updates of the given transactions, newest first. Each UPDATE record that no CLR compensates yet gets a
+     * CLR with its before image; once the CLRs are durable the pages are written and dropped from the buffer pool. A
+     * crash in between redoes the CLRs, so no update is undone twice.
+     * <p>
+     * The records are found in one pass over the log and undone by page, one partition of the pages per worker; the
+     * CLRs are appended here, newest undone record first.
+     *
+     * @param losers the transactions to undo, with the LSN to search their records from
+     * @param parts the workers to undo the pages with
+     * @return the number of records undone
+     */
+    private int undo(Map<Long, Long> losers, PartitionedRecovery parts) throws IOException {
+        if (losers.isEmpty()) {
+            return 0;
+        }
+        readable();
+        long end = currentOffset;
+        Map<PageId, List<Long>> updates = new HashMap<>();
+        Set<Long> compensated = new HashSet<>();
+        LogReader reader = new LogReader(segments, Collections.min(losers.values()), end);
+        while (reader.hasMore()) {
+            LogRecord record = LogRecord.readNext(reader.input());
+            if (record == null) {
+                break;
+            }
+            if (!losers.containsKey(record.getTid())) {
+                continue;
+            }
+            if (record instanceof UpdateRecord || record instanceof DeltaRecord) {
+                updates.computeIfAbsent(record.getPageId(), pid -> new ArrayList<>()).add(record.getOffset());
+            } else if (record instanceof ClrRecord) {
+                compensated.add(((ClrRecord) record).getUndone());
+            }
+        }
+        List<PartitionedRecovery.Undone> undone = parts.undo(updates, compensated, segments, end);
+        if (undone.isEmpty()) {
+            return 0;
+        }
+        // the page as undone last is the oldest version of it
+        HashMap<PageId, Page> pages = new HashMap<>();
+        for (PartitionedRecovery.Undone u : undone) {
+            logClr(u.tid, u.image, u.lsn);
+            pages.put(u.image.getId(), u.image);
+        }
+        force();
+        parts.writePages(pages.values());
+        return undone.size();
+    }
+
     /**
      * Shutdown the logging system, writing out whatever state is necessary so that start up can happen quickly (without
      * extensive recovery.)
      */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            checkpointer.close();
+            flusher.close();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                buffer.close();
+                segments.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -513,111 +672,110 @@ public class LogFile {
     /**
      * Recover the database system by ensuring that the updates of committed transactions are installed and that the
      * updates of uncommitted transactions are not installed.
+     * <p>
+     * Recovery runs in three phases, ARIES style. Analysis finds the transactions that neither committed nor aborted,
+     * starting from the ones active at the last checkpoint. Redo repeats history from the checkpoint: every page gets
+     * the image of the last UPDATE or CLR record that changed it, whichever transaction wrote it, since stolen pages of
+     * losers may be on disk as well as some of the committed pages. Undo then rolls the losers back with CLRs, and each
+     * gets an ABORT record.
+     * <p>
+     * Pages carry no LSN on disk, so redo can't skip the records a page already holds; it doesn't need to: the first
+     * record of a page after the checkpoint holds its whole image, and the DELTA records after it are applied to that.
+     * The manifest only points at a checkpoint once the pages that were dirty when it began are written, so nothing
+     * before it has to be redone. The log ends at the first record that is not whole; the segments are cut there, so
+     * nothing after it is taken for a record later.
+     * <p>
+     * The log is read once, in large chunks, for analysis and redo together; the records that change pages are handed
+     * to {@link PartitionedRecovery} workers by page id, which redo their pages while the log is read on. Undo is
+     * split by page the same way. {@link #getRecoveryStats} tells how long each phase took.
      */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
+                RecoveryStats stats = new RecoveryStats();
+                long started = System.nanoTime();
                 recoveryUndecided = false;
-                print();
+                long cpLoc = segments.getCheckpointLsn();
+                long logEnd = segments.endLsn();
                 // some code goes here
-                raf.seek(0);
-                long cpLoc = raf.readLong();
+                // analysis: the transactions without COMMIT or ABORT record lose
+                HashMap<Long, Long> losers = new HashMap<>();
+                long redoFrom = segments.getFirstLsn();
                 if (cpLoc > 0) {
-                    raf.seek(cpLoc);
-                    LogRecord checkpoint = LogRecord.readNext(raf);
+                    LogRecord checkpoint = LogRecord.readNext(new LogReader(segments, cpLoc, logEnd).input());
                     Preconditions.checkArgument(checkpoint instanceof CheckPointRecord, "must be checkpoint!");
-                    tidToFirstLogRecord.putAll(((CheckPointRecord) checkpoint).getTidToFirstLogRecord());
+                    losers.putAll(((CheckPointRecord) checkpoint).getTidToFirstLogRecord());
+                    redoFrom = cpLoc;
                 }
-                //redo
-                HashMap<Long, List<PageId>> pageIds = new HashMap<>();
-                HashMap<PageId, Page> pages = new HashMap<>();
-                //将Tid和offset放入tidToFirstLogRecord，因为这些事务都在checkPoint之前开始
-                for (Entry<Long, Long> entry : tidToFirstLogRecord.entrySet()) {
-                    if (!pageIds.containsKey(entry.getKey())) {
-                        pageIds.put(entry.getKey(), Lists.newArrayList());
-                    }
-                }
-                while (raf.getFilePointer() < raf.length()) {
-                    LogRecord logRecord = LogRecord.readNext(raf);
-                    if (logRecord == null) {
-                        break;
-                    }
-                    if (logRecord instanceof UpdateRecord) {
-                        Page page = ((UpdateRecord) logRecord).getAfter();
-                        pages.put(page.getId(), page);
-                        pageIds.get(logRecord.tid).add(page.getId());
-                    } else if (logRecord instanceof BeginRecord) {
-                        tidToFirstLogRecord.put(logRecord.tid, logRecord.getOffset());
-                        pageIds.put(logRecord.tid, Lists.newArrayList());
-                    } else if (logRecord instanceof AbortRecord) {
-                        tidToFirstLogRecord.remove(logRecord.tid);
-                        List<PageId> pidList = pageIds.remove(logRecord.getTid());
-                        for (PageId pid : pidList) {
-                            pages.remove(pid);
+                try (PartitionedRecovery parts = PartitionedRecovery.forRecovery()) {
+                    stats.threads = parts.partitions();
+                    //redo, on the workers while the log is read on
+                    PartitionedRecovery.Redo redo = parts.redo();
+                    LogReader reader = new LogReader(segments, redoFrom, logEnd);
+                    long end = reader.position();
+                    while (reader.hasMore()) {
+                        LogRecord logRecord;
+                        try {
+                            logRecord = LogRecord.readNext(reader.input());
+                        } catch (EOFException | StreamCorruptedException e) {
+                            // the crash tore the last record
+                            logRecord = null;
+                        }
+                        if (logRecord == null || logRecord.getOffset() != end) {
+                            // the zeros after the last record, or a record cut short
+                            break;
                         }
-                    } else if (logRecord instanceof CommitRecord) {
-                        List<PageId> pidList = pageIds.remove(logRecord.getTid());
-                        tidToFirstLogRecord.remove(logRecord.getTid());
-                        for (PageId pid : pidList) {
-                            Page page = pages.get(pid);
-                            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                            page.setBeforeImage();
+                        end = reader.position();
+                        stats.recordsRead++;
+                        if (logRecord.getPageId() != null) {
+                            redo.add(logRecord);
+                            losers.putIfAbsent(logRecord.getTid(), logRecord.getOffset());
+                        } else if (logRecord instanceof BeginRecord) {
+                            losers.put(logRecord.getTid(), logRecord.getOffset());
+                        } else if (logRecord instanceof AbortRecord || logRecord instanceof CommitRecord) {
+                            losers.remove(logRecord.getTid());
                         }
                     }
-                }
-
-                //undo
-                //add abort log
-                currentOffset = raf.getFilePointer();
-                for (Entry<Long, Long> entry : tidToFirstLogRecord.entrySet()) {
-                    raf.seek(currentOffset);
-                    //abort
-                    raf.writeInt(ABORT_RECORD);
-                    //tid
-                    raf.writeLong(entry.getKey());
-                    //offset
-                    raf.writeLong(currentOffset);
+                    stats.bytesRead = reader.getBytesRead();
+                    stats.analysisMillis = millisSince(started);
+                    segments.discardAfter(end);
+                    currentOffset = end;
+                    imaged.clear();
+                    buffer.reopen(segments, currentOffset);
+                    checkpointer.start();
+                    stats.pagesRedone = parts.writePages(redo.finish());
+                    stats.redoMillis = millisSince(started);
+
+                    //undo
+                    //add abort log
+                    long undoStarted = System.nanoTime();
+                    stats.losers = losers.size();
+                    stats.recordsUndone = undo(losers, parts);
+                    for (Long tid : losers.keySet()) {
+                        append(ABORT_RECORD, tid, 0, out -> {
+                        }, false);
+                    }
                     force();
-                    rollbackOfRecovery(entry.getKey());
-                    currentOffset = raf.getFilePointer();
+                    stats.undoMillis = millisSince(undoStarted);
                 }
                 tidToFirstLogRecord.clear();
+                recoveryStats = stats;
+                Debug.log("RECOVERY: " + stats);
             }
         }
     }
 
-    //用于recover的undo，相比上面的rollback，采用了逆序undo的方法
+    private static long millisSince(long nanos) {
+        return (System.nanoTime() - nanos) / 1_000_000;
+    }
+
+    //用于recover的undo，逆序撤销一个事务的更新，每条撤销都写入CLR
     public void rollbackOfRecovery(Long tid)
             throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 preAppend();
-                long offset = tidToFirstLogRecord.get(tid);
-                raf.seek(offset);
-                Stack<Long> stack = new Stack<>();
-                while (raf.getFilePointer() < raf.length()) {
-                    //获取每一条log记录，不同的记录对应不同的record
-                    LogRecord record = LogRecord.readNext(raf);
-                    if (record == null) //|| record instanceof AbortRecord && tid.getId() == record.getTid())
-                    {
-                        break;
-                    }
-                    //储存对应事务的更新记录
-                    if (record instanceof UpdateRecord && tid == record.getTid()) {
-                        stack.push(record.getOffset());
-                    }
-                }
-                //逆序撤销所做的更新
-                while (!stack.empty()) {
-                    raf.seek(stack.pop());
-                    LogRecord record = LogRecord.readNext(raf);
-                    Page page = ((UpdateRecord) record).getBefore();
-                    //将更新前的页写入磁盘
-                    //因为在abort前可能进行了checkPoint，使得脏页被写入磁盘
-                    Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                    //丢掉缓存中的页
-                    Database.getBufferPool().discardPage(page.getId());
-                }
+                undo(Collections.singletonMap(tid, firstRecord(tid)), new PartitionedRecovery(1));
             }
         }
     }
@@ -627,15 +785,102 @@ public class LogFile {
      */
     public void print() throws IOException {
         // some code goes here
-        raf.seek(0);
-        raf.readLong();
-        while (raf.getFilePointer() < raf.length()) {
-            System.out.println(LogRecord.readNext(raf));
+        readable();
+        LogReader reader = new LogReader(segments, segments.getFirstLsn(), segments.endLsn());
+        while (reader.hasMore()) {
+            LogRecord record = LogRecord.readNext(reader.input());
+            if (record == null) {
+                break;
+            }
+            System.out.println(record);
         }
     }
 
-    public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /**
+     * Force everything appended so far to disk, together with the commits waiting for a force, if any.
+     */
+    public void force() throws IOException {
+        awaitDurable(group.position());
+    }
+
+    /**
+     * Wait until the log is durable up to the given LSN, forcing it if need be. Records before an LSN only take a force
+     * if they are not durable yet.
+     *
+     * @param lsn an LSN returned by {@link #getLsn} before
+     */
+    public void awaitDurable(long lsn) throws IOException {
+        group.await(lsn, !Thread.holdsLock(this));
+    }
+
+    /**
+     * @return the LSN the next record gets; everything before it has been appended
+     */
+    public synchronized long getLsn() {
+        return currentOffset;
+    }
+
+    /**
+     * @return the LSN the log is durable up to
+     */
+    public long getDurableLsn() {
+        return group.durable();
+    }
+
+    /**
+     * @return the number of UPDATE records with full page images
+     */
+    public synchronized long getImageRecordCount() {
+        return imageRecords;
+    }
+
+    /**
+     * @return the number of UPDATE records logged as DELTA records
+     */
+    public synchronized long getDeltaRecordCount() {
+        return deltaRecords;
+    }
+
+    /**
+     * @return what the last recovery did, or null if this log did not recover
+     */
+    public RecoveryStats getRecoveryStats() {
+        return recoveryStats;
+    }
+
+    /**
+     * @return the background checkpointer of the log, with its metrics
+     */
+    public Checkpointer getCheckpointer() {
+        return checkpointer;
+    }
+
+    /**
+     * @return the flusher of asynchronous commits, with its metrics
+     */
+    public LogFlusher getLogFlusher() {
+        return flusher;
+    }
+
+    /**
+     * @return the segment files of the log, with their metrics
+     */
+    public LogSegments getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return the log buffer, with its metrics
+     */
+    public LogBuffer getLogBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the group commit of the log, with its settings and metrics
+     */
+    public GroupCommit getGroupCommit() {
+        return group;
     }
 
 }
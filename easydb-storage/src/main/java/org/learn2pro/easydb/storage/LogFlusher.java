@@ -0,0 +1,170 @@
+package org.learn2pro.easydb.storage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Makes the COMMIT records of asynchronous commits durable in the background, see
+ * {@link LogFile#logCommit(TransactionId, boolean)}. An asynchronous commit appends its record and returns without
+ * waiting for a force; the flusher forces the log at most {@value #INTERVAL_PROPERTY} milliseconds (default
+ * {@value #DEFAULT_INTERVAL_MILLIS}) later, together with every other commit of the interval. A crash may lose the
+ * asynchronous commits of the last interval, but nothing else: pages are still only written once the log is durable up
+ * to their page LSN, so the pages of a lost commit are undone like those of any other transaction that did not finish.
+ * <p>
+ * Like the checkpointer, the thread only runs while there is something to flush.
+ *
+ * @Threadsafe
+ */
+public class LogFlusher {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 10;
+    public static final String INTERVAL_PROPERTY = "easydb.log.asyncCommitMillis";
+    static final long IDLE_MILLIS = 1000;
+
+    private final LogFile log;
+    private final long intervalMillis;
+
+    // protected by this
+    /**
+     * the log must become durable up to this LSN, and is known to be durable up to flushed
+     */
+    private long pending = 0;
+    private long flushed = 0;
+    private Thread thread;
+    private boolean closed = false;
+
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    public LogFlusher(LogFile log) {
+        this(log, Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MILLIS));
+    }
+
+    public LogFlusher(LogFile log, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("bad asynchronous commit interval " + intervalMillis);
+        }
+        this.log = log;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * An asynchronous commit appended its COMMIT record; called on the log monitor, returns at once.
+     *
+     * @param lsn the LSN after the record
+     */
+    synchronized void committed(long lsn) {
+        commits.increment();
+        if (lsn > pending) {
+            pending = lsn;
+            // an idle flusher starts the interval now
+            notifyAll();
+        }
+        if (thread == null && !closed) {
+            thread = new Thread(this::run, "easydb-log-flusher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Wait until the asynchronous commits so far are durable, forcing the log now rather than at the end of the
+     * interval.
+     */
+    public void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            target = pending;
+        }
+        log.awaitDurable(target);
+        synchronized (this) {
+            flushed = Math.max(flushed, target);
+        }
+    }
+
+    private void run() {
+        try {
+            for (; ; ) {
+                long target;
+                synchronized (this) {
+                    boolean idle = false;
+                    while (pending <= flushed) {
+                        if (idle || closed) {
+                            thread = null;
+                            return;
+                        }
+                        wait(IDLE_MILLIS);
+                        idle = true;
+                    }
+                    // let the commits of the interval join the force; later commits wake it up, but don't end it
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+                    for (long left; !closed && (left = deadline - System.nanoTime()) > 0; ) {
+                        wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+                    }
+                    // the database was reset, the log is not in use any more
+                    if (Database.getLogFile() != log) {
+                        thread = null;
+                        return;
+                    }
+                    target = pending;
+                }
+                log.awaitDurable(target);
+                flushes.increment();
+                synchronized (this) {
+                    flushed = Math.max(flushed, target);
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                thread = null;
+            }
+        } catch (IOException | RuntimeException e) {
+            Debug.log("LogFlusher: stopped by %s", e);
+            synchronized (this) {
+                thread = null;
+            }
+        }
+    }
+
+    /**
+     * Make the asynchronous commits durable and stop the thread.
+     */
+    void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            t = thread;
+        }
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sync();
+    }
+
+    /**
+     * @return the interval within which an asynchronous commit becomes durable, not counting the force
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return the number of asynchronous commits
+     */
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    /**
+     * @return the number of times the flusher forced the log
+     */
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+}
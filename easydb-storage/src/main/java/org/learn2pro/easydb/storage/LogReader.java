@@ -0,0 +1,141 @@
+package org.learn2pro.easydb.storage;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the log front to back in large chunks, rather than a few bytes per call like a {@link
+ * java.io.RandomAccessFile}. Positions are LSNs, and a chunk may span segments. Reads are positional, so readers on
+ * several threads may share the segments.
+ * <p>
+ * Not thread safe, every reader belongs to one thread.
+ */
+class LogReader extends InputStream {
+
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+    public static final String CHUNK_PROPERTY = "easydb.log.readChunkBytes";
+
+    private final LogSegments segments;
+    /**
+     * the LSN reading started at, which seeks don't reach back before
+     */
+    private final long first;
+    /**
+     * the LSN to stop reading at
+     */
+    private final long limit;
+    private final ByteBuffer chunk;
+    /**
+     * the LSN of the first byte of the chunk
+     */
+    private long chunkStart;
+    private long bytesRead = 0;
+    private final DataInputStream input = new DataInputStream(this);
+
+    LogReader(LogSegments segments, long position, long limit) {
+        this(segments, position, limit, Integer.getInteger(CHUNK_PROPERTY, DEFAULT_CHUNK_BYTES));
+    }
+
+    LogReader(LogSegments segments, long position, long limit, int chunkBytes) {
+        this.segments = segments;
+        this.first = position;
+        this.limit = limit;
+        this.chunk = ByteBuffer.allocate(Math.max(chunkBytes, 4096));
+        this.chunk.limit(0);
+        this.chunkStart = position;
+    }
+
+    /**
+     * @return the records of the log, to hand to {@link LogRecord#readNext}
+     */
+    DataInput input() {
+        return input;
+    }
+
+    /**
+     * @return the LSN of the next byte
+     */
+    long position() {
+        return chunkStart + chunk.position();
+    }
+
+    /**
+     * @return true if there are bytes left before the limit
+     */
+    boolean hasMore() {
+        return position() < limit;
+    }
+
+    /**
+     * @return the number of bytes read from the segments
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.remaining());
+        chunk.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * Move to an LSN. A chunk read for a position before the current chunk reaches back half its size, so
+     * reading records from the newest to the oldest mostly finds them in the chunk.
+     */
+    void seek(long position) throws IOException {
+        if (position >= chunkStart && position < chunkStart + chunk.limit()) {
+            chunk.position((int) (position - chunkStart));
+            return;
+        }
+        long start = position < chunkStart ? Math.max(first, position - chunk.capacity() / 2) : position;
+        load(start);
+        chunk.position((int) Math.min(position - start, chunk.limit()));
+    }
+
+    /**
+     * @return false at the limit
+     */
+    private boolean fill() throws IOException {
+        if (chunk.hasRemaining()) {
+            return true;
+        }
+        long next = position();
+        if (next >= limit) {
+            return false;
+        }
+        load(next);
+        return chunk.hasRemaining();
+    }
+
+    private void load(long start) throws IOException {
+        chunkStart = start;
+        chunk.clear();
+        chunk.limit((int) Math.max(0, Math.min(chunk.capacity(), limit - start)));
+        while (chunk.hasRemaining()) {
+            if (segments.read(chunk, chunkStart + chunk.position()) < 0) {
+                break;
+            }
+        }
+        chunk.flip();
+        bytesRead += chunk.limit();
+    }
+}
@@ -1,17 +1,17 @@
 package org.learn2pro.easydb.storage;
 
+import java.io.DataInput;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.HashMap;
 
 //用于读取每条log记录
-//根据不同的record，读取不同的raf长度
+//根据不同的record，读取不同的长度
 public class LogRecord {
     protected long tid;
     protected long offset;
 
-    public LogRecord(RandomAccessFile raf) throws IOException {
-        tid = raf.readLong();
+    public LogRecord(DataInput in) throws IOException {
+        tid = in.readLong();
     }
 
     public long getTid()
@@ -24,21 +24,33 @@ public class LogRecord {
         return offset;
     }
 
-    public static LogRecord readNext(RandomAccessFile raf) throws IOException
+    //记录修改的页，不修改页的记录返回null
+    public PageId getPageId()
     {
-        int record = raf.readInt();
+        return null;
+    }
+
+    public static LogRecord readNext(DataInput in) throws IOException
+    {
+        int record = in.readInt();
         switch(record)
         {
             case LogFile.ABORT_RECORD:
-                return new AbortRecord(raf);
+                return new AbortRecord(in);
             case LogFile.COMMIT_RECORD:
-                return new CommitRecord(raf);
+                return new CommitRecord(in);
             case LogFile.UPDATE_RECORD:
-                return new UpdateRecord(raf);
+                return new UpdateRecord(in);
             case LogFile.BEGIN_RECORD:
-                return new BeginRecord(raf);
+                return new BeginRecord(in);
             case LogFile.CHECKPOINT_RECORD:
-                return new CheckPointRecord(raf);
+                return new CheckPointRecord(in);
+            case LogFile.CLR_RECORD:
+                return new ClrRecord(in);
+            case LogFile.DELTA_RECORD:
+                return new DeltaRecord(in);
+            case LogFile.CHECKPOINT_END_RECORD:
+                return new CheckPointEndRecord(in);
             default:
                 return null;
         }
@@ -55,9 +67,9 @@ public class LogRecord {
 
 class AbortRecord extends LogRecord{
 
-    public AbortRecord(RandomAccessFile raf) throws IOException {
-        super(raf);
-        offset = raf.readLong();
+    public AbortRecord(DataInput in) throws IOException {
+        super(in);
+        offset = in.readLong();
     }
 
     @Override
@@ -70,9 +82,9 @@ class AbortRecord extends LogRecord{
 }
 
 class CommitRecord extends LogRecord{
-    public CommitRecord(RandomAccessFile raf) throws IOException {
-        super(raf);
-        offset = raf.readLong();
+    public CommitRecord(DataInput in) throws IOException {
+        super(in);
+        offset = in.readLong();
     }
 
     @Override
@@ -86,9 +98,9 @@ class CommitRecord extends LogRecord{
 
 class BeginRecord extends LogRecord{
 
-    public BeginRecord(RandomAccessFile raf) throws IOException {
-        super(raf);
-        offset = raf.readLong();
+    public BeginRecord(DataInput in) throws IOException {
+        super(in);
+        offset = in.readLong();
     }
 
     @Override
@@ -105,11 +117,11 @@ class UpdateRecord extends LogRecord{
     private final Page before;
     private final Page after;
 
-    public UpdateRecord(RandomAccessFile raf) throws IOException {
-        super(raf);
-        before = Database.getLogFile().readPageData(raf);
-        after = Database.getLogFile().readPageData(raf);
-        offset = raf.readLong();
+    public UpdateRecord(DataInput in) throws IOException {
+        super(in);
+        before = PageCodecs.readPage(in);
+        after = PageCodecs.readPage(in);
+        offset = in.readLong();
     }
 
     public Page getBefore()
@@ -122,6 +134,12 @@ class UpdateRecord extends LogRecord{
         return after;
     }
 
+    @Override
+    public PageId getPageId()
+    {
+        return after.getId();
+    }
+
     @Override
     public String toString() {
         return "UpdateRecord{" +
@@ -131,19 +149,127 @@ class UpdateRecord extends LogRecord{
     }
 }
 
+//增量更新记录：只记录页中改动的字节，前像和后像各一份
+class DeltaRecord extends LogRecord{
+
+    private final PageId pid;
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    public DeltaRecord(DataInput in) throws IOException {
+        super(in);
+        pid = PageCodecs.readPageId(in);
+        int runs = in.readInt();
+        offsets = new int[runs];
+        before = new byte[runs][];
+        after = new byte[runs][];
+        for(int i=0; i<runs; ++i)
+        {
+            offsets[i] = in.readInt();
+            int length = in.readInt();
+            before[i] = new byte[length];
+            in.readFully(before[i]);
+            after[i] = new byte[length];
+            in.readFully(after[i]);
+        }
+        offset = in.readLong();
+    }
+
+    @Override
+    public PageId getPageId()
+    {
+        return pid;
+    }
+
+    //在更新前的页上重做
+    public Page redo(Page page)
+    {
+        return patch(page, after);
+    }
+
+    //在更新后的页上撤销
+    public Page undo(Page page)
+    {
+        return patch(page, before);
+    }
+
+    private Page patch(Page page, byte[][] runs)
+    {
+        byte[] data = page.getPageData();
+        for(int i=0; i<runs.length; ++i)
+        {
+            System.arraycopy(runs[i], 0, data, offsets[i], runs[i].length);
+        }
+        try {
+            return PageCodecs.newPage(page, pid, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeltaRecord{" +
+                "tid=" + tid +
+                ", runs=" + offsets.length +
+                ", offset=" + offset +
+                '}';
+    }
+}
+
+//补偿日志记录：撤销一条UPDATE记录时写入，恢复时不会再撤销那条记录
+class ClrRecord extends LogRecord{
+
+    private final long undone;
+    private final Page image;
+
+    public ClrRecord(DataInput in) throws IOException {
+        super(in);
+        undone = in.readLong();
+        image = PageCodecs.readPage(in);
+        offset = in.readLong();
+    }
+
+    public long getUndone()
+    {
+        return undone;
+    }
+
+    public Page getImage()
+    {
+        return image;
+    }
+
+    @Override
+    public PageId getPageId()
+    {
+        return image.getId();
+    }
+
+    @Override
+    public String toString() {
+        return "ClrRecord{" +
+                "tid=" + tid +
+                ", undone=" + undone +
+                ", offset=" + offset +
+                '}';
+    }
+}
+
 class CheckPointRecord extends LogRecord{
 
     private final HashMap<Long, Long> tidToFirstLogRecord;
 
-    public CheckPointRecord(RandomAccessFile raf) throws IOException {
-        super(raf);
-        int keySize = raf.readInt();
+    public CheckPointRecord(DataInput in) throws IOException {
+        super(in);
+        int keySize = in.readInt();
         tidToFirstLogRecord = new HashMap<>();
         for(int i=0; i<keySize; ++i)
         {
-            tidToFirstLogRecord.put(raf.readLong(), raf.readLong());
+            tidToFirstLogRecord.put(in.readLong(), in.readLong());
         }
-        offset = raf.readLong();
+        offset = in.readLong();
     }
 
     public HashMap<Long, Long> getTidToFirstLogRecord()
@@ -159,3 +285,37 @@ class CheckPointRecord extends LogRecord{
                 '}';
     }
 }
+
+//fuzzy checkpoint的结束记录，记录对应的checkpoint记录位置和脏页数量
+class CheckPointEndRecord extends LogRecord{
+
+    private final long begin;
+    private final int dirtyPages;
+
+    public CheckPointEndRecord(DataInput in) throws IOException {
+        super(in);
+        begin = in.readLong();
+        dirtyPages = in.readInt();
+        offset = in.readLong();
+    }
+
+    public long getBegin()
+    {
+        return begin;
+    }
+
+    public int getDirtyPages()
+    {
+        return dirtyPages;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CheckPointEndRecord{" +
+                "begin=" + begin +
+                ", dirtyPages=" + dirtyPages +
+                ", offset=" + offset +
+                '}';
+    }
+}
@@ -0,0 +1,501 @@
+package org.learn2pro.easydb.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LogSegments keeps the log in a directory of fixed size segment files, and presents them as one space of LSNs: the
+ * byte with LSN n is at offset n % size of segment n / size, so a record may continue in the next segment.
+ * <p>
+ * A MANIFEST file in the directory holds the segment size, the LSN of the last completed checkpoint and the LSN of the
+ * first record the log still needs. It is replaced atomically, by writing a new one and renaming it over the old one.
+ * Dropping the head of the log only deletes the segments before its first LSN.
+ * <p>
+ * Segments are {@value #DEFAULT_SEGMENT_BYTES} bytes (system property {@value #SEGMENT_PROPERTY}). A segment is
+ * preallocated, filled with zeros, before the log writes to it, so appends never extend a file and forcing a segment
+ * doesn't have to write its length; the next segment is preallocated in the background once the log starts writing
+ * one. The zeros after the last record end the log: no record type is 0.
+ *
+ * @Threadsafe
+ */
+public class LogSegments {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 4 << 20;
+    public static final String SEGMENT_PROPERTY = "easydb.log.segmentBytes";
+    static final String MANIFEST = "MANIFEST";
+    static final int MANIFEST_MAGIC = 0x4544424d;
+    static final String SUFFIX = ".seg";
+    private static final int ZERO_BYTES = 64 * 1024;
+    static final long IDLE_MILLIS = 1000;
+
+    private final File dir;
+    /**
+     * set when the log is created, a log keeps the size its manifest has
+     */
+    private volatile long segmentBytes;
+
+    // guarded by this
+    /**
+     * the open segments by number
+     */
+    private final TreeMap<Long, FileChannel> open = new TreeMap<>();
+    /**
+     * segments written to since they were last forced
+     */
+    private final Set<Long> unforced = new HashSet<>();
+    private final Map<Long, Future<?>> preallocating = new HashMap<>();
+    private long checkpointLsn;
+    private long firstLsn;
+    private ExecutorService preallocator;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+
+    /**
+     * Open the segments in a directory, or an empty log if it has no manifest yet. A plain file in the way is a log
+     * from before segments, which may hold updates not on disk yet: it is not read, so the log refuses to start until
+     * it has been recovered by the version that wrote it and removed.
+     *
+     * @param firstLsn the first LSN of a new log
+     */
+    LogSegments(File dir, long firstLsn) throws IOException {
+        this.dir = dir;
+        if (dir.isFile()) {
+            throw new IOException("log " + dir + " is a file from before log segments; recover the database with the "
+                    + "version that wrote it, then remove the file");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can't create log directory " + dir);
+        }
+        File manifest = new File(dir, MANIFEST);
+        if (manifest.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(manifest))) {
+                if (in.readInt() != MANIFEST_MAGIC) {
+                    throw new IOException("bad log manifest " + manifest);
+                }
+                segmentBytes = in.readLong();
+                checkpointLsn = in.readLong();
+                this.firstLsn = in.readLong();
+            }
+        } else {
+            segmentBytes = configuredSize();
+            checkpointLsn = LogFile.NO_CHECKPOINT_ID;
+            this.firstLsn = firstLsn;
+        }
+        if (segmentBytes <= 0) {
+            throw new IOException("bad log segment size " + segmentBytes);
+        }
+    }
+
+    private static long configuredSize() throws IOException {
+        long size = Long.getLong(SEGMENT_PROPERTY, DEFAULT_SEGMENT_BYTES);
+        if (size <= 0) {
+            throw new IOException("bad log segment size " + size);
+        }
+        return size;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, String.format("%016x%s", segment, SUFFIX));
+    }
+
+    /**
+     * @return the numbers of the segment files in the directory, in order
+     */
+    private List<Long> segmentsOnDisk() {
+        List<Long> segments = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return segments;
+        }
+        for (String name : names) {
+            if (name.endsWith(SUFFIX) && name.length() == 16 + SUFFIX.length()) {
+                try {
+                    segments.add(Long.parseUnsignedLong(name.substring(0, 16), 16));
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * @return the LSN of the CHECKPOINT record of the last completed checkpoint, or {@link LogFile#NO_CHECKPOINT_ID}
+     */
+    public synchronized long getCheckpointLsn() {
+        return checkpointLsn;
+    }
+
+    /**
+     * @return the LSN of the first record the log needs
+     */
+    public synchronized long getFirstLsn() {
+        return firstLsn;
+    }
+
+    /**
+     * @return the LSN after the last segment on disk, where reading the log stops at the latest
+     */
+    synchronized long endLsn() {
+        List<Long> segments = segmentsOnDisk();
+        long end = segments.isEmpty() ? firstLsn : (segments.get(segments.size() - 1) + 1) * segmentBytes;
+        return Math.max(end, firstLsn);
+    }
+
+    /**
+     * Replace the manifest. The new one is written and forced next to the old one and renamed over it, then the
+     * directory is forced for the rename.
+     */
+    synchronized void writeManifest(long checkpointLsn, long firstLsn) throws IOException {
+        File tmp = new File(dir, MANIFEST + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(file)) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeLong(segmentBytes);
+            out.writeLong(checkpointLsn);
+            out.writeLong(firstLsn);
+            out.flush();
+            file.getChannel().force(true);
+        }
+        try {
+            Files.move(tmp.toPath(), new File(dir, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), new File(dir, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory();
+        this.checkpointLsn = checkpointLsn;
+        this.firstLsn = firstLsn;
+    }
+
+    /**
+     * Throw the whole log away and start an empty one at the given LSN, with segments of the configured size.
+     */
+    synchronized void reset(long firstLsn) throws IOException {
+        cancelPreallocation();
+        closeAll();
+        for (long segment : segmentsOnDisk()) {
+            delete(segment);
+        }
+        segmentBytes = configuredSize();
+        writeManifest(LogFile.NO_CHECKPOINT_ID, firstLsn);
+    }
+
+    /**
+     * Delete the segments that only hold LSNs before the given one; the manifest must not need them any more.
+     *
+     * @return the number of segments deleted
+     */
+    synchronized int deleteBefore(long lsn) throws IOException {
+        int count = 0;
+        for (long segment : segmentsOnDisk()) {
+            if ((segment + 1) * segmentBytes > lsn) {
+                break;
+            }
+            delete(segment);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Make the log end at the given LSN: zero the rest of its segment and delete the segments after it, so no stale
+     * record after the end is taken for a new one later. Called by recovery, with nobody writing.
+     */
+    synchronized void discardAfter(long lsn) throws IOException {
+        cancelPreallocation();
+        long last = lsn / segmentBytes;
+        for (long segment : segmentsOnDisk()) {
+            if (segment > last) {
+                delete(segment);
+            }
+        }
+        if (segmentFile(last).exists()) {
+            FileChannel channel = channel(last, false);
+            ByteBuffer zeros = ByteBuffer.allocate(ZERO_BYTES);
+            long position = lsn % segmentBytes;
+            while (position < segmentBytes) {
+                zeros.clear();
+                zeros.limit((int) Math.min(ZERO_BYTES, segmentBytes - position));
+                while (zeros.hasRemaining()) {
+                    position += channel.write(zeros, position);
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    private void delete(long segment) throws IOException {
+        FileChannel channel = open.remove(segment);
+        if (channel != null) {
+            channel.close();
+        }
+        unforced.remove(segment);
+        Files.deleteIfExists(segmentFile(segment).toPath());
+        deleted.increment();
+    }
+
+    /**
+     * @param write true to preallocate the segment if it doesn't exist, and the next one in the background
+     * @return the channel of a segment, or null if the segment doesn't exist and is not written
+     */
+    private FileChannel channel(long segment, boolean write) throws IOException {
+        FileChannel channel = open.get(segment);
+        if (channel != null) {
+            return channel;
+        }
+        File file = segmentFile(segment);
+        if (write) {
+            Future<?> running = preallocating.remove(segment);
+            if (running != null) {
+                await(running);
+            }
+            if (!file.exists()) {
+                preallocate(segment);
+            }
+        } else if (!file.exists()) {
+            return null;
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        open.put(segment, channel);
+        if (write) {
+            preallocateNext(segment + 1);
+        }
+        return channel;
+    }
+
+    private void preallocateNext(long segment) {
+        if (preallocating.containsKey(segment) || segmentFile(segment).exists()) {
+            return;
+        }
+        if (preallocator == null) {
+            // one thread, which exits when idle
+            preallocator = new ThreadPoolExecutor(0, 1, IDLE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread t = new Thread(r, "easydb-log-preallocator");
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+        preallocating.put(segment, preallocator.submit(() -> {
+            preallocate(segment);
+            return null;
+        }));
+    }
+
+    /**
+     * Write a segment full of zeros under another name and rename it, so a segment file is always whole; the rename is
+     * forced like that of the manifest. A segment that exists already is kept.
+     */
+    private void preallocate(long segment) throws IOException {
+        File file = segmentFile(segment);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer zeros = ByteBuffer.allocate(ZERO_BYTES);
+            long position = 0;
+            while (position < segmentBytes) {
+                zeros.clear();
+                zeros.limit((int) Math.min(ZERO_BYTES, segmentBytes - position));
+                while (zeros.hasRemaining()) {
+                    position += channel.write(zeros, position);
+                }
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath());
+            syncDirectory();
+            created.increment();
+        } catch (FileAlreadyExistsException e) {
+            // never replace a segment, it may hold records already
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Force the directory, so a file renamed in it keeps its new name after a crash.
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted preallocating a log segment");
+        } catch (ExecutionException e) {
+            // preallocated again by the caller
+            Debug.log("LogSegments: preallocation failed: %s", e.getCause());
+        }
+    }
+
+    private void cancelPreallocation() throws IOException {
+        for (Future<?> running : preallocating.values()) {
+            await(running);
+        }
+        preallocating.clear();
+    }
+
+    /**
+     * Write bytes at an LSN, continuing in the next segments as needed. Called by the log writer only.
+     */
+    void write(ByteBuffer buf, long lsn) throws IOException {
+        while (buf.hasRemaining()) {
+            long segment = lsn / segmentBytes;
+            long offset = lsn % segmentBytes;
+            int n = (int) Math.min(buf.remaining(), segmentBytes - offset);
+            FileChannel channel;
+            synchronized (this) {
+                channel = channel(segment, true);
+            }
+            ByteBuffer part = buf.duplicate();
+            part.limit(part.position() + n);
+            long position = offset;
+            while (part.hasRemaining()) {
+                position += channel.write(part, position);
+            }
+            // marked once written: a force that clears the mark must find these bytes in the file
+            synchronized (this) {
+                unforced.add(segment);
+            }
+            buf.position(buf.position() + n);
+            lsn += n;
+        }
+    }
+
+    /**
+     * Read bytes at an LSN, up to the end of its segment.
+     *
+     * @return the number of bytes read, -1 if there is no segment for the LSN
+     */
+    int read(ByteBuffer dst, long lsn) throws IOException {
+        long segment = lsn / segmentBytes;
+        long offset = lsn % segmentBytes;
+        FileChannel channel;
+        synchronized (this) {
+            channel = channel(segment, false);
+        }
+        if (channel == null) {
+            return -1;
+        }
+        ByteBuffer part = dst.duplicate();
+        part.limit((int) Math.min(dst.limit(), dst.position() + segmentBytes - offset));
+        int n = channel.read(part, offset);
+        if (n > 0) {
+            dst.position(dst.position() + n);
+        }
+        return n;
+    }
+
+    /**
+     * Force the segments written since they were last forced. Their length never changes, so their data is enough.
+     */
+    void force() throws IOException {
+        List<FileChannel> channels = new ArrayList<>();
+        synchronized (this) {
+            for (long segment : unforced) {
+                FileChannel channel = open.get(segment);
+                if (channel != null) {
+                    channels.add(channel);
+                }
+            }
+            unforced.clear();
+        }
+        for (FileChannel channel : channels) {
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // deleted meanwhile, nobody needs it any more
+            }
+        }
+    }
+
+    private void closeAll() throws IOException {
+        for (FileChannel channel : open.values()) {
+            channel.close();
+        }
+        open.clear();
+        unforced.clear();
+    }
+
+    /**
+     * Close the segment files; the log is not used any more.
+     */
+    synchronized void close() throws IOException {
+        cancelPreallocation();
+        if (preallocator != null) {
+            preallocator.shutdown();
+            preallocator = null;
+        }
+        closeAll();
+    }
+
+    /**
+     * @return the directory of the segments
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * @return the size of a segment
+     */
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * @return the number of segment files in the directory
+     */
+    public synchronized int getSegmentCount() {
+        return segmentsOnDisk().size();
+    }
+
+    /**
+     * @return the number of segments preallocated
+     */
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    /**
+     * @return the number of segments deleted
+     */
+    public long getDeletedCount() {
+        return deleted.sum();
+    }
+}
@@ -0,0 +1,186 @@
+package org.learn2pro.easydb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.learn2pro.easydb.storage.buffer.FrameArena;
+
+/**
+ * OffHeapFrames is the second tier of the BufferPool: the bytes of clean pages evicted from the pool, kept in a
+ * {@link FrameArena} outside the Java heap. The pool itself only holds the decoded pages of its working set; a miss
+ * on a page kept here decodes it from its frame instead of reading the file, see {@link DbFile#decodePage}. This way
+ * the page cache can grow to gigabytes while the heap only holds what queries use right now.
+ * <p>
+ * A page is either resident in the pool or kept here, never both: a page leaves its frame when it is decoded into the
+ * pool and gets a frame again when it is evicted clean. Frames are reclaimed least recently stored first when the
+ * arena is full. Like {@link PageCleaner}, frames are tracked by place in the file, so dropping a page from the pool
+ * also drops whatever is kept at its place.
+ * <p>
+ * Turned on with the system property {@value #BYTES_PROPERTY}, the size of the arena in bytes.
+ *
+ * @Threadsafe
+ */
+public class OffHeapFrames {
+
+    public static final String BYTES_PROPERTY = "easydb.buffer.offHeapBytes";
+
+    private final FrameArena arena;
+    /**
+     * page kept at each place in the file, least recently stored first
+     */
+    private final LinkedHashMap<Long, Frame> frames = new LinkedHashMap<>();
+
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder reclaims = new LongAdder();
+
+    public OffHeapFrames(long budgetBytes) {
+        this.arena = new FrameArena(BufferPool.getPageSize(), budgetBytes);
+    }
+
+    /**
+     * @return the frames of the pool configured with {@value #BYTES_PROPERTY}, or null if it is not set
+     */
+    static OffHeapFrames fromConfig() {
+        long bytes = Long.getLong(BYTES_PROPERTY, 0L);
+        return bytes > 0 ? new OffHeapFrames(bytes) : null;
+    }
+
+    private static long placeOf(PageId pid) {
+        return ((long) pid.getTableId() << 32) | (pid.getPageNumber() & 0xffffffffL);
+    }
+
+    /**
+     * Keep the bytes of a clean page evicted from the pool, reclaiming the oldest frame if the arena is full.
+     *
+     * @return false if the page can't be kept
+     */
+    synchronized boolean put(Page page) {
+        byte[] data = page.getPageData();
+        if (data.length > arena.frameSize() || arena.capacity() == 0) {
+            return false;
+        }
+        Frame frame = frames.remove(placeOf(page.getId()));
+        if (frame == null) {
+            int no = arena.allocate();
+            if (no < 0) {
+                Iterator<Map.Entry<Long, Frame>> eldest = frames.entrySet().iterator();
+                no = eldest.next().getValue().no;
+                eldest.remove();
+                reclaims.increment();
+            }
+            frame = new Frame(page.getId(), no);
+        } else {
+            frame = new Frame(page.getId(), frame.no);
+        }
+        arena.write(frame.no, data);
+        frames.put(placeOf(page.getId()), frame);
+        stores.increment();
+        return true;
+    }
+
+    /**
+     * Take the bytes of a page out of its frame, for a page that becomes resident in the pool.
+     *
+     * @return the bytes, or null if the page is not kept here
+     */
+    synchronized byte[] take(PageId pid) {
+        Frame frame = frames.get(placeOf(pid));
+        if (frame == null || !frame.pid.equals(pid)) {
+            return null;
+        }
+        frames.remove(placeOf(pid));
+        byte[] data = arena.read(frame.no);
+        arena.free(frame.no);
+        hits.increment();
+        return data;
+    }
+
+    /**
+     * Copy the bytes of a page out of its frame and keep the frame, for a page that does not enter the pool.
+     *
+     * @return the bytes, or null if the page is not kept here
+     */
+    synchronized byte[] get(PageId pid) {
+        Frame frame = frames.get(placeOf(pid));
+        if (frame == null || !frame.pid.equals(pid)) {
+            return null;
+        }
+        hits.increment();
+        return arena.read(frame.no);
+    }
+
+    /**
+     * Drop whatever is kept at the place of the page.
+     */
+    synchronized void remove(PageId pid) {
+        Frame frame = frames.remove(placeOf(pid));
+        if (frame != null) {
+            arena.free(frame.no);
+        }
+    }
+
+    /**
+     * Drop everything, e.g. when the pool is closed.
+     */
+    synchronized void clear() {
+        for (Frame frame : frames.values()) {
+            arena.free(frame.no);
+        }
+        frames.clear();
+    }
+
+    /**
+     * @return the number of pages the arena can keep
+     */
+    public int getCapacityPages() {
+        return arena.capacity();
+    }
+
+    /**
+     * @return the number of pages kept
+     */
+    public synchronized int getResidentPages() {
+        return frames.size();
+    }
+
+    /**
+     * @return the number of bytes of direct memory taken so far
+     */
+    public synchronized long getAllocatedBytes() {
+        return arena.allocatedBytes();
+    }
+
+    /**
+     * @return the number of pages stored on eviction
+     */
+    public long getStoreCount() {
+        return stores.sum();
+    }
+
+    /**
+     * @return the number of misses of the pool decoded from a frame instead of read from the file
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of frames reclaimed from older pages because the arena was full
+     */
+    public long getReclaimCount() {
+        return reclaims.sum();
+    }
+
+    private static class Frame {
+
+        final PageId pid;
+        final int no;
+
+        Frame(PageId pid, int no) {
+            this.pid = pid;
+            this.no = no;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.learn2pro.easydb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OptimisticTransactions tracks the transactions running under optimistic concurrency control. Such a transaction
+ * takes no locks while it runs: it reads the committed pages, and writes private copies of them. Its read and write
+ * sets are recorded on the way.
+ * <p>
+ * At commit it is validated backwards: if a transaction that committed after it started wrote a page it read or
+ * wrote, it is aborted. Otherwise its copies are installed in the pool and committed like any other dirty pages.
+ * Validation and installation run on the LogFile monitor, like every commit, so no commit comes in between.
+ * <p>
+ * The pages written by every commit are kept as long as an optimistic transaction that started before it runs.
+ *
+ * @Threadsafe
+ */
+public class OptimisticTransactions {
+
+    /**
+     * the state of one running transaction
+     */
+    private static final class Run {
+
+        /**
+         * the last commit published when it started
+         */
+        final long start;
+        final Set<PageId> reads = ConcurrentHashMap.newKeySet();
+        /**
+         * private copies of the pages it asked to write
+         */
+        final ConcurrentHashMap<PageId, Page> copies = new ConcurrentHashMap<>();
+        /**
+         * the pages it changed, installed at commit
+         */
+        final ConcurrentHashMap<PageId, Page> writes = new ConcurrentHashMap<>();
+
+        Run(long start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * the pages written by one commit
+     */
+    private static final class Commit {
+
+        final long commit;
+        final Collection<PageId> pages;
+
+        Commit(long commit, Collection<PageId> pages) {
+            this.commit = commit;
+            this.pages = pages;
+        }
+    }
+
+    private final PageVersions versions;
+    private final ConcurrentHashMap<TransactionId, Run> running = new ConcurrentHashMap<>();
+    /**
+     * the commits the running transactions are validated against, in commit order; guarded by this
+     */
+    private final ArrayDeque<Commit> commits = new ArrayDeque<>();
+
+    private final LongAdder validations = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    public OptimisticTransactions(PageVersions versions) {
+        this.versions = versions;
+    }
+
+    public synchronized void begin(TransactionId tid) {
+        running.put(tid, new Run(versions.lastCommit()));
+    }
+
+    public boolean isRunning(TransactionId tid) {
+        return running.containsKey(tid);
+    }
+
+    /**
+     * Record a read.
+     *
+     * @return the private copy of the page if the transaction wrote it, else null
+     */
+    public Page read(TransactionId tid, PageId pid) {
+        Run run = running.get(tid);
+        run.reads.add(pid);
+        return run.copies.get(pid);
+    }
+
+    /**
+     * @return the private copy of the page, made from the committed page if there is none yet
+     */
+    public Page copy(TransactionId tid, PageId pid, Page committed) {
+        Run run = running.get(tid);
+        run.reads.add(pid);
+        Page copy = run.copies.putIfAbsent(pid, committed);
+        return copy == null ? committed : copy;
+    }
+
+    /**
+     * Record a page changed by the transaction, a private copy or a new page.
+     */
+    public void written(TransactionId tid, Page page) {
+        Run run = running.get(tid);
+        run.reads.add(page.getId());
+        run.copies.put(page.getId(), page);
+        run.writes.put(page.getId(), page);
+    }
+
+    /**
+     * @return the pages the transaction changed, in file order
+     */
+    public List<Page> getWrites(TransactionId tid) {
+        List<Page> pages = new ArrayList<>(running.get(tid).writes.values());
+        pages.sort((a, b) -> PageCleaner.PAGE_ORDER.compare(a.getId(), b.getId()));
+        return pages;
+    }
+
+    /**
+     * Record the pages written by a commit, for the validation of the transactions running now.
+     */
+    public synchronized void committed(long commit, Collection<PageId> pages) {
+        if (!running.isEmpty() && !pages.isEmpty()) {
+            commits.addLast(new Commit(commit, pages));
+        }
+    }
+
+    /**
+     * @return true if no transaction that committed after this one started wrote a page it read or wrote
+     */
+    public synchronized boolean validate(TransactionId tid) {
+        validations.increment();
+        Run run = running.get(tid);
+        for (Commit commit : commits) {
+            if (commit.commit <= run.start) {
+                continue;
+            }
+            for (PageId pid : commit.pages) {
+                if (run.reads.contains(pid)) {
+                    conflicts.increment();
+                    Debug.log(1, "OptimisticTransactions: transaction %d conflicts on page %d", tid.getId(),
+                            pid.getPageNumber());
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget a transaction and the commits nobody needs to be validated against any more.
+     */
+    public synchronized void end(TransactionId tid) {
+        if (running.remove(tid) == null) {
+            return;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (Run run : running.values()) {
+            oldest = Math.min(oldest, run.start);
+        }
+        while (!commits.isEmpty() && commits.peekFirst().commit <= oldest) {
+            commits.removeFirst();
+        }
+    }
+
+    /**
+     * @return the number of commits kept for validation
+     */
+    public synchronized int size() {
+        return commits.size();
+    }
+
+    public long getValidationCount() {
+        return validations.sum();
+    }
+
+    /**
+     * @return the number of transactions that failed validation
+     */
+    public long getConflictCount() {
+        return conflicts.sum();
+    }
+}
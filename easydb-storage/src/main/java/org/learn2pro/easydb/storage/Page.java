@@ -6,7 +6,8 @@ package org.learn2pro.easydb.storage;
  * <p>
  * Pages may be "dirty", indicating that they have been modified since they were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form: Page(PageId id, byte[] data)
+ * For recovery purposes, page classes MUST be registered with {@link PageCodecs}, which builds them from their id and
+ * bytes when the log is read.
  */
 public interface Page {
 
@@ -30,6 +31,20 @@ public interface Page {
      */
     public void markDirty(boolean dirty, TransactionId tid);
 
+    /**
+     * Get the page LSN: the LSN after the last log record that changed this page, 0 if none did since it was read. The
+     * log must be durable up to it before the page is written to its file.
+     * <p>
+     * The page LSN is kept in memory only, the page formats have no room for it; see {@link LogFile#recover} for why
+     * recovery does without it.
+     */
+    public long getLsn();
+
+    /**
+     * Set the page LSN after logging a change of this page.
+     */
+    public void setLsn(long lsn);
+
     /**
      * Generates a byte array representing the contents of this page. Used to serialize this page to disk.
      * <p>
@@ -46,6 +61,14 @@ public interface Page {
      */
     public Page getBeforeImage();
 
+    /**
+     * Provide the before image for readers that never change it. Pages may hand out the same instance until the before
+     * image changes, so it must not be modified or put into the buffer pool.
+     */
+    default Page getReadOnlyBeforeImage() {
+        return getBeforeImage();
+    }
+
     /*
      * a transaction that wrote this page just committed it.
      * copy current content to the before image.
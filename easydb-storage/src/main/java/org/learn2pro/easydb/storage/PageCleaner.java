@@ -0,0 +1,237 @@
+package org.learn2pro.easydb.storage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PageCleaner writes committed pages back to their files in the background, so a commit only waits for its log records
+ * and never for the data pages.
+ * <p>
+ * When a transaction commits, the BufferPool logs an UPDATE record for every page it dirtied and hands the pages over
+ * to the cleaner; the log is forced with the COMMIT record. Until the cleaner has written a page it must stay in the
+ * pool: such pages are only evicted after the pool wrote them itself. The cleaner wakes up every
+ * {@value #DEFAULT_INTERVAL_MILLIS}ms (system property {@value #INTERVAL_PROPERTY}), or as soon as
+ * {@value #DEFAULT_BATCH_PAGES} pages (system property {@value #BATCH_PROPERTY}) are waiting, and writes them sorted by
+ * table and page number.
+ * <p>
+ * A page is only written while the cleaner holds a shared lock on it and nobody has dirtied it again, so an uncommitted
+ * change never reaches the file; a page that is dirty again is skipped and picked up after the next commit or abort.
+ * Write ahead logging holds as for every page write: the page is only written once the log is durable up to its
+ * {@link Page#getLsn() page LSN}, usually long since by then.
+ * <p>
+ * Pending pages are tracked by their place in the file, not by PageId: a B+ tree may reuse the number of a freed page
+ * for a page of another category, and the stale page must not be written over the new one.
+ * <p>
+ * The cleaner thread is started on demand and exits when there is nothing left to write.
+ *
+ * @Threadsafe
+ */
+public class PageCleaner {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 50;
+    public static final String INTERVAL_PROPERTY = "easydb.buffer.cleanerIntervalMillis";
+    public static final int DEFAULT_BATCH_PAGES = 32;
+    public static final String BATCH_PROPERTY = "easydb.buffer.cleanerBatchPages";
+    /**
+     * how long the cleaner waits for a page lock before it skips the page
+     */
+    static final int LOCK_TIMEOUT_MILLIS = 10;
+
+    /**
+     * file order: table, then page number
+     */
+    static final Comparator<PageId> PAGE_ORDER = Comparator.comparingInt(PageId::getTableId)
+            .thenComparingInt(PageId::getPageNumber)
+            .thenComparingInt(PageId::hashCode);
+
+    private final BufferPool pool;
+    private final long intervalMillis;
+    private final int batchPages;
+    /**
+     * the transaction id the cleaner takes its page locks with
+     */
+    private final TransactionId tid = new TransactionId();
+    /**
+     * committed pages not written yet, by place in the file
+     */
+    private final ConcurrentHashMap<Long, PageId> pending = new ConcurrentHashMap<>();
+    /**
+     * serializes page writes with {@link #remove}, so a page dropped from the pool is not written after it was dropped
+     */
+    final Object writeLock = new Object();
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+
+    // protected by this
+    private Thread thread;
+    private boolean closed = false;
+
+    public PageCleaner(BufferPool pool) {
+        this(pool, Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MILLIS),
+                Integer.getInteger(BATCH_PROPERTY, DEFAULT_BATCH_PAGES));
+    }
+
+    public PageCleaner(BufferPool pool, long intervalMillis, int batchPages) {
+        this.pool = pool;
+        this.intervalMillis = intervalMillis;
+        this.batchPages = batchPages;
+    }
+
+    private static long placeOf(PageId pid) {
+        return ((long) pid.getTableId() << 32) | (pid.getPageNumber() & 0xffffffffL);
+    }
+
+    /**
+     * Hand over a committed page, its lock still held by the committing transaction.
+     */
+    void add(PageId pid) {
+        pending.put(placeOf(pid), pid);
+    }
+
+    /**
+     * Make sure somebody is going to write the pending pages: start the cleaner thread if it is not running, or wake it
+     * up early if a batch is full.
+     */
+    void wakeUp() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (thread == null) {
+                thread = new Thread(this::run, "easydb-page-cleaner");
+                thread.setDaemon(true);
+                thread.start();
+            } else if (pending.size() >= batchPages) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return true if the page is committed but not written yet, so it can't be evicted
+     */
+    boolean isPending(PageId pid) {
+        return pid.equals(pending.get(placeOf(pid)));
+    }
+
+    /**
+     * The page was written by someone else, or dropped from the pool; either way, whatever was pending at its place
+     * in the file must not be written any more.
+     */
+    void remove(PageId pid) {
+        synchronized (writeLock) {
+            pending.remove(placeOf(pid));
+        }
+    }
+
+    /**
+     * The cleaner wrote the page, called with {@link #writeLock} held.
+     */
+    void written(PageId pid) {
+        if (pending.remove(placeOf(pid), pid)) {
+            written.increment();
+        }
+    }
+
+    List<PageId> pendingPages() {
+        List<PageId> pids = new ArrayList<>(pending.values());
+        pids.sort(PAGE_ORDER);
+        return pids;
+    }
+
+    /**
+     * Write what can be written right now on the calling thread, e.g. when the pool needs a clean page to evict.
+     *
+     * @return the number of pages written
+     */
+    int cleanNow() {
+        passes.increment();
+        int count = 0;
+        for (PageId pid : pendingPages()) {
+            if (pool.cleanPage(pid, tid)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void run() {
+        try {
+            for (; ; ) {
+                synchronized (this) {
+                    if (!closed && !pending.isEmpty() && pending.size() < batchPages) {
+                        wait(intervalMillis);
+                    }
+                    if (closed || pending.isEmpty()) {
+                        thread = null;
+                        return;
+                    }
+                }
+                if (cleanNow() == 0) {
+                    // everything left is in use, don't spin on it
+                    synchronized (this) {
+                        if (!closed) {
+                            wait(intervalMillis);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                thread = null;
+            }
+        } catch (RuntimeException e) {
+            Debug.log("PageCleaner: stopped by %s", e);
+            synchronized (this) {
+                thread = null;
+            }
+        }
+    }
+
+    /**
+     * Stop the cleaner thread; pages still pending are left to the caller.
+     */
+    void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            t = thread;
+        }
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of committed pages not written yet
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of pages written by the cleaner, in the background or on demand
+     */
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * @return the number of cleaning passes over the pending pages
+     */
+    public long getPassCount() {
+        return passes.sum();
+    }
+}
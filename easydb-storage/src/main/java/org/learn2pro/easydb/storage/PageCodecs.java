@@ -0,0 +1,220 @@
+package org.learn2pro.easydb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.learn2pro.easydb.storage.btree.BTreeFile;
+import org.learn2pro.easydb.storage.btree.BTreeHeaderPage;
+import org.learn2pro.easydb.storage.btree.BTreeInternalPage;
+import org.learn2pro.easydb.storage.btree.BTreeLeafPage;
+import org.learn2pro.easydb.storage.btree.BTreePageId;
+import org.learn2pro.easydb.storage.btree.BTreeRootPtrPage;
+
+/**
+ * Writes pages and page ids into the log and reads them back without reflection. Every page class and page id class
+ * the log may see is registered with a small integer tag, which is written in one byte instead of the class name, and
+ * with a codec that builds it.
+ * <p>
+ * A page is written as its tag, its page id, the integer length of its data and the data; a page id as its tag and
+ * its fields. The pages of the heap and B+ tree files are registered here, other page classes must be registered
+ * before the log sees them. An unknown tag is reported as a {@link StreamCorruptedException}, which is how recovery
+ * tells a torn record at the end of the log.
+ *
+ * @Threadsafe
+ */
+public final class PageCodecs {
+
+    public static final int HEAP_PAGE = 1;
+    public static final int BTREE_ROOT_PTR_PAGE = 2;
+    public static final int BTREE_INTERNAL_PAGE = 3;
+    public static final int BTREE_LEAF_PAGE = 4;
+    public static final int BTREE_HEADER_PAGE = 5;
+
+    public static final int HEAP_PAGE_ID = 1;
+    public static final int BTREE_PAGE_ID = 2;
+
+    /**
+     * tags are written in one byte
+     */
+    static final int MAX_TAG = Byte.MAX_VALUE;
+
+    /**
+     * builds a page of one class from its id and bytes
+     */
+    @FunctionalInterface
+    public interface PageDecoder {
+
+        Page decode(PageId pid, byte[] data) throws IOException;
+    }
+
+    /**
+     * writes and reads the fields of one page id class
+     */
+    public interface PageIdCodec {
+
+        void write(DataOutput out, PageId pid) throws IOException;
+
+        PageId read(DataInput in) throws IOException;
+    }
+
+    private static final AtomicReferenceArray<PageDecoder> decoders = new AtomicReferenceArray<>(MAX_TAG + 1);
+    private static final Map<Class<?>, Integer> pageTags = new ConcurrentHashMap<>();
+    private static final AtomicReferenceArray<PageIdCodec> idCodecs = new AtomicReferenceArray<>(MAX_TAG + 1);
+    private static final Map<Class<?>, Integer> idTags = new ConcurrentHashMap<>();
+
+    static {
+        registerPageId(HEAP_PAGE_ID, HeapPageId.class, new PageIdCodec() {
+            @Override
+            public void write(DataOutput out, PageId pid) throws IOException {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.getPageNumber());
+            }
+
+            @Override
+            public PageId read(DataInput in) throws IOException {
+                return new HeapPageId(in.readInt(), in.readInt());
+            }
+        });
+        registerPageId(BTREE_PAGE_ID, BTreePageId.class, new PageIdCodec() {
+            @Override
+            public void write(DataOutput out, PageId pid) throws IOException {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.getPageNumber());
+                out.writeByte(((BTreePageId) pid).pgcateg());
+            }
+
+            @Override
+            public PageId read(DataInput in) throws IOException {
+                return new BTreePageId(in.readInt(), in.readInt(), in.readByte());
+            }
+        });
+
+        registerPage(HEAP_PAGE, HeapPage.class, (pid, data) -> new HeapPage((HeapPageId) pid, data));
+        registerPage(BTREE_ROOT_PTR_PAGE, BTreeRootPtrPage.class,
+                (pid, data) -> new BTreeRootPtrPage((BTreePageId) pid, data));
+        registerPage(BTREE_INTERNAL_PAGE, BTreeInternalPage.class,
+                (pid, data) -> new BTreeInternalPage((BTreePageId) pid, data, keyField(pid)));
+        registerPage(BTREE_LEAF_PAGE, BTreeLeafPage.class,
+                (pid, data) -> new BTreeLeafPage((BTreePageId) pid, data, keyField(pid)));
+        registerPage(BTREE_HEADER_PAGE, BTreeHeaderPage.class,
+                (pid, data) -> new BTreeHeaderPage((BTreePageId) pid, data));
+    }
+
+    private PageCodecs() {
+    }
+
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    private static void checkTag(int tag) {
+        if (tag < 1 || tag > MAX_TAG) {
+            throw new IllegalArgumentException(String.format("tag %d is not in 1..%d", tag, MAX_TAG));
+        }
+    }
+
+    /**
+     * Register a page class under a tag. Registering the same class under the same tag again replaces its decoder.
+     *
+     * @throws IllegalArgumentException if the tag is out of range or another class has it
+     */
+    public static synchronized void registerPage(int tag, Class<? extends Page> pageClass, PageDecoder decoder) {
+        checkTag(tag);
+        Integer known = pageTags.get(pageClass);
+        if ((known != null && known != tag) || (known == null && decoders.get(tag) != null)) {
+            throw new IllegalArgumentException(
+                    String.format("page tag %d or class %s is registered already", tag, pageClass.getName()));
+        }
+        decoders.set(tag, decoder);
+        pageTags.put(pageClass, tag);
+    }
+
+    /**
+     * Register a page id class under a tag. Registering the same class under the same tag again replaces its codec.
+     *
+     * @throws IllegalArgumentException if the tag is out of range or another class has it
+     */
+    public static synchronized void registerPageId(int tag, Class<? extends PageId> idClass, PageIdCodec codec) {
+        checkTag(tag);
+        Integer known = idTags.get(idClass);
+        if ((known != null && known != tag) || (known == null && idCodecs.get(tag) != null)) {
+            throw new IllegalArgumentException(
+                    String.format("page id tag %d or class %s is registered already", tag, idClass.getName()));
+        }
+        idCodecs.set(tag, codec);
+        idTags.put(idClass, tag);
+    }
+
+    private static int pageTag(Page page) {
+        Integer tag = pageTags.get(page.getClass());
+        if (tag == null) {
+            throw new IllegalArgumentException("no codec for page class " + page.getClass().getName());
+        }
+        return tag;
+    }
+
+    /**
+     * Write a page: its tag, id, data length and data.
+     */
+    public static void writePage(DataOutput out, Page page) throws IOException {
+        out.writeByte(pageTag(page));
+        writePageId(out, page.getId());
+        byte[] data = page.getPageData();
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Read a page written by {@link #writePage}.
+     */
+    public static Page readPage(DataInput in) throws IOException {
+        int tag = in.readByte();
+        PageId pid = readPageId(in);
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return decode(tag, pid, data);
+    }
+
+    /**
+     * Write a page id: its tag and fields.
+     */
+    public static void writePageId(DataOutput out, PageId pid) throws IOException {
+        Integer tag = idTags.get(pid.getClass());
+        if (tag == null) {
+            throw new IllegalArgumentException("no codec for page id class " + pid.getClass().getName());
+        }
+        out.writeByte(tag);
+        idCodecs.get(tag).write(out, pid);
+    }
+
+    /**
+     * Read a page id written by {@link #writePageId}.
+     */
+    public static PageId readPageId(DataInput in) throws IOException {
+        int tag = in.readByte();
+        PageIdCodec codec = tag < 1 ? null : idCodecs.get(tag);
+        if (codec == null) {
+            throw new StreamCorruptedException("unknown page id tag " + tag);
+        }
+        return codec.read(in);
+    }
+
+    /**
+     * @return a page of the same class as the given one, built from other bytes
+     */
+    public static Page newPage(Page like, PageId pid, byte[] data) throws IOException {
+        return decode(pageTag(like), pid, data);
+    }
+
+    private static Page decode(int tag, PageId pid, byte[] data) throws IOException {
+        PageDecoder decoder = tag < 1 ? null : decoders.get(tag);
+        if (decoder == null) {
+            throw new StreamCorruptedException("unknown page tag " + tag);
+        }
+        return decoder.decode(pid, data);
+    }
+}
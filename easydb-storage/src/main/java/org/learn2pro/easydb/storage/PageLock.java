@@ -1,277 +1,862 @@
 package org.learn2pro.easydb.storage;
 
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * PageLock is the lock table of the BufferPool. Every locked table, page or record has a lock head in a concurrent
+ * hash table: the transactions holding the lock and their modes, and a FIFO queue of the requests waiting for it.
+ * Every transaction has a list of the locks it holds, so releasing its locks does not look at the locks of others.
+ * Acquiring and releasing a lock takes expected constant time, and the number of locks is only limited by memory.
+ * <p>
+ * Locks form the hierarchy table &gt; page &gt; record, with the modes of {@link LockMode}. A page or record is only
+ * locked after its parents are locked in the matching intention mode, and a table lock in S or X covers all of the
+ * table, so a big scan takes one table lock instead of one lock per page. A transaction holding more than
+ * {@value #DEFAULT_ESCALATION_THRESHOLD} page and record locks on a table (system property
+ * {@value #ESCALATION_PROPERTY}) trades them for one table lock.
+ * <p>
+ * A request is granted if it is compatible with the holders of the lock and with the requests queued before it, so
+ * waiters are served in arrival order and a stream of readers can't starve a writer. A holder upgrading its lock
+ * doesn't queue behind others: it gets the stronger mode as soon as no other holder conflicts with it.
+ * <p>
+ * A blocked request parks on the monitor of its lock head and is woken up when the lock is released or a request
+ * ahead of it leaves the queue. Deadlocks are found on a waits-for graph built from the wait queues, each time a
+ * request blocks or, if the system property {@value #DETECTION_PROPERTY} is set, every so many milliseconds on a
+ * background thread. The youngest transaction of every cycle is aborted, so the one that has done the least work
+ * is redone. The lock timeout ({@value #DEFAULT_ACQUIRE_LOCK_TIMEOUT}ms, system property {@value #TIMEOUT_PROPERTY})
+ * is only a last resort.
+ * <p>
+ * Instead of detecting deadlocks, the lock table can prevent them by the age of the transactions (system property
+ * {@value #POLICY_PROPERTY}, see {@link Policy}): a transaction only ever waits for younger ones (wait-die) or for
+ * older ones (wound-wait), or never waits at all (no-wait), so no cycle can form.
+ * <p>
+ * Each lock head is guarded by its own monitor; heads are created on first use and dropped from the table once no
+ * transaction holds or waits for them.
+ *
+ * @Threadsafe
+ */
 public class PageLock {
 
-    public static final int MAX_LOCK_NUM = 1024;
     /**
-     * 100ms
+     * 5s
      */
-    public static final int DEFAULT_ACQUIRE_LOCK_TIMEOUT = 200;
-    private TransactionId[] transactionIds;
-    private PageId[] pageIds;
-    private int[] lockLevel;
-    private int[] cycleGraph;
-    private ReentrantLock lock = new ReentrantLock();
+    public static final int DEFAULT_ACQUIRE_LOCK_TIMEOUT = 5000;
+    public static final String TIMEOUT_PROPERTY = "easydb.lock.timeoutMillis";
+    public static final String DETECTION_PROPERTY = "easydb.lock.deadlockDetectionMillis";
+    public static final String POLICY_PROPERTY = "easydb.lock.policy";
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 512;
+    public static final String ESCALATION_PROPERTY = "easydb.lock.escalationThreshold";
+
+    /**
+     * What a request does when it conflicts with other transactions. A transaction is older than another if it has
+     * the smaller id.
+     */
+    public enum Policy {
+        /**
+         * wait, and abort the youngest transaction of every cycle in the waits-for graph
+         */
+        DETECTION,
+        /**
+         * an older transaction waits for younger ones; a younger one aborts ("dies") instead of waiting for an older
+         * one
+         */
+        WAIT_DIE,
+        /**
+         * an older transaction aborts ("wounds") the younger ones it conflicts with and waits for them to go away; a
+         * younger one waits for older ones
+         */
+        WOUND_WAIT,
+        /**
+         * abort instead of waiting
+         */
+        NO_WAIT
+    }
+
+    private final int timeoutMillis;
+    /**
+     * how often the detector thread looks for deadlocks, 0 to look whenever a request blocks
+     */
+    private final long detectionMillis;
+    private final Policy policy;
+    /**
+     * page and record locks a transaction may hold on a table before they are escalated to a table lock
+     */
+    private volatile int escalationThreshold = Integer.getInteger(ESCALATION_PROPERTY, DEFAULT_ESCALATION_THRESHOLD);
+
+    /**
+     * lock heads by {@link TableKey}, {@link PageId} or {@link RecordId}
+     */
+    private final ConcurrentHashMap<Object, LockHead> table = new ConcurrentHashMap<>();
+    /**
+     * the locks of each transaction
+     */
+    private final ConcurrentHashMap<TransactionId, Locks> held = new ConcurrentHashMap<>();
+    /**
+     * the request each blocked transaction waits with
+     */
+    private final ConcurrentHashMap<TransactionId, Request> waiting = new ConcurrentHashMap<>();
+    /**
+     * transactions wounded by older ones, aborted at their next lock request
+     */
+    private final Set<TransactionId> wounded = ConcurrentHashMap.newKeySet();
+    /**
+     * one deadlock search at a time
+     */
+    private final Object detector = new Object();
+    private final Thread detectorThread;
+    private volatile boolean closed = false;
+
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder deadlocks = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    private final LongAdder escalations = new LongAdder();
 
     public PageLock() {
-        transactionIds = new TransactionId[MAX_LOCK_NUM];
-        pageIds = new PageId[MAX_LOCK_NUM];
-        lockLevel = new int[MAX_LOCK_NUM];
-        cycleGraph = new int[MAX_LOCK_NUM];
-        for (int i = 0; i < MAX_LOCK_NUM; i++) {
-            lockLevel[i] = -1;
-            cycleGraph[i] = -1;
+        this(Integer.getInteger(TIMEOUT_PROPERTY, DEFAULT_ACQUIRE_LOCK_TIMEOUT), Long.getLong(DETECTION_PROPERTY, 0L),
+                Policy.valueOf(System.getProperty(POLICY_PROPERTY, Policy.DETECTION.name())));
+    }
+
+    /**
+     * @param timeoutMillis how long a request waits before it gives up
+     * @param detectionMillis the deadlock detection interval, 0 to look for deadlocks whenever a request blocks
+     */
+    public PageLock(int timeoutMillis, long detectionMillis) {
+        this(timeoutMillis, detectionMillis, Policy.DETECTION);
+    }
+
+    /**
+     * @param timeoutMillis how long a request waits before it gives up
+     * @param detectionMillis the deadlock detection interval, 0 to look for deadlocks whenever a request blocks; only
+     * used by {@link Policy#DETECTION}
+     * @param policy how conflicts are resolved
+     */
+    public PageLock(int timeoutMillis, long detectionMillis, Policy policy) {
+        this.timeoutMillis = timeoutMillis;
+        this.detectionMillis = detectionMillis;
+        this.policy = policy;
+        if (policy == Policy.DETECTION && detectionMillis > 0) {
+            detectorThread = new Thread(this::runDetector, "easydb-deadlock-detector");
+            detectorThread.setDaemon(true);
+            detectorThread.start();
+        } else {
+            detectorThread = null;
         }
     }
 
-    public boolean readLockable(TransactionId tid, PageId pid) {
-        //this page is not readLockable when writeLocked by other transaction
-        for (int itx = 0; itx < MAX_LOCK_NUM; itx++) {
-            // write by other tid
-            if (pageIds[itx] != null && pageIds[itx].equals(pid) && lockLevel[itx] == 1 && !transactionIds[itx].equals(
-                    tid)) {
-                return false;
+    private void runDetector() {
+        while (!closed) {
+            try {
+                Thread.sleep(detectionMillis);
+            } catch (InterruptedException e) {
+                return;
             }
+            detectDeadlocks();
+        }
+    }
+
+    /**
+     * Stop the detector thread.
+     */
+    public void close() {
+        closed = true;
+        if (detectorThread != null) {
+            detectorThread.interrupt();
         }
-        return true;
+    }
+
+    public boolean readLockable(TransactionId tid, PageId pid) {
+        //this page is not readLockable when writeLocked by other transaction
+        return compatible(tid, new TableKey(pid.getTableId()), LockMode.IS) && compatible(tid, pid, LockMode.S);
     }
 
     public boolean writeLockable(TransactionId tid, PageId pid) {
-        for (int i = 0; i < MAX_LOCK_NUM; i++) {
-            //read/write by other tid
-            if (pageIds[i] != null && pageIds[i].equals(pid) && !transactionIds[i].equals(tid)) {
-                return false;
-            }
+        //read/write by other tid
+        return compatible(tid, new TableKey(pid.getTableId()), LockMode.IX) && compatible(tid, pid, LockMode.X);
+    }
+
+    private boolean compatible(TransactionId tid, Object key, LockMode mode) {
+        LockHead head = table.get(key);
+        if (head == null) {
+            return true;
+        }
+        synchronized (head) {
+            return head.compatible(tid, mode);
         }
-        return true;
+    }
+
+    /**
+     * @return true if the transaction holds a lock on the page, in any mode, or a table lock that covers it
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Locks locks = held.get(tid);
+        return locks != null && locks.pages.contains(pid);
+    }
+
+    /**
+     * @return the mode the transaction holds the table lock in, null if none
+     */
+    public LockMode getTableLock(TransactionId tid, int tableId) {
+        Locks locks = held.get(tid);
+        return locks == null ? null : locks.tables.get(tableId);
     }
 
     public void lockPage(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-        lockPage(tid, pid, perm, DEFAULT_ACQUIRE_LOCK_TIMEOUT);
+        lockPage(tid, pid, perm, timeoutMillis);
     }
 
+    /**
+     * Lock a page and the intention on its table. A table lock that covers the page makes the page lock unnecessary;
+     * otherwise the page is locked and counts towards the escalation threshold of the table.
+     */
     public void lockPage(TransactionId tid, PageId pid, Permissions perm, Integer timeout)
             throws TransactionAbortedException {
-        long ts = System.currentTimeMillis();
-        long deadline = ts + timeout;
-        for (; ts < deadline; ts = System.currentTimeMillis()) {
+        LockMode mode = LockMode.of(perm);
+        if (lockTableFor(tid, pid.getTableId(), mode, timeout)) {
+            covered(tid, pid);
+            return;
+        }
+        try {
+            acquire(tid, pid, mode, timeout, true);
+        } catch (TransactionAbortedException e) {
+            releaseIntention(tid, pid.getTableId());
+            throw e;
+        }
+        escalate(tid, pid.getTableId());
+    }
+
+    /**
+     * Lock a table in any mode, upgrading the table lock the transaction may hold already. Pages and records of a table
+     * locked in S, SIX or X are not locked one by one any more, as far as the table lock covers them.
+     */
+    public void lockTable(TransactionId tid, int tableId, LockMode mode) throws TransactionAbortedException {
+        acquire(tid, new TableKey(tableId), mode, timeoutMillis, true);
+    }
+
+    /**
+     * Lock a record, and the intentions on its page and table.
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException {
+        LockMode mode = LockMode.of(perm);
+        PageId pid = rid.getPageId();
+        if (lockTableFor(tid, pid.getTableId(), mode, timeoutMillis)) {
+            covered(tid, pid);
+            return;
+        }
+        LockMode pageMode = heldMode(tid, pid);
+        if (pageMode == null || !pageMode.covers(mode)) {
             try {
-                if (lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
-                    if (perm == Permissions.READ_ONLY && readLockable(tid, pid)) {
-                        readLock(tid, pid);
-                        return;
-                    } else if (perm == Permissions.READ_WRITE && writeLockable(tid, pid)) {
-                        writeLock(tid, pid);
-                        return;
-                    } else {
-                        lookFor(tid, pid);
-                        if (cycleCheck()) {
-                            revertLookFor(tid);
-                            throw new TransactionAbortedException(
-                                    String.format("meet deadlock for page:%s,transaction:%s,permission:%s",
-                                            pid.getPageNumber(), tid.getId(), perm));
-                        }
-                        Thread.sleep(timeout / 10);
-                    }
-                }
-            } catch (InterruptedException e) {
-                throw new TransactionAbortedException(e);
-            } finally {
-                if (lock.isHeldByCurrentThread()) {
-                    lock.unlock();
+                if (pageMode == null || !pageMode.covers(mode.intention())) {
+                    acquire(tid, pid, mode.intention(), timeoutMillis, true);
                 }
+                acquire(tid, rid, mode, timeoutMillis, true);
+            } catch (TransactionAbortedException e) {
+                releaseIntention(tid, pid.getTableId());
+                throw e;
             }
         }
-        throw new TransactionAbortedException(
-                "get lock timeout:" + timeout + "ms,pid:" + pid.getPageNumber() + ",permission:" + perm);
+        escalate(tid, pid.getTableId());
     }
 
-    private void readLock(TransactionId tid, PageId pid) {
-        for (int i = 0; i < MAX_LOCK_NUM; i++) {
-            //use old lock
-            if (pageIds[i] != null && pageIds[i].equals(pid) && transactionIds[i].equals(tid)) {
-                lockLevel[i] = Permissions.READ_ONLY.getPermLevel();
-                return;
-            }
-            //create new lock
-            else if (pageIds[i] == null) {
-                pageIds[i] = pid;
-                transactionIds[i] = tid;
-                lockLevel[i] = Permissions.READ_ONLY.getPermLevel();
-                return;
-            }
+    // a page accessed under a table lock is still one of the pages of the transaction
+    private void covered(TransactionId tid, PageId pid) {
+        held.computeIfAbsent(tid, t -> new Locks()).pages.add(pid);
+    }
+
+    private LockMode heldMode(TransactionId tid, Object key) {
+        LockHead head = table.get(key);
+        if (head == null) {
+            return null;
+        }
+        synchronized (head) {
+            return head.holders.get(tid);
+        }
+    }
+
+    /**
+     * Take the intention lock on the table of a page or record locked in the given mode.
+     *
+     * @return true if the table lock covers the page or record already
+     */
+    private boolean lockTableFor(TransactionId tid, int tableId, LockMode mode, int timeout)
+            throws TransactionAbortedException {
+        LockMode tableMode = getTableLock(tid, tableId);
+        if (tableMode != null && tableMode.covers(mode)) {
+            return true;
         }
-        throw new IllegalStateException("lock poll is full");
+        if (tableMode == null || !tableMode.covers(mode.intention())) {
+            acquire(tid, new TableKey(tableId), mode.intention(), timeout, true);
+        }
+        return false;
     }
 
-    private void writeLock(TransactionId tid, PageId pid) {
-        //create new lock
-        for (int i = 0; i < MAX_LOCK_NUM; i++) {
-            //use old lock
-            if (pageIds[i] != null && pageIds[i].equals(pid) && transactionIds[i].equals(tid)) {
-                lockLevel[i] = Permissions.READ_WRITE.getPermLevel();
+    /**
+     * Replace the page and record locks of a transaction on a table by one table lock once it holds more than the
+     * escalation threshold of them: S if it only reads the table, X if it writes. Escalation never waits: if
+     * the table lock is not free right away, the transaction goes on with its fine locks and tries again later.
+     */
+    private void escalate(TransactionId tid, int tableId) {
+        Locks locks = held.get(tid);
+        if (locks == null || locks.fineCount(tableId) <= escalationThreshold) {
+            return;
+        }
+        LockMode current = locks.tables.get(tableId);
+        LockMode mode = current == LockMode.IS ? LockMode.S : LockMode.X;
+        LockHead head = table.get(new TableKey(tableId));
+        if (head == null) {
+            return;
+        }
+        synchronized (head) {
+            if (head.dropped || !head.grantable(tid, mode, null)) {
                 return;
             }
-            //create new lock
-            else if (pageIds[i] == null) {
-                pageIds[i] = pid;
-                transactionIds[i] = tid;
-                lockLevel[i] = Permissions.READ_WRITE.getPermLevel();
-                return;
+            grant(head, tid, mode);
+        }
+        escalations.increment();
+        for (Object key : locks.keys) {
+            if (key instanceof PageId && ((PageId) key).getTableId() == tableId
+                    || key instanceof RecordId && ((RecordId) key).getPageId().getTableId() == tableId) {
+                // pages stay in locks.pages, covered by the table lock now
+                locks.keys.remove(key);
+                release(tid, key);
             }
         }
-        throw new IllegalStateException("lock poll is full");
+        locks.fine.remove(tableId);
+        Debug.log(1, "PageLock: transaction %d escalated to %s on table %d", tid.getId(), mode, tableId);
     }
 
-    public void releaseLock(TransactionId tid, PageId pid) {
-        lock.lock();
+    /**
+     * Wait for a page lock without taking part in deadlock handling: the request never aborts or wounds others and is
+     * never chosen as a victim. Only for transactions that hold no other locks while they wait, like the page cleaner.
+     *
+     * @return false if the lock was not granted within the timeout
+     */
+    public boolean tryLockPage(TransactionId tid, PageId pid, Permissions perm, int timeout) {
+        LockMode mode = LockMode.of(perm);
         try {
-            for (int i = 0; i < MAX_LOCK_NUM; i++) {
-                if (pageIds[i] != null && pageIds[i].equals(pid) && transactionIds[i].equals(tid)) {
-                    pageIds[i] = null;
-                    transactionIds[i] = null;
-                    lockLevel[i] = -1;
-                    releaseByForward(i);
-                }
-            }
-        } finally {
-            lock.unlock();
+            acquire(tid, new TableKey(pid.getTableId()), mode.intention(), timeout, false);
+            acquire(tid, pid, mode, timeout, false);
+            return true;
+        } catch (TransactionAbortedException e) {
+            releaseIntention(tid, pid.getTableId());
+            return false;
         }
     }
 
-    public void releaseLockTrans(TransactionId tid) {
-        lock.lock();
+    private void acquire(TransactionId tid, Object key, LockMode mode, int timeout, boolean resolve)
+            throws TransactionAbortedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        Request request = null;
+        LockHead head = null;
         try {
-            for (int i = 0; i < MAX_LOCK_NUM; i++) {
-                if (transactionIds[i] != null && transactionIds[i].equals(tid)) {
-                    pageIds[i] = null;
-                    transactionIds[i] = null;
-                    lockLevel[i] = -1;
-                    releaseByForward(i);
+            while (true) {
+                if (resolve && wounded.contains(tid)) {
+                    throw abort(tid, key, mode, "wounded by an older transaction");
+                }
+                if (head == null) {
+                    head = table.computeIfAbsent(key, LockHead::new);
+                }
+                List<TransactionId> blockers;
+                boolean blocked;
+                synchronized (head) {
+                    if (head.dropped) {
+                        // released by its last user after we looked it up
+                        head = null;
+                        continue;
+                    }
+                    if (request != null && request.victim) {
+                        throw abort(tid, key, mode, "meet deadlock");
+                    }
+                    if (head.grantable(tid, mode, request)) {
+                        if (request != null) {
+                            head.queue.remove(request);
+                        }
+                        grant(head, tid, mode);
+                        return;
+                    }
+                    blocked = request == null;
+                    if (blocked) {
+                        if (resolve && policy == Policy.NO_WAIT) {
+                            throw abort(tid, key, mode, "lock is busy");
+                        }
+                        request = new Request(tid, mode, head);
+                        head.queue.addLast(request);
+                        waiting.put(tid, request);
+                        waits.increment();
+                    } else if (request.seen == head.changes) {
+                        long left = deadline - System.currentTimeMillis();
+                        if (left <= 0) {
+                            throw abort(tid, key, mode, "get lock timeout:" + timeout + "ms");
+                        }
+                        head.wait(left);
+                        if (request.victim || head.grantable(tid, mode, request)) {
+                            continue;
+                        }
+                    }
+                    // requests ahead may have been granted meanwhile, so the blockers are not always the same
+                    request.seen = head.changes;
+                    blockers = head.blockers(request);
+                }
+                // blocked: resolve conflicts outside the monitor
+                if (!resolve) {
+                    continue;
+                }
+                switch (policy) {
+                    case WAIT_DIE:
+                        for (TransactionId blocker : blockers) {
+                            if (blocker.getId() < tid.getId()) {
+                                throw abort(tid, key, mode, "younger than a conflicting transaction, dies");
+                            }
+                        }
+                        break;
+                    case WOUND_WAIT:
+                        for (TransactionId blocker : blockers) {
+                            if (blocker.getId() > tid.getId()) {
+                                wound(blocker);
+                            }
+                        }
+                        break;
+                    default:
+                        // look for the cycle this request may have closed
+                        if (blocked && detectionMillis <= 0) {
+                            detectDeadlocks();
+                        }
                 }
             }
+        } catch (InterruptedException e) {
+            throw new TransactionAbortedException(e);
         } finally {
-            lock.unlock();
+            if (request != null) {
+                waiting.remove(tid, request);
+                synchronized (head) {
+                    if (head.queue.remove(request)) {
+                        // requests behind it may be grantable now
+                        head.changed();
+                    }
+                    dropIfUnused(head);
+                }
+            }
         }
     }
 
-    public Set<PageId> getPagesHeldByTid(TransactionId tid) {
-        Set<PageId> pageSet = Sets.newHashSet();
-        for (int i = 0; i < MAX_LOCK_NUM; i++) {
-            if (transactionIds[i] != null && transactionIds[i].equals(tid) && pageIds[i] != null) {
-                pageSet.add(pageIds[i]);
-            }
+    private TransactionAbortedException abort(TransactionId tid, Object key, LockMode mode, String reason) {
+        aborts.increment();
+        return new TransactionAbortedException(String.format("%s for %s,transaction:%s,mode:%s", reason,
+                describe(key), tid.getId(), mode));
+    }
+
+    private static String describe(Object key) {
+        if (key instanceof PageId) {
+            return "page:" + ((PageId) key).getPageNumber();
+        }
+        if (key instanceof RecordId) {
+            RecordId rid = (RecordId) key;
+            return "record:" + rid.getPageId().getPageNumber() + "/" + rid.getTupleNumber();
         }
-        return pageSet;
+        return key.toString();
     }
 
-    private boolean cycleCheck() {
-        int p0 = 0, p1 = 0;
-        int step = 0;
-        while (p0 < MAX_LOCK_NUM && p1 < MAX_LOCK_NUM) {
-            if (p0 == p1 && cycleGraph[p0] == cycleGraph[p1] && step != 0) {
-                return true;
+    /**
+     * Abort a younger transaction: at once if it is waiting for a lock, or else at its next lock request. Until then
+     * the older transaction waits as usual.
+     */
+    private void wound(TransactionId tid) {
+        if (!wounded.add(tid)) {
+            return;
+        }
+        if (!held.containsKey(tid)) {
+            // completed since it blocked us
+            wounded.remove(tid);
+            return;
+        }
+        Request request = waiting.get(tid);
+        if (request != null) {
+            synchronized (request.head) {
+                request.head.notifyAll();
             }
-            p0 = step(p0, 1);
-            p1 = step(p1, 2);
-            step += 1;
         }
-        return false;
     }
 
-    private int step(int current, int gap) {
-        for (int i = gap; i > 0 && current < MAX_LOCK_NUM; i--) {
-            if (cycleGraph[current] == -1) {
-                current += 1;
-            } else {
-                current = cycleGraph[current];
+    // requires the monitor of head
+    private void grant(LockHead head, TransactionId tid, LockMode mode) {
+        LockMode granted = head.grant(tid, mode);
+        // a new holder or mode: the waiting requests may have to resolve a conflict with it
+        head.changed();
+        Locks locks = held.computeIfAbsent(tid, t -> new Locks());
+        boolean added = locks.keys.add(head.key);
+        if (granted != LockMode.S && granted != LockMode.IS) {
+            locks.writes = true;
+        }
+        if (head.key instanceof TableKey) {
+            locks.tables.put(((TableKey) head.key).tableId, granted);
+        } else if (head.key instanceof PageId) {
+            locks.pages.add((PageId) head.key);
+            if (added) {
+                locks.fine.merge(((PageId) head.key).getTableId(), 1, Integer::sum);
             }
+        } else if (added) {
+            locks.fine.merge(((RecordId) head.key).getPageId().getTableId(), 1, Integer::sum);
         }
-        return current;
     }
 
-    private void lookFor(TransactionId tid, PageId pid) {
-        Set<Integer> hold = Sets.newHashSet();
-        List<Integer> forward = Lists.newArrayList();
-        for (int i = 0; i < MAX_LOCK_NUM; i++) {
-            if (transactionIds[i] != null && transactionIds[i].equals(tid)) {
-                hold.add(i);
+    /**
+     * Build the waits-for graph of the blocked transactions and break every cycle by aborting its youngest
+     * transaction. Runs whenever a request blocks, or every {@value #DETECTION_PROPERTY} milliseconds if set.
+     *
+     * @return the number of transactions aborted
+     */
+    public int detectDeadlocks() {
+        synchronized (detector) {
+            WaitsForGraph graph = new WaitsForGraph();
+            for (Request request : waiting.values()) {
+                synchronized (request.head) {
+                    if (!request.victim) {
+                        for (TransactionId blocker : request.head.blockers(request)) {
+                            graph.addEdge(request.tid, blocker);
+                        }
+                    }
+                }
             }
-        }
-        for (int i = 0; i < MAX_LOCK_NUM; i++) {
-            if (pageIds[i] != null && pageIds[i].equals(pid) && !hold.contains(i)) {
-                forward.add(i);
+            int victims = 0;
+            for (List<TransactionId> cycle = graph.findCycle(); !cycle.isEmpty(); cycle = graph.findCycle()) {
+                TransactionId victim = WaitsForGraph.youngest(cycle);
+                graph.remove(victim);
+                deadlocks.increment();
+                Request request = waiting.get(victim);
+                if (request != null) {
+                    synchronized (request.head) {
+                        request.victim = true;
+                        request.head.notifyAll();
+                    }
+                }
+                Debug.log(1, "PageLock: deadlock of %d transactions, aborting %d", cycle.size(), victim.getId());
+                victims++;
             }
+            return victims;
         }
-        if (!hold.isEmpty() && !forward.isEmpty()) {
-            for (Integer idx : hold) {
-                cycleGraph[idx] = forward.get(0);
-            }
+    }
+
+    /**
+     * Release the lock of a transaction on a page. Its record locks on the page are kept, and so is its table lock
+     * unless it was only the intention for this page.
+     */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        Locks locks = held.get(tid);
+        if (locks == null) {
+            return;
+        }
+        locks.pages.remove(pid);
+        if (!locks.keys.remove(pid)) {
+            return;
+        }
+        locks.fine.computeIfPresent(pid.getTableId(), (t, n) -> n > 1 ? n - 1 : null);
+        release(tid, pid);
+        releaseIntention(tid, pid.getTableId());
+    }
+
+    /**
+     * Release the table lock of a transaction if it is only an intention and no page or record lock needs it any more.
+     */
+    private void releaseIntention(TransactionId tid, int tableId) {
+        Locks locks = held.get(tid);
+        if (locks == null || locks.fineCount(tableId) > 0) {
+            return;
+        }
+        LockMode tableMode = locks.tables.get(tableId);
+        if (tableMode == LockMode.IS || tableMode == LockMode.IX) {
+            TableKey key = new TableKey(tableId);
+            locks.tables.remove(tableId);
+            locks.keys.remove(key);
+            release(tid, key);
+        }
+    }
+
+    public void releaseLockTrans(TransactionId tid) {
+        Locks locks = held.remove(tid);
+        // after its locks are gone, see wound()
+        wounded.remove(tid);
+        if (locks == null) {
+            return;
+        }
+        for (Object key : locks.keys) {
+            release(tid, key);
         }
     }
 
-    private void revertLookFor(TransactionId tid) {
-        List<Integer> hold = Lists.newArrayList();
-        for (int i = 0; i < MAX_LOCK_NUM; i++) {
-            if (transactionIds[i] != null && transactionIds[i].equals(tid)) {
-                hold.add(i);
+    /**
+     * @return true if the transaction was granted a lock in a mode that lets it change something, IX, SIX or X; a
+     * transaction without one has only read
+     */
+    public boolean holdsWriteLocks(TransactionId tid) {
+        Locks locks = held.get(tid);
+        return locks != null && locks.writes;
+    }
+
+    /**
+     * @return the pages the transaction locked, directly or through a table lock
+     */
+    public Set<PageId> getPagesHeldByTid(TransactionId tid) {
+        Locks locks = held.get(tid);
+        return locks == null ? Sets.newHashSet() : new HashSet<>(locks.pages);
+    }
+
+    /**
+     * @return the number of tables, pages and records with a lock head, held or waited for
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * @return the number of requests that had to wait
+     */
+    public long getWaitCount() {
+        return waits.sum();
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of lock requests refused, for any reason: deadlock, prevention policy or timeout
+     */
+    public long getAbortCount() {
+        return aborts.sum();
+    }
+
+    /**
+     * @return the number of transactions aborted to break a deadlock
+     */
+    public long getDeadlockCount() {
+        return deadlocks.sum();
+    }
+
+    /**
+     * @return the number of times page and record locks were traded for a table lock
+     */
+    public long getEscalationCount() {
+        return escalations.sum();
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    public void setEscalationThreshold(int escalationThreshold) {
+        this.escalationThreshold = escalationThreshold;
+    }
+
+    private void release(TransactionId tid, Object key) {
+        LockHead head = table.get(key);
+        if (head == null) {
+            return;
+        }
+        synchronized (head) {
+            head.holders.remove(tid);
+            head.changed();
+            dropIfUnused(head);
+        }
+    }
+
+    // requires the monitor of head
+    private void dropIfUnused(LockHead head) {
+        if (!head.dropped && head.holders.isEmpty() && head.queue.isEmpty()) {
+            head.dropped = true;
+            table.remove(head.key, head);
+        }
+    }
+
+    /**
+     * The key of a table lock in the lock table.
+     */
+    private static final class TableKey {
+
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(tableId);
+        }
+
+        @Override
+        public String toString() {
+            return "table:" + tableId;
+        }
+    }
+
+    /**
+     * The locks of one transaction.
+     */
+    private static final class Locks {
+
+        /**
+         * the keys of all the locks held
+         */
+        final Set<Object> keys = ConcurrentHashMap.newKeySet();
+        /**
+         * the pages locked, or accessed under a table lock
+         */
+        final Set<PageId> pages = ConcurrentHashMap.newKeySet();
+        final Map<Integer, LockMode> tables = new ConcurrentHashMap<>();
+        /**
+         * the number of page and record locks held on each table
+         */
+        final Map<Integer, Integer> fine = new ConcurrentHashMap<>();
+        /**
+         * set once a lock was granted in a mode to write in, and kept until the locks are released
+         */
+        volatile boolean writes = false;
+
+        int fineCount(int tableId) {
+            return fine.getOrDefault(tableId, 0);
+        }
+    }
+
+    private static final class Request {
+
+        final TransactionId tid;
+        final LockMode mode;
+        final LockHead head;
+        /**
+         * set when the request is chosen to break a deadlock, guarded by the monitor of head
+         */
+        boolean victim = false;
+        /**
+         * {@link LockHead#changes} when the request last looked at its blockers
+         */
+        long seen;
+
+        Request(TransactionId tid, LockMode mode, LockHead head) {
+            this.tid = tid;
+            this.mode = mode;
+            this.head = head;
+        }
+    }
+
+    /**
+     * The holders and waiters of the lock on one table, page or record, guarded by its monitor.
+     */
+    private static final class LockHead {
+
+        final Object key;
+        final Map<TransactionId, LockMode> holders = new HashMap<>(4);
+        final ArrayDeque<Request> queue = new ArrayDeque<>(2);
+        /**
+         * true once removed from the table; a new head is made for the key
+         */
+        boolean dropped = false;
+        /**
+         * counts the changes of holders and queue, so a waiter notices changes made while it was not waiting
+         */
+        long changes = 0;
+
+        LockHead(Object key) {
+            this.key = key;
+        }
+
+        void changed() {
+            changes++;
+            if (!queue.isEmpty()) {
+                notifyAll();
             }
         }
-        if (!hold.isEmpty()) {
-            for (Integer idx : hold) {
-                cycleGraph[idx] = -1;
+
+        /**
+         * @return the mode the transaction ends up holding if the request is granted
+         */
+        LockMode target(TransactionId tid, LockMode mode) {
+            LockMode mine = holders.get(tid);
+            return mine == null ? mode : mine.join(mode);
+        }
+
+        /**
+         * @return true if no other holder conflicts with the request
+         */
+        boolean compatible(TransactionId tid, LockMode mode) {
+            LockMode target = target(tid, mode);
+            for (Map.Entry<TransactionId, LockMode> holder : holders.entrySet()) {
+                if (!holder.getKey().equals(tid) && !holder.getValue().compatible(target)) {
+                    return false;
+                }
             }
+            return true;
         }
-    }
 
-    private void releaseByForward(int idx) {
-        for (int i = 0; i < MAX_LOCK_NUM; i++) {
-            if (cycleGraph[i] == idx) {
-                cycleGraph[i] = -1;
+        boolean grantable(TransactionId tid, LockMode mode, Request request) {
+            LockMode mine = holders.get(tid);
+            if (mine != null && mine.covers(mode)) {
+                return true;
+            }
+            if (!compatible(tid, mode)) {
+                return false;
+            }
+            if (mine != null) {
+                // upgrades go first
+                return true;
+            }
+            for (Request ahead : queue) {
+                if (ahead == request) {
+                    break;
+                }
+                if (!ahead.mode.compatible(mode)) {
+                    return false;
+                }
             }
+            return true;
         }
-    }
 
-//    public boolean writeLocked(PageId pid) {
-//        int itx;
-//        for (itx = 0; itx < maxlocknum; itx++) {
-//            if (Pid[itx] != null && Pid[itx].equals(pid) && ll[itx] == 2) {
-//                return true;
-//            }
-//        }
-//        return false;
-//    }
-//
-//    public int lockLevel(TransactionId tid, PageId pid) {
-//        int itx;
-//        for (itx = 0; itx < maxlocknum; itx++) {
-//            if (Tid[itx] != null) {
-//                if (Tid[itx].equals(tid) && Pid[itx].equals(pid)) {
-//                    return ll[itx];
-//                }
-//            }
-//        }
-//        return -1;
-//    }
-//
-//    public int lockLoc(TransactionId tid, PageId pid) {
-//        int itx;
-//        for (itx = 0; itx < maxlocknum; itx++) {
-//            if (Tid[itx] != null) {
-//                if (Tid[itx].equals(tid) && Pid[itx].equals(pid)) {
-//                    return itx;
-//                }
-//            }
-//        }
-//        return -1;
-//    }
+        /**
+         * @return the mode held now
+         */
+        LockMode grant(TransactionId tid, LockMode mode) {
+            LockMode granted = target(tid, mode);
+            holders.put(tid, granted);
+            return granted;
+        }
 
+        /**
+         * @return the transactions a queued request waits for: conflicting holders and, unless it upgrades, the
+         * conflicting requests queued before it
+         */
+        List<TransactionId> blockers(Request request) {
+            TransactionId tid = request.tid;
+            LockMode target = target(tid, request.mode);
+            List<TransactionId> blockers = new ArrayList<>();
+            for (Map.Entry<TransactionId, LockMode> holder : holders.entrySet()) {
+                if (!holder.getKey().equals(tid) && !holder.getValue().compatible(target)) {
+                    blockers.add(holder.getKey());
+                }
+            }
+            if (holders.containsKey(tid)) {
+                return blockers;
+            }
+            for (Request ahead : queue) {
+                if (ahead == request) {
+                    break;
+                }
+                if (!ahead.mode.compatible(request.mode)) {
+                    blockers.add(ahead.tid);
+                }
+            }
+            return blockers;
+        }
+    }
 }
@@ -0,0 +1,479 @@
+package org.learn2pro.easydb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import org.learn2pro.easydb.storage.buffer.ReplacementPolicy;
+import org.learn2pro.easydb.storage.buffer.ReplacementPolicyType;
+
+/**
+ * PageTable is the resident page map of the BufferPool. Pages are spread over a power-of-two number of shards by the
+ * hash of their PageId, and every shard owns its own lock and its own {@link ReplacementPolicy}, so threads touching
+ * different shards never contend with each other.
+ * <p>
+ * The capacity is global: a slot has to be {@link #reserve() reserved} before a page read from disk can be installed,
+ * which keeps small pools (one or two pages) exact no matter how the pages hash. The capacity can be changed at any
+ * time; the number of shards stays as it was picked at construction.
+ * <p>
+ * Every shard also keeps a stamp that moves whenever a page of the shard is removed, so a page read from disk without
+ * any lock (read-ahead) can be installed only if nothing was dropped meanwhile, see {@link #installIfUnchanged}.
+ * <p>
+ * Pages can be {@link #pin pinned} while a thread is using them. A pinned page is taken out of its replacement policy,
+ * so eviction never looks at it, and has a {@link Latch} for short-term reader/writer exclusion. Pins are counted per
+ * PageId; the latch lives as long as somebody holds a pin.
+ * <p>
+ * Pages that can't be evicted for now, dirty or waiting to be written, are held out of their replacement policy the
+ * same way once eviction comes across them, so eviction doesn't walk past them again and again. The pool
+ * {@link #release releases} a page when it can be evicted again; the held pages are where {@link #findHeld} looks for
+ * a page to write.
+ * <p>
+ * Shard locks are leaf locks: no method calls out of this class while holding one, except for the filter passed to
+ * {@link #evict}, which must only read state without blocking or locking anything.
+ *
+ * @Threadsafe
+ */
+class PageTable {
+
+    /**
+     * upper bound of shard number
+     */
+    static final int MAX_SHARDS = 64;
+    /**
+     * pages per shard we aim for when picking the shard number
+     */
+    private static final int PAGES_PER_SHARD = 4;
+
+    private final Shard[] shards;
+    private final int mask;
+    private volatile int capacity;
+    /**
+     * resident pages plus reserved slots
+     */
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReplacementPolicyType policyType;
+
+    PageTable(int capacity, ReplacementPolicyType policyType) {
+        this.capacity = capacity;
+        this.policyType = policyType;
+        int n = Integer.highestOneBit(Math.max(1, Math.min(MAX_SHARDS, capacity / PAGES_PER_SHARD)));
+        this.shards = new Shard[n];
+        int shardCapacity = (capacity + n - 1) / n;
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard(policyType.<PageId>create(shardCapacity));
+        }
+        this.mask = n - 1;
+    }
+
+    private int indexOf(PageId pid) {
+        int h = pid.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private Shard shardOf(PageId pid) {
+        return shards[indexOf(pid)];
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Change the capacity. Nothing is evicted here: if the table holds more pages than the new capacity, new pages
+     * can't be reserved until enough pages have left.
+     */
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+        int shardCapacity = (capacity + shards.length - 1) / shards.length;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.policy.setCapacity(shardCapacity);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    ReplacementPolicyType policyType() {
+        return policyType;
+    }
+
+    /**
+     * Reserve a slot for a page that is about to be installed.
+     *
+     * @return false if the table is full and a page has to be evicted first
+     */
+    boolean reserve() {
+        for (; ; ) {
+            int s = size.get();
+            if (s >= capacity) {
+                return false;
+            }
+            if (size.compareAndSet(s, s + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back a slot obtained by {@link #reserve()} that was not used.
+     */
+    void unreserve() {
+        size.decrementAndGet();
+    }
+
+    /**
+     * Look up a page and count the lookup as a reference for the replacement policy.
+     */
+    Page get(PageId pid) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            Page page = shard.pages.get(pid);
+            if (page != null) {
+                shard.policy.onAccess(pid);
+            }
+            return page;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Look up a page without telling the replacement policy, for flushes and other bookkeeping.
+     */
+    Page peek(PageId pid) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            return shard.pages.get(pid);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Install a page into a slot obtained by {@link #reserve()}. If another thread installed the same page in the
+     * meantime, the reservation is returned and the resident page wins.
+     *
+     * @return the page now resident for pid
+     */
+    Page install(PageId pid, Page page) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            Page resident = shard.pages.get(pid);
+            if (resident != null) {
+                size.decrementAndGet();
+                return resident;
+            }
+            shard.pages.put(pid, page);
+            shard.inserted(pid);
+            return page;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the stamp of the shard of pid, to be passed to {@link #installIfUnchanged}
+     */
+    long stamp(PageId pid) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            return shard.stamp;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Install a page into a slot obtained by {@link #reserve()}, unless the page became resident or a page of its
+     * shard was removed since the stamp was taken. The reservation is returned if the page is not installed.
+     *
+     * @return true if the page was installed
+     */
+    boolean installIfUnchanged(PageId pid, Page page, long stamp) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            if (shard.stamp != stamp || shard.pages.containsKey(pid)) {
+                size.decrementAndGet();
+                return false;
+            }
+            shard.pages.put(pid, page);
+            shard.inserted(pid);
+            return true;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Put a page without checking the capacity, replacing any resident version.
+     */
+    void put(PageId pid, Page page) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            if (shard.pages.put(pid, page) == null) {
+                size.incrementAndGet();
+                shard.inserted(pid);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    Page remove(PageId pid) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            shard.stamp++;
+            Page removed = shard.pages.remove(pid);
+            if (removed != null) {
+                size.decrementAndGet();
+                shard.policy.onRemove(pid);
+                shard.held.remove(pid);
+            }
+            return removed;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove and return the victim that the replacement policy of a shard offers among the pages passing the filter.
+     * The shard of the hint is tried first so a miss usually only touches its own shard. Pages failing the filter are
+     * held out of the policy until they are {@link #release released}.
+     *
+     * @param hint the page that caused the eviction, may be null
+     * @param evictable the filter a victim must pass, called under the shard lock, so it must not block or lock
+     * @return the evicted page, or null if no page passes the filter
+     */
+    Page evict(PageId hint, Predicate<Page> evictable) {
+        int start = hint == null ? 0 : indexOf(hint);
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[(start + i) & mask];
+            shard.lock.lock();
+            try {
+                // pinned pages are out of the policy already, the check only guards policies that ignore pins
+                List<PageId> unevictable = new ArrayList<>();
+                PageId victim = shard.policy.victim(pid -> {
+                    if (shard.latches.containsKey(pid)) {
+                        return false;
+                    }
+                    if (evictable.test(shard.pages.get(pid))) {
+                        return true;
+                    }
+                    unevictable.add(pid);
+                    return false;
+                });
+                for (PageId pid : unevictable) {
+                    shard.hold(pid);
+                }
+                if (victim != null) {
+                    shard.stamp++;
+                    size.decrementAndGet();
+                    return shard.pages.remove(victim);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find a page held out of its policy by {@link #evict} that is not pinned, the one held longest first, without
+     * removing it. The shard of the hint is searched first.
+     *
+     * @return the page, or null if no page qualifies
+     */
+    Page findHeld(PageId hint) {
+        int start = hint == null ? 0 : indexOf(hint);
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[(start + i) & mask];
+            shard.lock.lock();
+            try {
+                for (PageId pid : shard.held) {
+                    if (!shard.latches.containsKey(pid)) {
+                        return shard.pages.get(pid);
+                    }
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A page held out of its policy can be evicted again, e.g. it was written; it goes back into the policy unless it
+     * is pinned.
+     */
+    void release(PageId pid) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            if (shard.held.remove(pid) && !shard.latches.containsKey(pid)) {
+                shard.policy.setEvictable(pid, true);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Pin a resident page, so it is not evicted until it is unpinned.
+     *
+     * @param page the page the caller got for pid
+     * @return the latch of the page, or null if page is not the resident page for pid (anymore)
+     */
+    Latch pin(PageId pid, Page page) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            if (shard.pages.get(pid) != page) {
+                return null;
+            }
+            Latch latch = shard.latches.get(pid);
+            if (latch == null) {
+                latch = new Latch();
+                shard.latches.put(pid, latch);
+                shard.policy.setEvictable(pid, false);
+            }
+            latch.pins++;
+            return latch;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Give back a pin taken by {@link #pin}.
+     */
+    void unpin(PageId pid, Latch latch) {
+        Shard shard = shardOf(pid);
+        shard.lock.lock();
+        try {
+            if (--latch.pins == 0 && shard.latches.remove(pid, latch) && shard.pages.containsKey(pid)
+                    && !shard.held.contains(pid)) {
+                shard.policy.setEvictable(pid, true);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of pinned pages
+     */
+    int pinnedCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                count += shard.latches.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of pages held out of their policy as not evictable
+     */
+    int heldCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                count += shard.held.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return a snapshot of the resident page ids, shard by shard
+     */
+    List<PageId> pageIds() {
+        List<PageId> pids = new ArrayList<>(size.get());
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                pids.addAll(shard.pages.keySet());
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return pids;
+    }
+
+    private static class Shard {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final HashMap<PageId, Page> pages = new HashMap<>();
+        /**
+         * latches of the pinned pages
+         */
+        final HashMap<PageId, Latch> latches = new HashMap<>();
+        /**
+         * resident pages held out of the policy as not evictable, in the order they were held
+         */
+        final LinkedHashSet<PageId> held = new LinkedHashSet<>();
+        final ReplacementPolicy<PageId> policy;
+        long stamp = 0;
+
+        Shard(ReplacementPolicy<PageId> policy) {
+            this.policy = policy;
+        }
+
+        /**
+         * A page became resident; it may have been pinned by id while it was out, e.g. discarded and read again.
+         */
+        void inserted(PageId pid) {
+            policy.onInsert(pid);
+            if (latches.containsKey(pid)) {
+                policy.setEvictable(pid, false);
+            }
+        }
+
+        void hold(PageId pid) {
+            if (held.add(pid)) {
+                policy.setEvictable(pid, false);
+            }
+        }
+    }
+
+    /**
+     * The pin count and reader/writer latch of a pinned page. Latches are short-term: they protect the contents of a
+     * page while a thread reads or changes it, unlike transaction locks they are never held while waiting for a lock.
+     */
+    static final class Latch {
+
+        /**
+         * protected by the shard lock
+         */
+        int pins = 0;
+        final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+    }
+}
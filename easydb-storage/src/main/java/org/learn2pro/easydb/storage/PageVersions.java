@@ -0,0 +1,182 @@
+package org.learn2pro.easydb.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PageVersions keeps the old committed versions of pages for snapshot reads, so read-only transactions see the
+ * database as of the moment they started without taking any page locks.
+ * <p>
+ * Every commit gets a timestamp. Before a commit makes the new contents of a page the committed ones, the BufferPool
+ * hands the old committed image, the before image the page tracks anyway, to {@link #preserve}, tagged with the
+ * timestamp of the commit: the image is the version of the page valid until that commit. A snapshot started at
+ * timestamp S reads the oldest version preserved by a commit after S, or, if there is none, the committed page itself.
+ * <p>
+ * A version is garbage once every snapshot started at or after the commit that preserved it; versions are dropped when
+ * a snapshot ends and when a commit finds no snapshot running.
+ *
+ * @Threadsafe
+ */
+public class PageVersions {
+
+    /**
+     * one committed image of a page, valid until the commit at {@link #until}
+     */
+    private static final class Version {
+
+        final long until;
+        final Page image;
+
+        Version(long until, Page image) {
+            this.until = until;
+            this.image = image;
+        }
+    }
+
+    private static final Version[] NONE = new Version[0];
+
+    /**
+     * the versions of each page by ascending timestamp; arrays are never changed, only replaced
+     */
+    private final ConcurrentHashMap<PageId, Version[]> versions = new ConcurrentHashMap<>();
+    /**
+     * the timestamp each running snapshot started at, guarded by this
+     */
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    /**
+     * the timestamp of the last commit whose versions are all preserved
+     */
+    private volatile long committed = 0;
+    /**
+     * the last timestamp handed out, guarded by this
+     */
+    private long next = 0;
+
+    private final LongAdder preserved = new LongAdder();
+    private final LongAdder snapshotReads = new LongAdder();
+
+    /**
+     * Start a snapshot for a read-only transaction. It sees every commit published before.
+     */
+    public synchronized void begin(TransactionId tid) {
+        snapshots.put(tid, committed);
+    }
+
+    /**
+     * End the snapshot of a transaction and drop the versions nobody needs any more.
+     */
+    public void end(TransactionId tid) {
+        if (snapshots.remove(tid) != null) {
+            collect();
+        }
+    }
+
+    public boolean inSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /**
+     * @return the timestamp of the last commit published
+     */
+    public long lastCommit() {
+        return committed;
+    }
+
+    /**
+     * @return the timestamp for a new commit, to be {@link #publish published} once all its pages are preserved
+     */
+    public synchronized long nextCommit() {
+        return ++next;
+    }
+
+    /**
+     * Keep the committed image of a page that the commit at the given timestamp is about to replace.
+     */
+    public void preserve(PageId pid, long commit, Page image) {
+        versions.merge(pid, new Version[]{new Version(commit, image)}, (old, add) -> {
+            Version[] merged = Arrays.copyOf(old, old.length + 1);
+            merged[old.length] = add[0];
+            return merged;
+        });
+        preserved.increment();
+    }
+
+    /**
+     * Make a commit visible to snapshots started from now on. Commits are published in timestamp order.
+     */
+    public void publish(long commit) {
+        synchronized (this) {
+            committed = commit;
+        }
+        if (snapshots.isEmpty()) {
+            collect();
+        }
+    }
+
+    /**
+     * @return the version of the page the snapshot of the transaction sees, or null if that is the committed page
+     */
+    public Page get(TransactionId tid, PageId pid) {
+        Long start = snapshots.get(tid);
+        if (start == null) {
+            return null;
+        }
+        snapshotReads.increment();
+        for (Version version : versions.getOrDefault(pid, NONE)) {
+            if (version.until > start) {
+                return version.image;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drop the versions that were replaced before the oldest running snapshot started. Versions of a commit that is not
+     * published yet are kept: snapshots starting meanwhile still need them.
+     */
+    public void collect() {
+        long horizon;
+        synchronized (this) {
+            horizon = committed;
+            for (long start : snapshots.values()) {
+                horizon = Math.min(horizon, start);
+            }
+        }
+        final long oldest = horizon;
+        for (PageId pid : versions.keySet()) {
+            versions.computeIfPresent(pid, (p, old) -> {
+                int drop = 0;
+                while (drop < old.length && old[drop].until <= oldest) {
+                    drop++;
+                }
+                return drop == old.length ? null : drop == 0 ? old : Arrays.copyOfRange(old, drop, old.length);
+            });
+        }
+    }
+
+    /**
+     * @return the number of pages with old versions
+     */
+    public int size() {
+        return versions.size();
+    }
+
+    public int getSnapshotCount() {
+        return snapshots.size();
+    }
+
+    /**
+     * @return the number of versions preserved so far
+     */
+    public long getPreservedCount() {
+        return preserved.sum();
+    }
+
+    /**
+     * @return the number of pages read by snapshots
+     */
+    public long getSnapshotReadCount() {
+        return snapshotReads.sum();
+    }
+}
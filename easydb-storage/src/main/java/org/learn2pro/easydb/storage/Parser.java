@@ -39,6 +39,16 @@ import org.learn2pro.easydb.storage.stats.TableStats;
 public class Parser {
 
     static boolean explain = false;
+    /**
+     * if set to true, a SELECT outside a user transaction runs as a read-only transaction on a snapshot, so it
+     * neither waits for nor blocks writers
+     */
+    public static final String SNAPSHOT_QUERIES_PROPERTY = "easydb.mvcc.snapshotQueries";
+    /**
+     * if set to true, the transactions of a session commit asynchronously unless {@link #setAsyncCommit} says
+     * otherwise, see {@link Transaction#setAsyncCommit}
+     */
+    public static final String ASYNC_COMMIT_PROPERTY = "easydb.log.asyncCommit";
 
     public static Predicate.Op getOp(String s) throws ParsingException {
         if (s.equals("=")) {
@@ -311,6 +321,7 @@ public class Parser {
 
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
+    private boolean asyncCommit = Boolean.getBoolean(ASYNC_COMMIT_PROPERTY);
 
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
@@ -498,6 +509,7 @@ public class Parser {
                         "Can't start new transactions until current transaction has been committed or rolledback.");
             }
             curtrans = new Transaction();
+            curtrans.setAsyncCommit(asyncCommit);
             curtrans.start();
             inUserTrans = true;
             System.out.println("Started a new transaction tid = "
@@ -536,6 +548,13 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * @param asyncCommit true to commit the transactions of this session asynchronously from now on
+     */
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
+    }
+
     public void processNextStatement(String s) {
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
@@ -555,7 +574,8 @@ public class Parser {
                 handleTransactStatement((ZTransactStmt) s);
             } else {
                 if (!this.inUserTrans) {
-                    curtrans = new Transaction();
+                    curtrans = new Transaction(s instanceof ZQuery && Boolean.getBoolean(SNAPSHOT_QUERIES_PROPERTY));
+                    curtrans.setAsyncCommit(asyncCommit);
                     curtrans.start();
                     System.out.println("Started a new transaction tid = "
                             + curtrans.getId().getId());
@@ -655,6 +675,7 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        Database.getBufferPool().getSnapshot().warmUp();
         TableStats.computeStatistics();
 
         String queryFile = null;
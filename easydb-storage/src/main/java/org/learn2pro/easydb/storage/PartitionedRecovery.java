@@ -0,0 +1,369 @@
+package org.learn2pro.easydb.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the page work of recovery and rollback across worker threads by {@link PageId}. Every record of a page goes
+ * to the same partition, in log order, so a partition redoes or undoes its pages alone; the log itself is read and
+ * appended to by the caller only.
+ * <p>
+ * Pages are written grouped by table, in page number order, one task per table, since appending a page to a file
+ * depends on the pages before it.
+ * <p>
+ * With one partition everything runs on the calling thread, which is how {@link LogFile#rollback} uses it.
+ */
+class PartitionedRecovery implements Closeable {
+
+    public static final String THREADS_PROPERTY = "easydb.log.recoveryThreads";
+    /**
+     * records handed to a redo worker at a time, and batches queued per worker at most
+     */
+    static final int BATCH_RECORDS = 64;
+    static final int QUEUE_BATCHES = 16;
+    /**
+     * the chunk size of the readers of undo, which read the log backwards a record at a time
+     */
+    static final int UNDO_CHUNK_BYTES = 64 * 1024;
+
+    private final int partitions;
+    /**
+     * null if everything runs on the calling thread
+     */
+    private final ExecutorService workers;
+
+    PartitionedRecovery(int partitions) {
+        this.partitions = Math.max(1, partitions);
+        if (this.partitions == 1) {
+            workers = null;
+        } else {
+            AtomicInteger count = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(this.partitions, r -> {
+                Thread t = new Thread(r, "easydb-recovery-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * @return workers for a restart, {@value #THREADS_PROPERTY} of them, one per processor by default
+     */
+    static PartitionedRecovery forRecovery() {
+        return new PartitionedRecovery(
+                Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    int partitions() {
+        return partitions;
+    }
+
+    private int partitionOf(PageId pid) {
+        return Math.floorMod(pid.hashCode(), partitions);
+    }
+
+    /**
+     * @return a page as its file has it
+     */
+    static Page readPage(PageId pid) {
+        return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    }
+
+    /**
+     * Run the tasks in parallel, unless there is only one partition, and wait for all of them.
+     */
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (workers == null) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            return results;
+        }
+        List<Future<T>> futures;
+        try {
+            futures = workers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("recovery interrupted");
+        }
+        for (Future<T> future : futures) {
+            results.add(get(future));
+        }
+        return results;
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("recovery interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Write the pages to their files and drop them from the buffer pool.
+     *
+     * @return the number of pages written
+     */
+    int writePages(Collection<Page> pages) throws IOException {
+        Map<Integer, List<Page>> tables = new HashMap<>();
+        for (Page page : pages) {
+            tables.computeIfAbsent(page.getId().getTableId(), t -> new ArrayList<>()).add(page);
+        }
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (List<Page> table : tables.values()) {
+            table.sort(Comparator.comparingInt(page -> page.getId().getPageNumber()));
+            tasks.add(() -> {
+                DbFile file = Database.getCatalog().getDatabaseFile(table.get(0).getId().getTableId());
+                for (Page page : table) {
+                    file.writePage(page);
+                    Database.getBufferPool().discardPage(page.getId());
+                }
+                return table.size();
+            });
+        }
+        int written = 0;
+        for (int count : runAll(tasks)) {
+            written += count;
+        }
+        return written;
+    }
+
+    /**
+     * @return a redo of the records handed to it, which are applied while the caller reads on
+     */
+    Redo redo() {
+        return new Redo();
+    }
+
+    /**
+     * Repeats history: every page gets the image of the last UPDATE or CLR record of it, with the DELTA records after
+     * that applied.
+     */
+    class Redo {
+
+        private final List<Map<PageId, Page>> pages = new ArrayList<>();
+        private final List<List<LogRecord>> batches = new ArrayList<>();
+        private final List<BlockingQueue<List<LogRecord>>> queues = new ArrayList<>();
+        private final List<Future<Void>> running = new ArrayList<>();
+
+        private Redo() {
+            for (int i = 0; i < partitions; i++) {
+                Map<PageId, Page> partition = new HashMap<>();
+                pages.add(partition);
+                if (workers != null) {
+                    BlockingQueue<List<LogRecord>> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+                    queues.add(queue);
+                    batches.add(new ArrayList<>(BATCH_RECORDS));
+                    running.add(workers.submit(() -> applyAll(queue, partition)));
+                }
+            }
+        }
+
+        /**
+         * Hand a record that changed a page to its partition.
+         */
+        void add(LogRecord record) throws IOException {
+            int partition = partitionOf(record.getPageId());
+            if (workers == null) {
+                apply(pages.get(partition), record);
+                return;
+            }
+            List<LogRecord> batch = batches.get(partition);
+            batch.add(record);
+            if (batch.size() == BATCH_RECORDS) {
+                put(partition, batch);
+                batches.set(partition, new ArrayList<>(BATCH_RECORDS));
+            }
+        }
+
+        private void put(int partition, List<LogRecord> batch) throws IOException {
+            try {
+                queues.get(partition).put(batch);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("recovery interrupted");
+            }
+        }
+
+        /**
+         * Called by a worker; takes batches until an empty one. A failed worker keeps taking them, so the reader
+         * never blocks on it.
+         */
+        private Void applyAll(BlockingQueue<List<LogRecord>> queue, Map<PageId, Page> partition)
+                throws InterruptedException {
+            RuntimeException failure = null;
+            for (; ; ) {
+                List<LogRecord> batch = queue.take();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                if (failure != null) {
+                    continue;
+                }
+                try {
+                    for (LogRecord record : batch) {
+                        apply(partition, record);
+                    }
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+
+        private void apply(Map<PageId, Page> partition, LogRecord record) {
+            Page page;
+            if (record instanceof DeltaRecord) {
+                DeltaRecord delta = (DeltaRecord) record;
+                // a full image of the page came first, unless the log lost it
+                page = delta.redo(partition.computeIfAbsent(delta.getPageId(), PartitionedRecovery::readPage));
+            } else if (record instanceof UpdateRecord) {
+                page = ((UpdateRecord) record).getAfter();
+            } else {
+                page = ((ClrRecord) record).getImage();
+            }
+            partition.put(page.getId(), page);
+        }
+
+        /**
+         * Wait until every record handed over is applied.
+         *
+         * @return the redone pages
+         */
+        List<Page> finish() throws IOException {
+            for (int i = 0; i < queues.size(); i++) {
+                if (!batches.get(i).isEmpty()) {
+                    put(i, batches.get(i));
+                }
+                put(i, new ArrayList<>());
+            }
+            for (Future<Void> future : running) {
+                get(future);
+            }
+            List<Page> redone = new ArrayList<>();
+            for (Map<PageId, Page> partition : pages) {
+                redone.addAll(partition.values());
+            }
+            return redone;
+        }
+    }
+
+    /**
+     * An UPDATE or DELTA record undone, and the page as it is after undoing it
+     */
+    static final class Undone {
+
+        final long lsn;
+        final long tid;
+        final Page image;
+
+        Undone(long lsn, long tid, Page image) {
+            this.lsn = lsn;
+            this.tid = tid;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Undo records of the losers, newest first per page. Each partition reads its records again from the log, so only
+     * their LSNs are kept meanwhile.
+     *
+     * @param updates the LSNs of the UPDATE and DELTA records of the losers by the page they changed, in log order
+     * @param compensated the LSNs undone by a CLR already
+     * @param log the log, read up to the LSN end
+     * @return every record undone, newest first
+     */
+    List<Undone> undo(Map<PageId, List<Long>> updates, Set<Long> compensated, LogSegments log, long end)
+            throws IOException {
+        List<Map<PageId, List<Long>>> split = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            split.add(new HashMap<>());
+        }
+        for (Map.Entry<PageId, List<Long>> page : updates.entrySet()) {
+            split.get(partitionOf(page.getKey())).put(page.getKey(), page.getValue());
+        }
+        List<Callable<List<Undone>>> tasks = new ArrayList<>();
+        for (Map<PageId, List<Long>> partition : split) {
+            if (partition.isEmpty()) {
+                continue;
+            }
+            tasks.add(() -> {
+                // newest first across the pages of the partition, so each reader mostly moves one way
+                TreeMap<Long, PageId> order = new TreeMap<>(Comparator.reverseOrder());
+                for (Map.Entry<PageId, List<Long>> page : partition.entrySet()) {
+                    for (long lsn : page.getValue()) {
+                        if (!compensated.contains(lsn)) {
+                            order.put(lsn, page.getKey());
+                        }
+                    }
+                }
+                List<Undone> undone = new ArrayList<>(order.size());
+                // the pages as undone so far; a delta is undone on the page as the file has it, as logged last
+                Map<PageId, Page> pages = new HashMap<>();
+                LogReader reader = new LogReader(log, log.getFirstLsn(), end, UNDO_CHUNK_BYTES);
+                for (long lsn : order.keySet()) {
+                    reader.seek(lsn);
+                    LogRecord update = LogRecord.readNext(reader.input());
+                    Page before;
+                    if (update instanceof DeltaRecord) {
+                        DeltaRecord delta = (DeltaRecord) update;
+                        before = delta.undo(pages.computeIfAbsent(delta.getPageId(), PartitionedRecovery::readPage));
+                    } else {
+                        before = ((UpdateRecord) update).getBefore();
+                    }
+                    pages.put(before.getId(), before);
+                    undone.add(new Undone(lsn, update.getTid(), before));
+                }
+                return undone;
+            });
+        }
+        List<Undone> undone = new ArrayList<>();
+        for (List<Undone> partition : runAll(tasks)) {
+            undone.addAll(partition);
+        }
+        undone.sort(Comparator.comparingLong((Undone u) -> u.lsn).reversed());
+        return undone;
+    }
+
+    @Override
+    public void close() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+}
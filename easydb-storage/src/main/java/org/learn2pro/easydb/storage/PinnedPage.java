@@ -0,0 +1,128 @@
+package org.learn2pro.easydb.storage;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * PinnedPage is a page a thread is using right now. While it is pinned the BufferPool never evicts it, and its latch
+ * lets threads read or change its contents without seeing each other half way. Pins and latches are short-term and
+ * separate from transaction locks: a transaction keeps its page locks until it completes, but pins its pages only
+ * while an operator works on them.
+ * <p>
+ * Latches are never held while waiting for a page lock. A read-only traversal from one page to the next couples its
+ * latches: it gets (and locks) the next page first, then holds the latch of the current page while it checks the link
+ * and latches the next page, see {@link BufferPool#couple}.
+ * <p>
+ * Pages that are not in the pool, e.g. read into a scan's {@link BufferRing}, are private to the scan; they get a
+ * handle without latch and pinning them does nothing.
+ * <p>
+ * A pinned page belongs to the thread that pinned it. {@link #close()} drops the latch and the pin; whatever the
+ * transaction still pins when it completes is unpinned by the pool.
+ */
+public class PinnedPage implements AutoCloseable {
+
+    private enum Mode {NONE, SHARED, EXCLUSIVE}
+
+    private final BufferPool pool;
+    private final TransactionId tid;
+    private final Page page;
+    /**
+     * null if the page is private to the caller
+     */
+    private final PageTable.Latch latch;
+    private Mode mode = Mode.NONE;
+    private final AtomicBoolean pinned = new AtomicBoolean(true);
+
+    PinnedPage(BufferPool pool, TransactionId tid, Page page, PageTable.Latch latch) {
+        this.pool = pool;
+        this.tid = tid;
+        this.page = page;
+        this.latch = latch;
+    }
+
+    public Page getPage() {
+        return page;
+    }
+
+    public PageId getId() {
+        return page.getId();
+    }
+
+    TransactionId getTransactionId() {
+        return tid;
+    }
+
+    PageTable.Latch getLatch() {
+        return latch;
+    }
+
+    /**
+     * @return true if the page is pinned in the pool, false if it is private to the caller
+     */
+    public boolean isShared() {
+        return latch != null;
+    }
+
+    /**
+     * Latch the page for reading; other readers may hold the latch too.
+     */
+    public void latchShared() {
+        if (mode != Mode.NONE) {
+            throw new IllegalStateException("page " + page.getId().getPageNumber() + " is latched already");
+        }
+        if (latch != null) {
+            latch.rw.readLock().lock();
+        }
+        mode = Mode.SHARED;
+    }
+
+    /**
+     * Latch the page for changing it; waits until no other thread holds the latch.
+     */
+    public void latchExclusive() {
+        if (mode != Mode.NONE) {
+            throw new IllegalStateException("page " + page.getId().getPageNumber() + " is latched already");
+        }
+        if (latch != null) {
+            latch.rw.writeLock().lock();
+        }
+        mode = Mode.EXCLUSIVE;
+    }
+
+    public void unlatch() {
+        if (latch != null) {
+            if (mode == Mode.SHARED) {
+                latch.rw.readLock().unlock();
+            } else if (mode == Mode.EXCLUSIVE) {
+                latch.rw.writeLock().unlock();
+            }
+        }
+        mode = Mode.NONE;
+    }
+
+    /**
+     * @return true if the calling thread holds the latch of this page in any mode
+     */
+    public boolean isLatched() {
+        return mode != Mode.NONE;
+    }
+
+    /**
+     * Drop the latch, if held, and the pin.
+     */
+    @Override
+    public void close() {
+        unlatch();
+        if (pinned.compareAndSet(true, false)) {
+            pool.unpinPage(this);
+        }
+    }
+
+    /**
+     * Take over the pin from its owner, when the transaction completes.
+     *
+     * @return false if the owner has dropped it already
+     */
+    boolean release() {
+        return pinned.compareAndSet(true, false);
+    }
+}
@@ -0,0 +1,242 @@
+package org.learn2pro.easydb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.learn2pro.easydb.storage.btree.BTreePageId;
+
+/**
+ * PoolSnapshot lets the BufferPool come back warm after a restart. The pool writes the ids of its resident pages to a
+ * small file when it is closed and on every checkpoint; after the next start, {@link #warmUp()} reads the pages back
+ * into the pool on background threads while queries are already running.
+ * <p>
+ * The pages are loaded sorted by table and page number, that is by offset in their files, and split into contiguous
+ * runs, one per thread ({@value #DEFAULT_THREADS}, system property {@value #THREADS_PROPERTY}), so every thread reads
+ * its files front to back. Warm-up only fills free slots: it never evicts a page, and pages of tables no longer in the
+ * catalog are skipped. A page a query asks for while it is being loaded is read once and shared.
+ * <p>
+ * The snapshot file is set with the system property {@value #FILE_PROPERTY}; without it nothing is saved or loaded.
+ * The file is replaced atomically, a crash while saving leaves the previous snapshot.
+ *
+ * @Threadsafe
+ */
+public class PoolSnapshot {
+
+    public static final String FILE_PROPERTY = "easydb.buffer.snapshotFile";
+    public static final int DEFAULT_THREADS = 2;
+    public static final String THREADS_PROPERTY = "easydb.buffer.warmUpThreads";
+
+    private static final int MAGIC = 0x45425053;
+    private static final int VERSION = 1;
+    private static final byte HEAP_PAGE = 0;
+    private static final byte BTREE_PAGE = 1;
+
+    private final BufferPool pool;
+    private final File file;
+    private final int threads;
+
+    private final LongAdder saved = new LongAdder();
+    private final LongAdder warmed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    // protected by this
+    private CountDownLatch running;
+    private volatile boolean closed = false;
+
+    public PoolSnapshot(BufferPool pool) {
+        this(pool, System.getProperty(FILE_PROPERTY) == null ? null : new File(System.getProperty(FILE_PROPERTY)),
+                Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+    }
+
+    /**
+     * @param file the snapshot file, null to keep no snapshot
+     * @param threads the number of threads warming up the pool
+     */
+    public PoolSnapshot(BufferPool pool, File file, int threads) {
+        this.pool = pool;
+        this.file = file;
+        this.threads = Math.max(1, threads);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Write the ids of the resident pages to the snapshot file.
+     */
+    public void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        List<PageId> pids = pool.residentPageIds();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                if (pid instanceof BTreePageId) {
+                    out.writeByte(BTREE_PAGE);
+                    out.writeInt(pid.getTableId());
+                    out.writeInt(pid.getPageNumber());
+                    out.writeInt(((BTreePageId) pid).pgcateg());
+                } else {
+                    out.writeByte(HEAP_PAGE);
+                    out.writeInt(pid.getTableId());
+                    out.writeInt(pid.getPageNumber());
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        saved.add(pids.size());
+        Debug.log(1, "PoolSnapshot: saved %d pages to %s", pids.size(), file);
+    }
+
+    /**
+     * Read the page ids of the snapshot file.
+     *
+     * @return the page ids, empty if there is no snapshot
+     * @throws IOException if the file is not a snapshot
+     */
+    public List<PageId> read() throws IOException {
+        List<PageId> pids = new ArrayList<>();
+        if (file == null || !file.exists()) {
+            return pids;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a buffer pool snapshot: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte kind = in.readByte();
+                int tableId = in.readInt();
+                int pageNo = in.readInt();
+                if (kind == BTREE_PAGE) {
+                    pids.add(new BTreePageId(tableId, pageNo, in.readInt()));
+                } else if (kind == HEAP_PAGE) {
+                    pids.add(new HeapPageId(tableId, pageNo));
+                } else {
+                    throw new IOException("unknown page kind " + kind + " in " + file);
+                }
+            }
+        }
+        return pids;
+    }
+
+    /**
+     * Start loading the pages of the snapshot into the pool in the background. Call it once the catalog is loaded, as
+     * pages of unknown tables are skipped.
+     */
+    public synchronized void warmUp() {
+        if (file == null || running != null || closed) {
+            return;
+        }
+        List<PageId> pids;
+        try {
+            pids = read();
+        } catch (IOException e) {
+            Debug.log("PoolSnapshot: ignoring %s: %s", file, e.getMessage());
+            return;
+        }
+        List<PageId> known = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            try {
+                Database.getCatalog().getDatabaseFile(pid.getTableId());
+                known.add(pid);
+            } catch (NoSuchElementException e) {
+                skipped.increment();
+            }
+        }
+        known.sort(PageCleaner.PAGE_ORDER);
+        int n = Math.max(1, Math.min(threads, known.size()));
+        running = new CountDownLatch(n);
+        int per = (known.size() + n - 1) / n;
+        for (int i = 0; i < n; i++) {
+            final List<PageId> run = known.subList(Math.min(known.size(), i * per),
+                    Math.min(known.size(), (i + 1) * per));
+            Thread t = new Thread(() -> load(run), "easydb-warm-up-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void load(List<PageId> pids) {
+        try {
+            for (PageId pid : pids) {
+                if (closed) {
+                    return;
+                }
+                try {
+                    if (pool.warmPage(pid)) {
+                        warmed.increment();
+                        continue;
+                    }
+                } catch (RuntimeException e) {
+                    // e.g. the file is shorter now; the page is just not loaded
+                    Debug.log(1, "PoolSnapshot: can't load page %d: %s", pid.getPageNumber(), e.getMessage());
+                }
+                if (!pool.hasFreeSlot()) {
+                    return;
+                }
+            }
+        } finally {
+            running.countDown();
+        }
+    }
+
+    /**
+     * Wait for a warm-up started by {@link #warmUp()} to finish.
+     *
+     * @return false if it is still running after the timeout
+     */
+    public boolean awaitWarmUp(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch latch;
+        synchronized (this) {
+            latch = running;
+        }
+        return latch == null || latch.await(timeout, unit);
+    }
+
+    /**
+     * Stop warming up; pages being loaded right now still make it into the pool.
+     */
+    void close() {
+        closed = true;
+    }
+
+    /**
+     * @return the number of page ids written by all saves
+     */
+    public long getSavedCount() {
+        return saved.sum();
+    }
+
+    /**
+     * @return the number of pages loaded into the pool by warm-up
+     */
+    public long getWarmedCount() {
+        return warmed.sum();
+    }
+
+    /**
+     * @return the number of snapshot pages skipped because their table is not in the catalog
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+}
@@ -0,0 +1,314 @@
+package org.learn2pro.easydb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * ReadAhead prefetches pages for sequential scans on a background I/O executor, so that a scan finds the next pages
+ * already in the BufferPool (or in its {@link BufferRing}) instead of reading them synchronously on the query thread.
+ * <p>
+ * Every scan gets its own {@link Stream}, which watches the pages the scan asks for. Once two consecutive requests are
+ * sequential, the stream keeps a window of pages ahead of the scan in flight:
+ * <ul>
+ * <li>heap files are sequential by page number, see {@link Stream#onPage(PageId, int)};</li>
+ * <li>B+ tree leaves are sequential along the right sibling chain, which the background task follows itself, see
+ * {@link Stream#onChainedPage(PageId, PageId, Function)}.</li>
+ * </ul>
+ * Prefetching never takes locks and never evicts a dirty page; a scan still locks every page through
+ * {@link BufferPool#getPage}. The window is configured with the system property {@value #WINDOW_PROPERTY}; 0 turns
+ * read-ahead off.
+ *
+ * @Threadsafe
+ */
+public class ReadAhead {
+
+    public static final int DEFAULT_WINDOW = 8;
+    public static final String WINDOW_PROPERTY = "easydb.buffer.readAheadPages";
+    public static final int DEFAULT_THREADS = 2;
+    public static final String THREADS_PROPERTY = "easydb.buffer.readAheadThreads";
+
+    /**
+     * the I/O executor is shared by all pools, its threads go away when idle
+     */
+    private static final ThreadPoolExecutor IO_EXECUTOR = newExecutor();
+
+    private final BufferPool pool;
+    private volatile int window;
+    /**
+     * pages brought in by read-ahead that no scan has asked for yet
+     */
+    private final Set<PageId> prefetched = ConcurrentHashMap.newKeySet();
+    /**
+     * pages some thread is reading from disk right now, by a scan or ahead of it
+     */
+    private final ConcurrentHashMap<PageId, CountDownLatch> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder used = new LongAdder();
+    private final LongAdder wasted = new LongAdder();
+
+    public ReadAhead(BufferPool pool, int window) {
+        this.pool = pool;
+        this.window = window;
+    }
+
+    private static ThreadPoolExecutor newExecutor() {
+        int threads = Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS);
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "easydb-read-ahead-" + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return the configured window in pages
+     */
+    public static int configuredWindow() {
+        return Integer.getInteger(WINDOW_PROPERTY, DEFAULT_WINDOW);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Change the window of streams created from now on, e.g. after the pool was resized.
+     */
+    void setWindow(int window) {
+        this.window = window;
+    }
+
+    /**
+     * Start watching a new scan.
+     *
+     * @param ring the ring of the scan, or null if it reads through the pool
+     * @return the stream, or null if read-ahead is off
+     */
+    public Stream newStream(BufferRing ring) {
+        if (window <= 0) {
+            return null;
+        }
+        return new Stream(ring);
+    }
+
+    /**
+     * Announce that the calling thread is about to read a page from disk, so that nobody else reads it at the same
+     * time. Every successful call must be followed by {@link #endRead(PageId)}.
+     *
+     * @return false if another thread is reading the page right now
+     */
+    boolean beginRead(PageId pid) {
+        return pending.putIfAbsent(pid, new CountDownLatch(1)) == null;
+    }
+
+    void endRead(PageId pid) {
+        CountDownLatch latch = pending.remove(pid);
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Wait until a read of the page by another thread, if there is one, is finished.
+     */
+    void awaitRead(PageId pid) {
+        CountDownLatch latch = pending.get(pid);
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A prefetched page is about to be cached.
+     */
+    void prefetched(PageId pid) {
+        issued.increment();
+        prefetched.add(pid);
+    }
+
+    /**
+     * A prefetched page could not be cached after all.
+     */
+    void cancelled(PageId pid) {
+        if (prefetched.remove(pid)) {
+            issued.decrement();
+        }
+    }
+
+    /**
+     * A scan asked for a cached page.
+     */
+    void hit(PageId pid) {
+        if (!prefetched.isEmpty() && prefetched.remove(pid)) {
+            used.increment();
+        }
+    }
+
+    /**
+     * A cached page left the pool or a ring.
+     */
+    void dropped(PageId pid) {
+        if (pid != null && !prefetched.isEmpty() && prefetched.remove(pid)) {
+            wasted.increment();
+        }
+    }
+
+    /**
+     * @return the number of pages read ahead of a scan
+     */
+    public long getPrefetchCount() {
+        return issued.sum();
+    }
+
+    /**
+     * @return the number of prefetched pages a scan asked for before they were evicted
+     */
+    public long getUsedCount() {
+        return used.sum();
+    }
+
+    /**
+     * @return the number of prefetched pages evicted before any scan asked for them
+     */
+    public long getWastedCount() {
+        return wasted.sum();
+    }
+
+    /**
+     * Read one page in the background; failures only stop read-ahead, the scan will see them itself.
+     */
+    private Page fetch(PageId pid, BufferRing ring) {
+        while (!beginRead(pid)) {
+            awaitRead(pid);
+        }
+        try {
+            return pool.prefetchPage(pid, ring);
+        } catch (RuntimeException e) {
+            Debug.log(1, "ReadAhead: prefetch of page %d failed: %s", pid.getPageNumber(), e.getMessage());
+            return null;
+        } finally {
+            endRead(pid);
+        }
+    }
+
+    /**
+     * The sequential access detector of one scan. Only the scan's own thread calls into a stream.
+     */
+    public class Stream {
+
+        private final BufferRing ring;
+        private final int streamWindow;
+
+        // page number sequences
+        private int lastPageNo = -2;
+        private int frontier = -1;
+
+        // sibling chains
+        private PageId expected;
+        private int consumed = 0;
+        private volatile int fetched = 0;
+        private volatile PageId chaseNext;
+        private final AtomicBoolean chasing = new AtomicBoolean(false);
+
+        private int run = 0;
+
+        Stream(BufferRing ring) {
+            this.ring = ring;
+            // never run further ahead than the ring can keep
+            this.streamWindow = ring == null ? window : Math.min(window, ring.capacity() / 2);
+        }
+
+        /**
+         * The scan got a page of a file that is read in page number order.
+         *
+         * @param pid the page the scan got
+         * @param numPages the number of pages of the file
+         */
+        public void onPage(PageId pid, int numPages) {
+            int no = pid.getPageNumber();
+            run = no == lastPageNo + 1 ? run + 1 : 0;
+            lastPageNo = no;
+            if (run < 1 || streamWindow <= 0 || frontier - no > streamWindow / 2) {
+                return;
+            }
+            int from = Math.max(frontier, no) + 1;
+            int to = Math.min(no + streamWindow, numPages - 1);
+            if (from > to) {
+                return;
+            }
+            frontier = to;
+            List<PageId> batch = new ArrayList<>(to - from + 1);
+            for (int i = from; i <= to; i++) {
+                batch.add(new HeapPageId(pid.getTableId(), i));
+            }
+            IO_EXECUTOR.execute(() -> {
+                for (PageId next : batch) {
+                    fetch(next, ring);
+                }
+            });
+        }
+
+        /**
+         * The scan got a page of a chain, e.g. a B+ tree leaf, and will ask for its successor next.
+         *
+         * @param pid the page the scan got
+         * @param nextPid the successor of the page, null at the end of the chain
+         * @param next reads the successor out of a prefetched page
+         */
+        public void onChainedPage(PageId pid, PageId nextPid, Function<Page, PageId> next) {
+            run = pid.equals(expected) ? run + 1 : 0;
+            expected = nextPid;
+            consumed++;
+            if (run < 1 || nextPid == null || streamWindow <= 0 || !chasing.compareAndSet(false, true)) {
+                return;
+            }
+            if (fetched - consumed > streamWindow / 2) {
+                chasing.set(false);
+                return;
+            }
+            final PageId start;
+            if (fetched <= consumed || chaseNext == null) {
+                fetched = consumed;
+                start = nextPid;
+            } else {
+                start = chaseNext;
+            }
+            final int count = consumed + streamWindow - fetched;
+            IO_EXECUTOR.execute(() -> {
+                try {
+                    PageId cur = start;
+                    for (int i = 0; i < count && cur != null; i++) {
+                        Page page = fetch(cur, ring);
+                        if (page == null) {
+                            break;
+                        }
+                        cur = next.apply(page);
+                        chaseNext = cur;
+                        fetched++;
+                    }
+                } finally {
+                    chasing.set(false);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.learn2pro.easydb.storage;
+
+/**
+ * What the last {@link LogFile#recover} did and how long each phase took.
+ * <p>
+ * Analysis and redo share one pass over the log: the pass finds the losers and hands the page records to the redo
+ * workers as it reads them, so the redo time includes the analysis time and ends once the redone pages are written.
+ */
+public class RecoveryStats {
+
+    int threads;
+    long analysisMillis;
+    long redoMillis;
+    long undoMillis;
+    long recordsRead;
+    long bytesRead;
+    int pagesRedone;
+    int recordsUndone;
+    int losers;
+
+    /**
+     * @return the number of redo and undo workers
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the time spent reading the log from the checkpoint
+     */
+    public long getAnalysisMillis() {
+        return analysisMillis;
+    }
+
+    /**
+     * @return the time from the start of analysis until the redone pages were written
+     */
+    public long getRedoMillis() {
+        return redoMillis;
+    }
+
+    /**
+     * @return the time spent undoing the losers, writing their CLR and ABORT records included
+     */
+    public long getUndoMillis() {
+        return undoMillis;
+    }
+
+    /**
+     * @return the number of records read by analysis
+     */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * @return the number of log bytes read by analysis
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of pages written by redo
+     */
+    public int getPagesRedone() {
+        return pagesRedone;
+    }
+
+    /**
+     * @return the number of records undone
+     */
+    public int getRecordsUndone() {
+        return recordsUndone;
+    }
+
+    /**
+     * @return the number of transactions rolled back
+     */
+    public int getLosers() {
+        return losers;
+    }
+
+    @Override
+    public String toString() {
+        return "RecoveryStats{" +
+                "threads=" + threads +
+                ", analysisMillis=" + analysisMillis +
+                ", redoMillis=" + redoMillis +
+                ", undoMillis=" + undoMillis +
+                ", recordsRead=" + recordsRead +
+                ", bytesRead=" + bytesRead +
+                ", pagesRedone=" + pagesRedone +
+                ", recordsUndone=" + recordsUndone +
+                ", losers=" + losers +
+                '}';
+    }
+}
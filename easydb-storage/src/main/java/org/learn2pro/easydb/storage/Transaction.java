@@ -4,15 +4,58 @@ import java.io.IOException;
 
 /**
  * Transaction encapsulates information about the state of a transaction and manages transaction commit / abort.
+ * <p>
+ * A read-only transaction reads a snapshot of the database as of its start, see {@link BufferPool#beginSnapshot}: it
+ * takes no locks, writes no log records and can't change anything. An optimistic transaction takes no locks while it
+ * runs either and is validated when it commits, see {@link BufferPool#beginOptimistic}.
+ * <p>
+ * A transaction may commit asynchronously, see {@link #setAsyncCommit}: it releases its locks without waiting for the
+ * log to be forced, and a crash may lose it.
+ * <p>
+ * A locking transaction that only reads costs the log nothing: its BEGIN record is written with its first update, see
+ * {@link LogFile#logWrite}, so one that never updates writes neither BEGIN nor COMMIT record, doesn't force the log,
+ * and its locks are dropped in one go.
  */
 
 public class Transaction {
 
+    /**
+     * How a transaction keeps out of the way of the others.
+     */
+    public enum Mode {
+        /**
+         * strict two-phase locking
+         */
+        LOCKING,
+        /**
+         * read a snapshot, write nothing
+         */
+        READ_ONLY,
+        /**
+         * no locks, validate at commit
+         */
+        OPTIMISTIC
+    }
+
     private final TransactionId tid;
+    private final Mode mode;
+    private volatile boolean asyncCommit = false;
     volatile boolean started = false;
 
     public Transaction() {
+        this(Mode.LOCKING);
+    }
+
+    /**
+     * @param readOnly true to run on a snapshot
+     */
+    public Transaction(boolean readOnly) {
+        this(readOnly ? Mode.READ_ONLY : Mode.LOCKING);
+    }
+
+    public Transaction(Mode mode) {
         tid = new TransactionId();
+        this.mode = mode;
     }
 
     /**
@@ -20,17 +63,40 @@ public class Transaction {
      */
     public void start() {
         started = true;
-        try {
-            Database.getLogFile().logXactionBegin(tid);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (mode == Mode.READ_ONLY) {
+            Database.getBufferPool().beginSnapshot(tid);
+            return;
+        }
+        if (mode == Mode.OPTIMISTIC) {
+            Database.getBufferPool().beginOptimistic(tid);
         }
+        // the BEGIN record waits for the first update, a reader never writes one
     }
 
     public TransactionId getId() {
         return tid;
     }
 
+    public boolean isReadOnly() {
+        return mode == Mode.READ_ONLY;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param asyncCommit true to commit without waiting for the COMMIT record to be durable; the {@link LogFlusher}
+     * forces it within a bounded interval
+     */
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
+    }
+
+    public boolean isAsyncCommit() {
+        return asyncCommit;
+    }
+
     /**
      * Finish the transaction
      */
@@ -50,14 +116,24 @@ public class Transaction {
      */
     public void transactionComplete(boolean abort) throws IOException,TransactionAbortedException {
 
-        if (started) {
+        if (started && mode == Mode.READ_ONLY) {
+            // nothing to log or write, just end the snapshot
+            Database.getBufferPool().transactionComplete(tid, !abort);
+            started = false;
+        } else if (started) {
             //write commit / abort records
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
                 //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
-                Database.getLogFile().logCommit(tid);
+                if (mode == Mode.OPTIMISTIC) {
+                    // throws if validation fails, the caller aborts then
+                    Database.getBufferPool().commitOptimistic(tid);
+                } else if (Database.getBufferPool().mayHaveWritten(tid)) {
+                    Database.getBufferPool().flushPages(tid);
+                }
+                // logs nothing for a transaction that logged nothing
+                Database.getLogFile().logCommit(tid, asyncCommit);
             }
 
             Database.getBufferPool().transactionComplete(tid, !abort); // release locks
@@ -0,0 +1,98 @@
+package org.learn2pro.easydb.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * WaitsForGraph has an edge from every blocked transaction to each transaction it waits for. The lock table builds it
+ * from its wait queues whenever it looks for deadlocks.
+ *
+ * @NotThreadsafe
+ */
+class WaitsForGraph {
+
+    private final Map<TransactionId, Set<TransactionId>> edges = new HashMap<>();
+
+    void addEdge(TransactionId waiter, TransactionId holder) {
+        if (!waiter.equals(holder)) {
+            edges.computeIfAbsent(waiter, t -> new LinkedHashSet<>()).add(holder);
+        }
+    }
+
+    /**
+     * Drop a transaction and all edges to and from it.
+     */
+    void remove(TransactionId tid) {
+        edges.remove(tid);
+        for (Set<TransactionId> holders : edges.values()) {
+            holders.remove(tid);
+        }
+    }
+
+    Set<TransactionId> waitsFor(TransactionId tid) {
+        Set<TransactionId> holders = edges.get(tid);
+        return holders == null ? Collections.emptySet() : holders;
+    }
+
+    /**
+     * @return the transactions of some cycle, empty if there is none
+     */
+    List<TransactionId> findCycle() {
+        Set<TransactionId> done = new HashSet<>();
+        for (TransactionId start : edges.keySet()) {
+            if (!done.contains(start)) {
+                List<TransactionId> cycle = findCycle(start, new LinkedHashSet<>(), done);
+                if (!cycle.isEmpty()) {
+                    return cycle;
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private List<TransactionId> findCycle(TransactionId tid, LinkedHashSet<TransactionId> path,
+            Set<TransactionId> done) {
+        path.add(tid);
+        for (TransactionId next : waitsFor(tid)) {
+            if (path.contains(next)) {
+                List<TransactionId> cycle = new ArrayList<>();
+                boolean in = false;
+                for (TransactionId t : path) {
+                    in |= t.equals(next);
+                    if (in) {
+                        cycle.add(t);
+                    }
+                }
+                return cycle;
+            }
+            if (!done.contains(next)) {
+                List<TransactionId> cycle = findCycle(next, path, done);
+                if (!cycle.isEmpty()) {
+                    return cycle;
+                }
+            }
+        }
+        path.remove(tid);
+        done.add(tid);
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the youngest transaction of the cycle, the one started last
+     */
+    static TransactionId youngest(List<TransactionId> cycle) {
+        TransactionId youngest = null;
+        for (TransactionId tid : cycle) {
+            if (youngest == null || tid.getId() > youngest.getId()) {
+                youngest = tid;
+            }
+        }
+        return youngest;
+    }
+}
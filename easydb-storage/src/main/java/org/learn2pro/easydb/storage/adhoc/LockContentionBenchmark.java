@@ -0,0 +1,94 @@
+package org.learn2pro.easydb.storage.adhoc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.PageLock;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.TransactionAbortedException;
+import org.learn2pro.easydb.storage.TransactionId;
+
+/**
+ * Compares the deadlock policies of {@link PageLock} under contention. Worker threads run short transactions on a
+ * small set of hot pages: each reads a few random pages and upgrades some of them to write locks, like concurrent
+ * inserts into the same B+ tree leaves do. An aborted transaction is retried as a new one.
+ * <p>
+ * Usage: LockContentionBenchmark [seconds per policy] [threads] [hot pages] [pages per transaction]
+ */
+public class LockContentionBenchmark {
+
+    private static final double WRITE_FRACTION = 0.5;
+    /**
+     * work done per page while its lock is held
+     */
+    private static final long WORK_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    public static void main(String[] argv) throws InterruptedException {
+        int seconds = argv.length > 0 ? Integer.parseInt(argv[0]) : 3;
+        int threads = argv.length > 1 ? Integer.parseInt(argv[1]) : 8;
+        int hotPages = argv.length > 2 ? Integer.parseInt(argv[2]) : 16;
+        int pagesPerTxn = argv.length > 3 ? Integer.parseInt(argv[3]) : 4;
+
+        System.out.printf("%d threads, %d hot pages, %d pages per transaction, %ds per policy%n", threads, hotPages,
+                pagesPerTxn, seconds);
+        System.out.printf("%-11s %10s %10s %10s %12s %10s%n", "policy", "commits", "aborts", "abort %", "commits/s",
+                "deadlocks");
+        for (PageLock.Policy policy : PageLock.Policy.values()) {
+            run(policy, seconds, threads, hotPages, pagesPerTxn);
+        }
+    }
+
+    private static void run(PageLock.Policy policy, int seconds, int threads, int hotPages, int pagesPerTxn)
+            throws InterruptedException {
+        PageLock locks = new PageLock(PageLock.DEFAULT_ACQUIRE_LOCK_TIMEOUT, 0, policy);
+        LongAdder commits = new LongAdder();
+        LongAdder aborts = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        transaction(locks, tid, hotPages, pagesPerTxn);
+                        commits.increment();
+                    } catch (TransactionAbortedException e) {
+                        aborts.increment();
+                    } finally {
+                        locks.releaseLockTrans(tid);
+                    }
+                }
+            }, "lock-bench-" + i);
+            workers.add(t);
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        locks.close();
+
+        long c = commits.sum();
+        long a = aborts.sum();
+        System.out.printf("%-11s %10d %10d %10.2f %12.0f %10d%n", policy, c, a, c + a == 0 ? 0 : 100.0 * a / (c + a),
+                (double) c / seconds, locks.getDeadlockCount());
+    }
+
+    private static void transaction(PageLock locks, TransactionId tid, int hotPages, int pagesPerTxn)
+            throws TransactionAbortedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < pagesPerTxn; i++) {
+            HeapPageId pid = new HeapPageId(0, random.nextInt(hotPages));
+            locks.lockPage(tid, pid, Permissions.READ_ONLY);
+            LockSupport.parkNanos(WORK_NANOS);
+            if (random.nextDouble() < WRITE_FRACTION) {
+                locks.lockPage(tid, pid, Permissions.READ_WRITE);
+                LockSupport.parkNanos(WORK_NANOS);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.learn2pro.easydb.storage.adhoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbException;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapFileEncoder;
+import org.learn2pro.easydb.storage.HeapPage;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.TransactionAbortedException;
+import org.learn2pro.easydb.storage.Tuple;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.common.IntField;
+
+/**
+ * Compares optimistic transactions with two-phase locking on a heap table. Worker threads run short transactions: each
+ * reads a few random pages and updates a row on one of them. The fewer pages the table has, the more often
+ * transactions conflict; with many pages optimistic transactions skip the lock table altogether, with few they lose
+ * their work to failed validations. An aborted transaction is retried as a new one.
+ * <p>
+ * Usage: OptimisticBenchmark [seconds per run] [threads] [pages per transaction]
+ */
+public class OptimisticBenchmark {
+
+    private static final int[] TABLE_PAGES = {4, 32, 256};
+    private static final int COLUMNS = 2;
+
+    public static void main(String[] argv) throws Exception {
+        int seconds = argv.length > 0 ? Integer.parseInt(argv[0]) : 3;
+        int threads = argv.length > 1 ? Integer.parseInt(argv[1]) : 8;
+        int pagesPerTxn = argv.length > 2 ? Integer.parseInt(argv[2]) : 4;
+
+        System.out.printf("%d threads, %d pages per transaction, %ds per run%n", threads, pagesPerTxn, seconds);
+        System.out.printf("%-11s %8s %10s %10s %10s %12s%n", "mode", "pages", "commits", "aborts", "abort %",
+                "commits/s");
+        for (int pages : TABLE_PAGES) {
+            for (Transaction.Mode mode : new Transaction.Mode[]{Transaction.Mode.LOCKING,
+                    Transaction.Mode.OPTIMISTIC}) {
+                run(mode, pages, seconds, threads, pagesPerTxn);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static HeapFile createTable(int pages) throws IOException {
+        int rows = pages * (BufferPool.getPageSize() * 8 / (COLUMNS * 4 * 8 + 1));
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            List<Integer> tuple = new ArrayList<>(COLUMNS);
+            for (int j = 0; j < COLUMNS; j++) {
+                tuple.add(i);
+            }
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("occ-bench", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), COLUMNS);
+        return Utility.openHeapFile(COLUMNS, file);
+    }
+
+    private static void run(Transaction.Mode mode, int pages, int seconds, int threads, int pagesPerTxn)
+            throws Exception {
+        Database.reset();
+        HeapFile table = createTable(pages);
+        Database.resetBufferPool(pages * 2 + BufferPool.DEFAULT_PAGES);
+        LongAdder commits = new LongAdder();
+        LongAdder aborts = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    Transaction txn = new Transaction(mode);
+                    txn.start();
+                    try {
+                        transaction(txn, table, pages, pagesPerTxn);
+                        txn.commit();
+                        commits.increment();
+                    } catch (TransactionAbortedException e) {
+                        aborts.increment();
+                        abort(txn);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        abort(txn);
+                        return;
+                    }
+                }
+            }, "occ-bench-" + i);
+            workers.add(t);
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+
+        long c = commits.sum();
+        long a = aborts.sum();
+        System.out.printf("%-11s %8d %10d %10d %10.2f %12.0f%n", mode, pages, c, a,
+                c + a == 0 ? 0 : 100.0 * a / (c + a), (double) c / seconds);
+    }
+
+    private static void abort(Transaction txn) {
+        try {
+            txn.abort();
+        } catch (IOException | TransactionAbortedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Read some pages, then update the first row of the last one
+     */
+    private static void transaction(Transaction txn, HeapFile table, int pages, int pagesPerTxn)
+            throws TransactionAbortedException, DbException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = null;
+        for (int i = 0; i < pagesPerTxn; i++) {
+            pid = new HeapPageId(table.getId(), random.nextInt(pages));
+            HeapPage page = (HeapPage) bp.getPage(txn.getId(), pid, Permissions.READ_ONLY);
+            page.iterator().forEachRemaining(t -> {
+            });
+        }
+        HeapPage page = (HeapPage) bp.getPage(txn.getId(), pid, Permissions.READ_WRITE);
+        Tuple row = page.iterator().next();
+        page.deleteTuple(row);
+        Tuple updated = new Tuple(row.getTupleDesc());
+        updated.setField(0, row.getField(0));
+        updated.setField(1, new IntField(((IntField) row.getField(1)).getValue() + 1));
+        page.insertTuple(updated);
+        page.markDirty(true, txn.getId());
+        bp.updatePage(txn.getId(), page);
+    }
+}
@@ -14,6 +14,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.function.Function;
 import org.learn2pro.easydb.storage.AbstractDbFileIterator;
 import org.learn2pro.easydb.storage.BufferPool;
 import org.learn2pro.easydb.storage.Database;
@@ -25,7 +26,9 @@ import org.learn2pro.easydb.storage.IndexPredicate;
 import org.learn2pro.easydb.storage.Page;
 import org.learn2pro.easydb.storage.PageId;
 import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.PinnedPage;
 import org.learn2pro.easydb.storage.Predicate.Op;
+import org.learn2pro.easydb.storage.ReadAhead;
 import org.learn2pro.easydb.storage.TransactionAbortedException;
 import org.learn2pro.easydb.storage.TransactionId;
 import org.learn2pro.easydb.storage.Tuple;
@@ -119,8 +122,7 @@ public class BTreeFile implements DbFile {
                             + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-                return p;
+                return decodePage(id, pageBuf);
             } else {
                 byte pageBuf[] = new byte[BufferPool.getPageSize()];
                 if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
@@ -137,16 +139,7 @@ public class BTreeFile implements DbFile {
                             + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-                    return p;
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-                    return p;
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-                    return p;
-                }
+                return decodePage(id, pageBuf);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -162,6 +155,32 @@ public class BTreeFile implements DbFile {
         }
     }
 
+    /**
+     * Build a page from its bytes, by the category of its id.
+     *
+     * @param pid - the id of the page
+     * @param data - the contents of the page, as on disk
+     * @return the page
+     */
+    @Override
+    public Page decodePage(PageId pid, byte[] data) {
+        BTreePageId id = (BTreePageId) pid;
+        try {
+            switch (id.pgcateg()) {
+                case BTreePageId.ROOT_PTR:
+                    return new BTreeRootPtrPage(id, data);
+                case BTreePageId.INTERNAL:
+                    return new BTreeInternalPage(id, data, keyField);
+                case BTreePageId.LEAF:
+                    return new BTreeLeafPage(id, data, keyField);
+                default: // id.pgcateg() == BTreePageId.HEADER
+                    return new BTreeHeaderPage(id, data);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Write a page to disk.  This should not be called directly but should be called from the BufferPool when pages are
      * flushed to disk
@@ -343,16 +362,49 @@ public class BTreeFile implements DbFile {
             HashMap<PageId, Page> dirtypages) throws DbException, TransactionAbortedException {
         // left<->old_right
         // left<->right<->old_right
+        BTreeLeafPage oldRightSibling = null;
         if (left.getRightSiblingId() != null) {
-            //1. right<-old_right
-            BTreeLeafPage oldRightSibling = (BTreeLeafPage) getPage(tid, dirtypages, left.getRightSiblingId(),
+            oldRightSibling = (BTreeLeafPage) getPage(tid, dirtypages, left.getRightSiblingId(),
                     Permissions.READ_WRITE);
-            oldRightSibling.setLeftSiblingId(right.getId());
         }
-        //2. left<->right->old_right
-        right.setRightSiblingId(left.getRightSiblingId());
-        right.setLeftSiblingId(left.getId());
-        left.setRightSiblingId(right.getId());
+        List<PinnedPage> latched = latchLeaves(tid, left, right, oldRightSibling);
+        try {
+            if (oldRightSibling != null) {
+                //1. right<-old_right
+                oldRightSibling.setLeftSiblingId(right.getId());
+            }
+            //2. left<->right->old_right
+            right.setRightSiblingId(left.getRightSiblingId());
+            right.setLeftSiblingId(left.getId());
+            left.setRightSiblingId(right.getId());
+        } finally {
+            unlatchLeaves(latched);
+        }
+    }
+
+    /**
+     * Latch leaves whose sibling links are about to change exclusively, from left to right like the scans that couple
+     * their latches along the leaves, so a scan never follows a half updated link.
+     *
+     * @param leaves the leaves from left to right, null entries are skipped
+     * @return the latched leaves, to be passed to {@link #unlatchLeaves}
+     */
+    private static List<PinnedPage> latchLeaves(TransactionId tid, BTreeLeafPage... leaves) {
+        List<PinnedPage> latched = new ArrayList<>(leaves.length);
+        for (BTreeLeafPage leaf : leaves) {
+            if (leaf != null) {
+                PinnedPage pinned = Database.getBufferPool().pin(tid, leaf);
+                pinned.latchExclusive();
+                latched.add(pinned);
+            }
+        }
+        return latched;
+    }
+
+    private static void unlatchLeaves(List<PinnedPage> latched) {
+        for (PinnedPage pinned : latched) {
+            pinned.close();
+        }
     }
 
     /**
@@ -1011,15 +1063,22 @@ public class BTreeFile implements DbFile {
 //        }
         //update sibling
         BTreePageId rightSibling = rightPage.getRightSiblingId();
+        BTreeLeafPage rightSiblingPage = null;
         if (rightSibling != null) {
             //left->right<->right_right
-            BTreeLeafPage rightSiblingPage = (BTreeLeafPage) getPage(tid, dirtypages, rightSibling,
-                    Permissions.READ_WRITE);
-            //left<-right_right
-            rightSiblingPage.setLeftSiblingId(leftPage.getId());
+            rightSiblingPage = (BTreeLeafPage) getPage(tid, dirtypages, rightSibling, Permissions.READ_WRITE);
+        }
+        List<PinnedPage> latched = latchLeaves(tid, leftPage, rightPage, rightSiblingPage);
+        try {
+            if (rightSiblingPage != null) {
+                //left<-right_right
+                rightSiblingPage.setLeftSiblingId(leftPage.getId());
+            }
             //left<->right_right
+            leftPage.setRightSiblingId(rightSibling);
+        } finally {
+            unlatchLeaves(latched);
         }
-        leftPage.setRightSiblingId(rightSibling);
         //set right empty
         setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
         //delete parent entry
@@ -1283,16 +1342,17 @@ public class BTreeFile implements DbFile {
         int emptyPageNo = getEmptyPageNo(tid, dirtypages);
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
+        // make sure the page is not in the buffer pool	or in the local cache, and that no stale copy of the page
+        // is written over the empty page later
+        Database.getBufferPool().discardPage(newPageId);
+        dirtypages.remove(newPageId);
+
         // write empty page to disk
         RandomAccessFile rf = new RandomAccessFile(f, "rw");
         rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo - 1) * BufferPool.getPageSize());
         rf.write(BTreePage.createEmptyPageData());
         rf.close();
 
-        // make sure the page is not in the buffer pool	or in the local cache
-        Database.getBufferPool().discardPage(newPageId);
-        dirtypages.remove(newPageId);
-
         return getPage(tid, dirtypages, newPageId, Permissions.READ_WRITE);
     }
 
@@ -1406,6 +1466,39 @@ public class BTreeFile implements DbFile {
         return new BTreeFileIterator(this, tid);
     }
 
+    /**
+     * reads the right sibling link of a leaf
+     */
+    static final Function<Page, PageId> RIGHT_SIBLING =
+            p -> p instanceof BTreeLeafPage ? ((BTreeLeafPage) p).getRightSiblingId() : null;
+
+    /**
+     * Tell the read-ahead stream of a scan that it reached a leaf, so the leaves to its right can be read in the
+     * background while the scan works through this one.
+     *
+     * @param stream the stream of the scan, null if read-ahead is off
+     * @param leaf the leaf the scan just got
+     */
+    static void readAhead(ReadAhead.Stream stream, BTreeLeafPage leaf) {
+        if (stream != null) {
+            stream.onChainedPage(leaf.getId(), leaf.getRightSiblingId(), RIGHT_SIBLING);
+        }
+    }
+
+    /**
+     * Move a scan from a pinned leaf to its right sibling, coupling the latches of the two leaves.
+     *
+     * @param leaf the current leaf, unpinned when this returns
+     * @return the right sibling, pinned; or null at the end of the chain
+     */
+    static PinnedPage nextLeaf(PinnedPage leaf) throws DbException, TransactionAbortedException {
+        PinnedPage next = Database.getBufferPool().couple(leaf, RIGHT_SIBLING.apply(leaf.getPage()), RIGHT_SIBLING);
+        if (next != null) {
+            next.unlatch();
+        }
+        return next;
+    }
+
 }
 
 /**
@@ -1415,6 +1508,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    /**
+     * the pin on curp
+     */
+    PinnedPage pinned = null;
+    ReadAhead.Stream readAhead = null;
 
     TransactionId tid;
     BTreeFile f;
@@ -1437,7 +1535,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
                 tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
         BTreePageId root = rootPtr.getRootId();
+        readAhead = Database.getBufferPool().getReadAhead().newStream(null);
         curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+        pinned = Database.getBufferPool().pin(tid, curp);
+        BTreeFile.readAhead(readAhead, curp);
         it = curp.iterator();
     }
 
@@ -1454,12 +1555,12 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         }
 
         while (it == null && curp != null) {
-            BTreePageId nextp = curp.getRightSiblingId();
-            if (nextp == null) {
+            pinned = BTreeFile.nextLeaf(pinned);
+            if (pinned == null) {
                 curp = null;
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                curp = (BTreeLeafPage) pinned.getPage();
+                BTreeFile.readAhead(readAhead, curp);
                 it = curp.iterator();
                 if (!it.hasNext()) {
                     it = null;
@@ -1486,8 +1587,13 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      */
     public void close() {
         super.close();
+        if (pinned != null) {
+            pinned.close();
+            pinned = null;
+        }
         it = null;
         curp = null;
+        readAhead = null;
     }
 }
 
@@ -1498,6 +1604,11 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    /**
+     * the pin on curp
+     */
+    PinnedPage pinned = null;
+    ReadAhead.Stream readAhead = null;
 
     TransactionId tid;
     BTreeFile f;
@@ -1523,12 +1634,18 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
         BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
                 tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
         BTreePageId root = rootPtr.getRootId();
+        if (ipred.getOp() != Op.EQUALS && ipred.getOp() != Op.LESS_THAN && ipred.getOp() != Op.LESS_THAN_OR_EQ) {
+            // scans with an upper bound stop somewhere along the leaves, read-ahead would only read past the end
+            readAhead = Database.getBufferPool().getReadAhead().newStream(null);
+        }
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
                 || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
             curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
         } else {
             curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
         }
+        pinned = Database.getBufferPool().pin(tid, curp);
+        BTreeFile.readAhead(readAhead, curp);
         it = curp.iterator();
     }
 
@@ -1559,13 +1676,13 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
                 }
             }
 
-            BTreePageId nextp = curp.getRightSiblingId();
+            pinned = BTreeFile.nextLeaf(pinned);
             // if there are no more pages to the right, end the iteration
-            if (nextp == null) {
+            if (pinned == null) {
                 return null;
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                curp = (BTreeLeafPage) pinned.getPage();
+                BTreeFile.readAhead(readAhead, curp);
                 it = curp.iterator();
             }
         }
@@ -1586,6 +1703,11 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
      */
     public void close() {
         super.close();
+        if (pinned != null) {
+            pinned.close();
+            pinned = null;
+        }
         it = null;
+        readAhead = null;
     }
 }
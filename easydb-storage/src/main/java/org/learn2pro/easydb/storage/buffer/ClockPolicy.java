@@ -0,0 +1,100 @@
+package org.learn2pro.easydb.storage.buffer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance). Keys sit in a ring of frames with a reference bit; a hit only sets the bit. The hand clears
+ * set bits as it sweeps and stops at the first unreferenced evictable key, so a victim costs O(1) on average and at
+ * most two turns of the ring. Pinned keys give up their frame and come back referenced when they are unpinned.
+ */
+public class ClockPolicy<K> implements ReplacementPolicy<K> {
+
+    private final ArrayList<K> frames = new ArrayList<>();
+    private final ArrayList<Boolean> referenced = new ArrayList<>();
+    private final HashMap<K, Integer> index = new HashMap<>();
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    private final HashSet<K> pinned = new HashSet<>();
+    private int hand = 0;
+
+    @Override
+    public void onInsert(K key) {
+        if (index.containsKey(key) || pinned.contains(key)) {
+            onAccess(key);
+            return;
+        }
+        Integer slot = free.poll();
+        if (slot == null) {
+            slot = frames.size();
+            frames.add(key);
+            referenced.add(Boolean.FALSE);
+        } else {
+            frames.set(slot, key);
+            referenced.set(slot, Boolean.FALSE);
+        }
+        index.put(key, slot);
+    }
+
+    @Override
+    public void onAccess(K key) {
+        Integer slot = index.get(key);
+        if (slot != null) {
+            referenced.set(slot, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void onRemove(K key) {
+        Integer slot = index.remove(key);
+        if (slot != null) {
+            frames.set(slot, null);
+            referenced.set(slot, Boolean.FALSE);
+            free.push(slot);
+        } else {
+            pinned.remove(key);
+        }
+    }
+
+    @Override
+    public void setEvictable(K key, boolean evictable) {
+        if (evictable) {
+            if (pinned.remove(key)) {
+                onInsert(key);
+                onAccess(key);
+            }
+        } else if (index.containsKey(key)) {
+            onRemove(key);
+            pinned.add(key);
+        }
+    }
+
+    @Override
+    public K victim(Predicate<K> evictable) {
+        int n = frames.size();
+        for (int step = 0; step < 2 * n; step++) {
+            int slot = hand;
+            hand = (hand + 1) % n;
+            K key = frames.get(slot);
+            if (key == null) {
+                continue;
+            }
+            if (referenced.get(slot)) {
+                referenced.set(slot, Boolean.FALSE);
+                continue;
+            }
+            if (evictable.test(key)) {
+                onRemove(key);
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return index.size() + pinned.size();
+    }
+}
@@ -0,0 +1,144 @@
+package org.learn2pro.easydb.storage.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FrameArena keeps fixed-size frames of bytes outside the Java heap, in direct ByteBuffer slabs. Slabs are allocated
+ * on demand, one at a time, until the arena reaches its budget; freed frames are reused before a new slab is taken.
+ * The only per-frame state on the heap is the length of the bytes stored in the frame.
+ * <p>
+ * Direct memory is given back when the arena becomes unreachable, not when frames are freed. Run the JVM with a big
+ * enough -XX:MaxDirectMemorySize for the budget.
+ * <p>
+ * The arena is not thread safe; the owner calls it under its own lock.
+ */
+public class FrameArena {
+
+    public static final int DEFAULT_SLAB_BYTES = 16 << 20;
+
+    private final int frameSize;
+    private final int framesPerSlab;
+    private final int maxFrames;
+    private final ByteBuffer[] slabs;
+    private int[] lengths = new int[0];
+    /**
+     * frames freed and not reused yet, as a stack
+     */
+    private int[] free = new int[16];
+    private int freeCount = 0;
+    /**
+     * frames below this number were handed out at least once
+     */
+    private int highWater = 0;
+    private int used = 0;
+
+    public FrameArena(int frameSize, long budgetBytes) {
+        this(frameSize, budgetBytes, DEFAULT_SLAB_BYTES);
+    }
+
+    public FrameArena(int frameSize, long budgetBytes, int slabBytes) {
+        if (frameSize <= 0) {
+            throw new IllegalArgumentException("frame size must be positive");
+        }
+        this.frameSize = frameSize;
+        this.maxFrames = (int) Math.min(Integer.MAX_VALUE, Math.max(0, budgetBytes) / frameSize);
+        this.framesPerSlab = Math.max(1, Math.min(maxFrames, slabBytes / frameSize));
+        this.slabs = new ByteBuffer[(maxFrames + framesPerSlab - 1) / framesPerSlab];
+    }
+
+    public int frameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return the number of frames the budget allows
+     */
+    public int capacity() {
+        return maxFrames;
+    }
+
+    /**
+     * @return the number of frames in use
+     */
+    public int size() {
+        return used;
+    }
+
+    /**
+     * @return the number of bytes of direct memory taken by the slabs
+     */
+    public long allocatedBytes() {
+        long bytes = 0;
+        for (ByteBuffer slab : slabs) {
+            if (slab != null) {
+                bytes += slab.capacity();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Take a free frame.
+     *
+     * @return the frame, or -1 if the arena is full
+     */
+    public int allocate() {
+        int frame;
+        if (freeCount > 0) {
+            frame = free[--freeCount];
+        } else if (highWater < maxFrames) {
+            frame = highWater++;
+            int slab = frame / framesPerSlab;
+            if (slabs[slab] == null) {
+                int frames = Math.min(framesPerSlab, maxFrames - slab * framesPerSlab);
+                slabs[slab] = ByteBuffer.allocateDirect(frames * frameSize);
+            }
+            if (frame >= lengths.length) {
+                lengths = Arrays.copyOf(lengths, Math.min(maxFrames, Math.max(16, lengths.length * 2)));
+            }
+        } else {
+            return -1;
+        }
+        used++;
+        lengths[frame] = 0;
+        return frame;
+    }
+
+    /**
+     * Give back a frame taken by {@link #allocate()}.
+     */
+    public void free(int frame) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = frame;
+        used--;
+    }
+
+    /**
+     * Copy bytes into a frame.
+     *
+     * @throws IllegalArgumentException if the bytes don't fit into a frame
+     */
+    public void write(int frame, byte[] data) {
+        if (data.length > frameSize) {
+            throw new IllegalArgumentException("can't put " + data.length + " bytes into a frame of " + frameSize);
+        }
+        ByteBuffer buf = slabs[frame / framesPerSlab].duplicate();
+        buf.position((frame % framesPerSlab) * frameSize);
+        buf.put(data);
+        lengths[frame] = data.length;
+    }
+
+    /**
+     * @return a copy of the bytes last written into the frame
+     */
+    public byte[] read(int frame) {
+        byte[] data = new byte[lengths[frame]];
+        ByteBuffer buf = slabs[frame / framesPerSlab].duplicate();
+        buf.position((frame % framesPerSlab) * frameSize);
+        buf.get(data);
+        return data;
+    }
+}
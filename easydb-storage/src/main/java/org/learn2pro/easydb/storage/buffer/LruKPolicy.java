@@ -0,0 +1,152 @@
+package org.learn2pro.easydb.storage.buffer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K (O'Neil, O'Neil and Weikum). The victim is the key whose K-th most recent reference is the oldest. Keys with
+ * fewer than K references have an infinite backward distance and go first, oldest first reference first. Those keys
+ * are kept in a FIFO, so scans are evicted in O(1); keys with K references are ordered by a tree, O(log n).
+ * <p>
+ * The reference history is dropped when a key leaves the pool. Pinned keys keep collecting references but are taken
+ * out of both orders until they are unpinned.
+ */
+public class LruKPolicy<K> implements ReplacementPolicy<K> {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    /**
+     * logical clock, one tick per reference
+     */
+    private long clock = 0;
+    /**
+     * the last K reference times of every resident key, most recent last
+     */
+    private final HashMap<K, long[]> history = new HashMap<>();
+    /**
+     * keys with fewer than K references, in first reference order
+     */
+    private final LinkedHashSet<K> young = new LinkedHashSet<>();
+    /**
+     * keys with K references, by their K-th most recent reference time
+     */
+    private final TreeMap<Long, K> old = new TreeMap<>();
+    private final HashSet<K> pinned = new HashSet<>();
+
+    public LruKPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive:" + k);
+        }
+        this.k = k;
+    }
+
+    @Override
+    public void onInsert(K key) {
+        if (history.containsKey(key)) {
+            onAccess(key);
+            return;
+        }
+        long[] times = new long[k];
+        times[k - 1] = ++clock;
+        history.put(key, times);
+        if (k == 1) {
+            old.put(times[0], key);
+        } else {
+            young.add(key);
+        }
+    }
+
+    @Override
+    public void onAccess(K key) {
+        long[] times = history.get(key);
+        if (times == null) {
+            return;
+        }
+        if (pinned.contains(key)) {
+            System.arraycopy(times, 1, times, 0, k - 1);
+            times[k - 1] = ++clock;
+            return;
+        }
+        boolean wasOld = times[0] != 0;
+        if (wasOld) {
+            old.remove(times[0]);
+        }
+        System.arraycopy(times, 1, times, 0, k - 1);
+        times[k - 1] = ++clock;
+        if (times[0] != 0) {
+            if (!wasOld) {
+                young.remove(key);
+            }
+            old.put(times[0], key);
+        }
+    }
+
+    @Override
+    public void onRemove(K key) {
+        long[] times = history.remove(key);
+        if (times != null && !pinned.remove(key)) {
+            if (times[0] != 0) {
+                old.remove(times[0]);
+            } else {
+                young.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void setEvictable(K key, boolean evictable) {
+        long[] times = history.get(key);
+        if (times == null) {
+            return;
+        }
+        if (evictable) {
+            if (pinned.remove(key)) {
+                if (times[0] != 0) {
+                    old.put(times[0], key);
+                } else {
+                    young.add(key);
+                }
+            }
+        } else if (pinned.add(key)) {
+            if (times[0] != 0) {
+                old.remove(times[0]);
+            } else {
+                young.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public K victim(Predicate<K> evictable) {
+        Iterator<K> it = young.iterator();
+        while (it.hasNext()) {
+            K key = it.next();
+            if (evictable.test(key)) {
+                it.remove();
+                history.remove(key);
+                return key;
+            }
+        }
+        Iterator<Entry<Long, K>> oit = old.entrySet().iterator();
+        while (oit.hasNext()) {
+            K key = oit.next().getValue();
+            if (evictable.test(key)) {
+                oit.remove();
+                history.remove(key);
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return history.size();
+    }
+}
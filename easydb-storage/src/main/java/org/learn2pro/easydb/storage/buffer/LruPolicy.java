@@ -0,0 +1,64 @@
+package org.learn2pro.easydb.storage.buffer;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Least recently used. A hit moves the key to the tail, the victim is the first evictable key from the head. Pinned
+ * keys wait outside the order and come back at the tail, as if used when they are unpinned.
+ */
+public class LruPolicy<K> implements ReplacementPolicy<K> {
+
+    private final LinkedHashSet<K> order = new LinkedHashSet<>();
+    private final HashSet<K> pinned = new HashSet<>();
+
+    @Override
+    public void onInsert(K key) {
+        order.add(key);
+    }
+
+    @Override
+    public void onAccess(K key) {
+        if (order.remove(key)) {
+            order.add(key);
+        }
+    }
+
+    @Override
+    public void onRemove(K key) {
+        if (!order.remove(key)) {
+            pinned.remove(key);
+        }
+    }
+
+    @Override
+    public void setEvictable(K key, boolean evictable) {
+        if (evictable) {
+            if (pinned.remove(key)) {
+                order.add(key);
+            }
+        } else if (order.remove(key)) {
+            pinned.add(key);
+        }
+    }
+
+    @Override
+    public K victim(Predicate<K> evictable) {
+        Iterator<K> it = order.iterator();
+        while (it.hasNext()) {
+            K key = it.next();
+            if (evictable.test(key)) {
+                it.remove();
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return order.size() + pinned.size();
+    }
+}
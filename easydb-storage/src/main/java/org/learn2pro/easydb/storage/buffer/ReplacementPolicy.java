@@ -0,0 +1,57 @@
+package org.learn2pro.easydb.storage.buffer;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident key of a buffer pool shard is evicted next. The owner tells the policy
+ * about every key that becomes resident, is hit or leaves, and asks it for a victim when space is needed.
+ * <p>
+ * Keys can be made non-evictable while they are pinned or dirty; they then stay out of the victim search until they
+ * are evictable again, without losing their place in the policy's bookkeeping where the policy keeps history.
+ * <p>
+ * Implementations are not thread safe; the owner calls them under its own lock.
+ *
+ * @param <K> the key type, usually a PageId
+ */
+public interface ReplacementPolicy<K> {
+
+    /**
+     * A key became resident after a miss.
+     */
+    void onInsert(K key);
+
+    /**
+     * A resident key was hit.
+     */
+    void onAccess(K key);
+
+    /**
+     * A resident key left without being chosen as victim, e.g. it was discarded.
+     */
+    void onRemove(K key);
+
+    /**
+     * Choose a victim among the resident keys and forget it.
+     *
+     * @param evictable the filter a victim must pass, e.g. the page must be clean
+     * @return the victim, or null if no resident key passes the filter
+     */
+    K victim(Predicate<K> evictable);
+
+    /**
+     * @return the number of resident keys tracked by this policy
+     */
+    int size();
+
+    /**
+     * A resident key was pinned (false) or unpinned (true). A non-evictable key is never offered as victim; hits on it
+     * are still reported through {@link #onAccess}.
+     */
+    void setEvictable(K key, boolean evictable);
+
+    /**
+     * The shard was resized. Policies that size internal queues by the capacity adjust them, the others ignore it.
+     */
+    default void setCapacity(int capacity) {
+    }
+}
@@ -0,0 +1,52 @@
+package org.learn2pro.easydb.storage.buffer;
+
+/**
+ * The replacement policies a BufferPool can be configured with. The default comes from the system property
+ * {@value #PROPERTY}, e.g. -Deasydb.buffer.policy=clock, and falls back to LRU.
+ */
+public enum ReplacementPolicyType {
+    LRU,
+    CLOCK,
+    TWO_QUEUE,
+    LRU_K;
+
+    public static final String PROPERTY = "easydb.buffer.policy";
+
+    /**
+     * Create a policy for a shard that holds about capacity keys.
+     */
+    public <K> ReplacementPolicy<K> create(int capacity) {
+        switch (this) {
+            case CLOCK:
+                return new ClockPolicy<>();
+            case TWO_QUEUE:
+                return new TwoQueuePolicy<>(capacity);
+            case LRU_K:
+                return new LruKPolicy<>(LruKPolicy.DEFAULT_K);
+            case LRU:
+            default:
+                return new LruPolicy<>();
+        }
+    }
+
+    /**
+     * Parse a policy name, accepting e.g. "clock", "2q", "two_queue", "lru-k" and "lru_k".
+     *
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static ReplacementPolicyType parse(String name) {
+        String normalized = name.trim().toUpperCase().replace('-', '_');
+        if ("2Q".equals(normalized)) {
+            return TWO_QUEUE;
+        }
+        return valueOf(normalized);
+    }
+
+    /**
+     * @return the policy configured through {@value #PROPERTY}, or LRU if it is not set
+     */
+    public static ReplacementPolicyType fromConfig() {
+        String name = System.getProperty(PROPERTY);
+        return name == null || name.isEmpty() ? LRU : parse(name);
+    }
+}
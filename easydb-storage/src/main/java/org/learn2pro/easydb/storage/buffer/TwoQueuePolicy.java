@@ -0,0 +1,136 @@
+package org.learn2pro.easydb.storage.buffer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * 2Q (Johnson and Shasha). New keys enter the FIFO A1in; keys that come back while remembered in the ghost queue
+ * A1out are promoted to the LRU queue Am. A key touched once by a scan therefore leaves through A1in without disturbing
+ * the hot keys in Am. All operations are O(1) on average. Pinned keys leave their queue and go back to its tail when
+ * they are unpinned.
+ */
+public class TwoQueuePolicy<K> implements ReplacementPolicy<K> {
+
+    private final LinkedHashSet<K> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<K> a1out = new LinkedHashSet<>();
+    private final LinkedHashSet<K> am = new LinkedHashSet<>();
+    /**
+     * pinned keys, true if they came from Am
+     */
+    private final HashMap<K, Boolean> pinned = new HashMap<>();
+    /**
+     * target size of A1in, a quarter of the capacity
+     */
+    private int kin;
+    /**
+     * number of ghost keys remembered in A1out, half of the capacity
+     */
+    private int kout;
+
+    public TwoQueuePolicy(int capacity) {
+        setCapacity(capacity);
+    }
+
+    @Override
+    public void setCapacity(int capacity) {
+        this.kin = Math.max(1, capacity / 4);
+        this.kout = Math.max(1, capacity / 2);
+        // forget the oldest ghosts beyond the new limit
+        Iterator<K> it = a1out.iterator();
+        for (int n = a1out.size(); n > kout; n--) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Override
+    public void onInsert(K key) {
+        if (pinned.containsKey(key)) {
+            return;
+        }
+        if (a1out.remove(key)) {
+            am.add(key);
+        } else if (!am.contains(key)) {
+            a1in.add(key);
+        }
+    }
+
+    @Override
+    public void onAccess(K key) {
+        // hits in A1in are treated as correlated references and do not promote
+        if (am.remove(key)) {
+            am.add(key);
+        }
+    }
+
+    @Override
+    public void onRemove(K key) {
+        if (!a1in.remove(key) && !am.remove(key)) {
+            pinned.remove(key);
+        }
+    }
+
+    @Override
+    public void setEvictable(K key, boolean evictable) {
+        if (evictable) {
+            Boolean fromAm = pinned.remove(key);
+            if (fromAm != null) {
+                (fromAm ? am : a1in).add(key);
+            }
+        } else if (a1in.remove(key)) {
+            pinned.put(key, Boolean.FALSE);
+        } else if (am.remove(key)) {
+            pinned.put(key, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public K victim(Predicate<K> evictable) {
+        K key;
+        if (a1in.size() > kin || am.isEmpty()) {
+            key = first(a1in, evictable);
+            if (key != null) {
+                remember(key);
+                return key;
+            }
+            return first(am, evictable);
+        }
+        key = first(am, evictable);
+        if (key != null) {
+            return key;
+        }
+        key = first(a1in, evictable);
+        if (key != null) {
+            remember(key);
+        }
+        return key;
+    }
+
+    private void remember(K key) {
+        a1out.add(key);
+        if (a1out.size() > kout) {
+            Iterator<K> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    private K first(LinkedHashSet<K> queue, Predicate<K> evictable) {
+        Iterator<K> it = queue.iterator();
+        while (it.hasNext()) {
+            K key = it.next();
+            if (evictable.test(key)) {
+                it.remove();
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return a1in.size() + am.size() + pinned.size();
+    }
+}
@@ -0,0 +1,168 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.LogFile;
+import org.learn2pro.easydb.storage.LogFlusher;
+import org.learn2pro.easydb.storage.PageCleaner;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+
+public class AsyncCommitTest extends SimpleDbTestBase {
+
+    private static final long INTERVAL_MILLIS = 200;
+
+    private File file;
+    private HeapFile table;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(LogFlusher.INTERVAL_PROPERTY, Long.toString(INTERVAL_MILLIS));
+        // the cleaner would force the log for the pages it writes
+        System.setProperty(PageCleaner.INTERVAL_PROPERTY, "60000");
+        super.setUp();
+        file = File.createTempFile("async", ".dat");
+        file.deleteOnExit();
+        table = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(LogFlusher.INTERVAL_PROPERTY);
+        System.clearProperty(PageCleaner.INTERVAL_PROPERTY);
+    }
+
+    private void insert(int from, int to, boolean async) throws Exception {
+        for (int i = from; i < to; i++) {
+            Transaction t = new Transaction();
+            t.setAsyncCommit(async);
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(i, 2));
+            t.commit();
+        }
+    }
+
+    private int count() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        int count = 0;
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    /**
+     * An asynchronous commit returns before its record is durable, and releases its locks
+     */
+    @Test
+    public void commitDoesNotWait() throws Exception {
+        insert(0, 1, false);
+        LogFile log = Database.getLogFile();
+        insert(1, 10, true);
+        assertTrue(log.getDurableLsn() < log.getLsn());
+        assertEquals(9, log.getLogFlusher().getCommitCount());
+        // the next transaction gets the locks at once
+        assertEquals(10, count());
+    }
+
+    /**
+     * The flusher makes asynchronous commits durable within its interval, several commits with one force, and an
+     * idle flusher wakes up for a new commit rather than at the end of its idle wait
+     */
+    @Test
+    public void flushedWithinInterval() throws Exception {
+        LogFile log = Database.getLogFile();
+        LogFlusher flusher = log.getLogFlusher();
+        insert(0, 20, true);
+        flusher.sync();
+        assertTrue(flusher.getFlushCount() < 20);
+
+        // the flusher waits idle now
+        Thread.sleep(2 * INTERVAL_MILLIS);
+        insert(20, 21, true);
+        long lsn = log.getLsn();
+        long committed = System.currentTimeMillis();
+        while (log.getDurableLsn() < lsn && System.currentTimeMillis() - committed < 2 * INTERVAL_MILLIS) {
+            Thread.sleep(5);
+        }
+        assertTrue(log.getDurableLsn() >= lsn);
+    }
+
+    /**
+     * Asynchronous commits that were flushed survive a crash like synchronous ones
+     */
+    @Test
+    public void recoverFlushedCommits() throws Exception {
+        insert(0, 10, false);
+        insert(10, 30, true);
+        Database.getLogFile().getLogFlusher().sync();
+
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(30, count());
+    }
+
+    /**
+     * A crash before the flusher forced the log loses the asynchronous commits since the last force, and nothing else
+     */
+    @Test
+    public void crashLosesUnflushedCommits() throws Exception {
+        // a flusher that doesn't run during the test
+        System.setProperty(LogFlusher.INTERVAL_PROPERTY, "60000");
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        insert(0, 10, false);
+        insert(10, 30, true);
+        LogFile log = Database.getLogFile();
+        assertTrue(log.getDurableLsn() < log.getLsn());
+
+        Database.crash();
+        table = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(10, count());
+        insert(10, 15, false);
+        assertEquals(15, count());
+    }
+
+    /**
+     * Closing the pool writes the pages of asynchronous commits only once their records are durable, so what the file
+     * holds is in the log as well
+     */
+    @Test
+    public void closeWritesPagesAfterTheirRecords() throws Exception {
+        System.setProperty(LogFlusher.INTERVAL_PROPERTY, "60000");
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        insert(0, 10, false);
+        insert(10, 30, true);
+
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(30, count());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AsyncCommitTest.class);
+    }
+}
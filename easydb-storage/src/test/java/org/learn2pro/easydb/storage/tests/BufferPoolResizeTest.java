@@ -0,0 +1,140 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+import org.learn2pro.easydb.storage.tests.systemtest.SystemTestUtil;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+
+    private static final int TABLE_PAGES = 20;
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(BufferPool.MIN_PAGES_PROPERTY);
+    }
+
+    private void readPages(int count) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < count; i++) {
+            bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A grown pool keeps more pages without evicting
+     */
+    @Test
+    public void grow() throws Exception {
+        bp = Database.resetBufferPool(TABLE_PAGES / 2);
+        readPages(TABLE_PAGES / 2);
+        bp.resize(TABLE_PAGES);
+        assertEquals(TABLE_PAGES, bp.getCapacityPages());
+
+        readPages(TABLE_PAGES);
+        assertEquals(0, bp.getEvictionCount());
+        assertEquals(TABLE_PAGES, bp.getResidentPages());
+    }
+
+    /**
+     * A shrunk pool evicts clean pages down to its new capacity
+     */
+    @Test
+    public void shrink() throws Exception {
+        bp = Database.resetBufferPool(TABLE_PAGES);
+        readPages(TABLE_PAGES);
+        assertEquals(TABLE_PAGES, bp.getResidentPages());
+
+        bp.resize(5);
+        assertEquals(5, bp.getCapacityPages());
+        assertEquals(5, bp.getResidentPages());
+        assertEquals(TABLE_PAGES - 5, bp.getEvictionCount());
+
+        readPages(TABLE_PAGES);
+        assertEquals(5, bp.getResidentPages());
+    }
+
+    /**
+     * Pages a transaction has dirtied stay after a shrink, and leave once they are clean
+     */
+    @Test
+    public void shrinkKeepsDirtyPages() throws Exception {
+        bp = Database.resetBufferPool(TABLE_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_WRITE);
+        }
+        bp.resize(5);
+        assertEquals(5, bp.getCapacityPages());
+        assertEquals(10, bp.getResidentPages());
+
+        bp.transactionComplete(tid, false);
+        readPages(TABLE_PAGES);
+        assertEquals(5, bp.getResidentPages());
+    }
+
+    /**
+     * The capacity can be given in bytes
+     */
+    @Test
+    public void byteBudget() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        bp = BufferPool.ofBytes(8L * pageSize + pageSize / 2);
+        assertEquals(8, bp.getCapacityPages());
+        assertEquals(8L * pageSize, bp.getCapacityBytes());
+
+        bp = Database.resetBufferPool(TABLE_PAGES);
+        readPages(10);
+        assertEquals(10L * pageSize, bp.getResidentBytes());
+        bp.setBudgetBytes(4L * pageSize);
+        assertEquals(4, bp.getCapacityPages());
+        assertEquals(4L * pageSize, bp.getResidentBytes());
+    }
+
+    /**
+     * Heap pressure shrinks the pool by a quarter at a time, down to the minimum
+     */
+    @Test
+    public void heapPressure() throws Exception {
+        System.setProperty(BufferPool.MIN_PAGES_PROPERTY, "10");
+        bp = Database.resetBufferPool(TABLE_PAGES);
+        readPages(TABLE_PAGES);
+
+        bp.onHeapPressure();
+        assertEquals(15, bp.getCapacityPages());
+        assertEquals(15, bp.getResidentPages());
+        bp.onHeapPressure();
+        assertEquals(12, bp.getCapacityPages());
+        bp.onHeapPressure();
+        bp.onHeapPressure();
+        assertEquals(10, bp.getCapacityPages());
+        assertEquals(3, bp.getHeapPressureShrinkCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
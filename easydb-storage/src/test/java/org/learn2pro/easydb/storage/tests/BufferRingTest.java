@@ -0,0 +1,102 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.BufferRing;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.SeqScan;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+import org.learn2pro.easydb.storage.tests.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 10;
+
+    private HeapFile small;
+    private HeapFile big;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        small = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    /**
+     * Unit test for BufferPool.newScanRing()
+     */
+    @Test
+    public void ringOnlyForBigTables() {
+        assertNull(bp.newScanRing(small.numPages()));
+        BufferRing ring = bp.newScanRing(big.numPages());
+        assertNotNull(ring);
+        assertEquals(POOL_PAGES / 4, ring.capacity());
+        // a single page pool has no room for a ring
+        assertNull(new BufferPool(1).newScanRing(big.numPages()));
+    }
+
+    /**
+     * Unit test for BufferRing.put(): frames are recycled round robin
+     */
+    @Test
+    public void ringRecyclesFrames() throws Exception {
+        BufferRing ring = new BufferRing(2);
+        for (int i = 0; i < 3; i++) {
+            HeapPageId pid = new HeapPageId(big.getId(), i);
+            ring.put(pid, big.readPage(pid));
+        }
+        assertEquals(2, ring.size());
+        assertNull(ring.get(new HeapPageId(big.getId(), 0)));
+        assertNotNull(ring.get(new HeapPageId(big.getId(), 2)));
+    }
+
+    /**
+     * A scan over a table bigger than the pool must not evict the pages of a small hot table
+     */
+    @Test
+    public void bigScanKeepsHotPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < small.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        }
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(504 * 20, count);
+        // read-ahead may race the scan for a page, so a page can be read twice
+        assertTrue(bp.getRingReadCount() >= big.numPages());
+
+        long misses = bp.getMissCount();
+        for (int i = 0; i < small.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(misses, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.Checkpointer;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.LogFile;
+import org.learn2pro.easydb.storage.PageCleaner;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.common.IntField;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+
+public class FuzzyCheckpointTest extends SimpleDbTestBase {
+
+    private static final int TABLES = 3;
+    private static final long PAUSE_MILLIS = 300;
+
+    private final List<File> files = new ArrayList<>();
+    private final List<HeapFile> tables = new ArrayList<>();
+    private LogFile log;
+
+    @Before
+    public void setUp() throws Exception {
+        // committed pages stay dirty until the checkpoint writes them, one at a time
+        System.setProperty(PageCleaner.INTERVAL_PROPERTY, "60000");
+        System.setProperty(Checkpointer.BATCH_PROPERTY, "1");
+        System.setProperty(Checkpointer.PAUSE_PROPERTY, String.valueOf(PAUSE_MILLIS));
+        super.setUp();
+        for (int i = 0; i < TABLES; i++) {
+            File file = File.createTempFile("fuzzy", ".dat");
+            file.deleteOnExit();
+            files.add(file);
+            tables.add(Utility.createEmptyHeapFile(file.getAbsolutePath(), 2));
+        }
+        log = Database.getLogFile();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(PageCleaner.INTERVAL_PROPERTY);
+        System.clearProperty(Checkpointer.BATCH_PROPERTY);
+        System.clearProperty(Checkpointer.PAUSE_PROPERTY);
+    }
+
+    /**
+     * Insert a row into every table and commit
+     */
+    private void insertAll(int value) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insertAll(t, value);
+        t.commit();
+    }
+
+    private void insertAll(Transaction t, int value) throws Exception {
+        for (HeapFile table : tables) {
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(value, 2));
+        }
+    }
+
+    private Set<Integer> values(HeapFile table) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Set<Integer> values = new HashSet<>();
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        t.commit();
+        return values;
+    }
+
+    /**
+     * Transactions commit while the checkpoint writes its dirty pages
+     */
+    @Test
+    public void commitsDuringCheckpoint() throws Exception {
+        insertAll(1);
+        assertEquals(TABLES, Database.getBufferPool().getPageCleaner().getPendingCount());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> checkpoint = executor.submit(() -> {
+                log.logCheckpoint();
+                return null;
+            });
+            while (log.getCheckpointer().getPagesWritten() == 0) {
+                Thread.sleep(1);
+            }
+            insertAll(2);
+            // the checkpoint is still writing pages
+            assertEquals(0, log.getCheckpointer().getCheckpointCount());
+            checkpoint.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, log.getCheckpointer().getCheckpointCount());
+        assertEquals(TABLES, log.getCheckpointer().getPagesWritten());
+    }
+
+    /**
+     * A checkpoint requested in the background writes the committed pages
+     */
+    @Test
+    public void backgroundCheckpoint() throws Exception {
+        insertAll(1);
+        log.getCheckpointer().request();
+        log.getCheckpointer().awaitIdle();
+        assertEquals(1, log.getCheckpointer().getCheckpointCount());
+        assertEquals(0, Database.getBufferPool().getPageCleaner().getPendingCount());
+    }
+
+    /**
+     * Recovery after a checkpoint keeps what committed before and after it, and undoes a transaction that was running
+     * across it
+     */
+    @Test
+    public void recoverAfterCheckpoint() throws Exception {
+        File loserFile = File.createTempFile("fuzzy", ".dat");
+        loserFile.deleteOnExit();
+        HeapFile loserTable = Utility.createEmptyHeapFile(loserFile.getAbsolutePath(), 2);
+        insertAll(1);
+        Transaction loser = new Transaction();
+        loser.start();
+        Database.getBufferPool().insertTuple(loser.getId(), loserTable.getId(), Utility.getHeapTuple(2, 2));
+        Database.getBufferPool().flushAllPages();
+        log.logCheckpoint();
+        insertAll(3);
+
+        Database.reset();
+        tables.clear();
+        for (File file : files) {
+            tables.add(Utility.openHeapFile(2, file));
+        }
+        loserTable = Utility.openHeapFile(2, loserFile);
+        Database.getLogFile().recover();
+
+        for (HeapFile table : tables) {
+            Set<Integer> values = values(table);
+            assertEquals(2, values.size());
+            assertTrue(values.contains(1) && values.contains(3));
+        }
+        assertTrue(values(loserTable).isEmpty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FuzzyCheckpointTest.class);
+    }
+}
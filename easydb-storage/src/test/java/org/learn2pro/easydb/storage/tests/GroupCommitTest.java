@@ -0,0 +1,91 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.GroupCommit;
+import org.learn2pro.easydb.storage.LogFile;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private LogFile log;
+    private GroupCommit group;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        log = Database.getLogFile();
+        group = log.getGroupCommit();
+    }
+
+    private void commit() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+    }
+
+    /**
+     * A commit on its own forces the log at once
+     */
+    @Test
+    public void singleCommit() throws Exception {
+        group.configure(0, GroupCommit.DEFAULT_MAX_GROUP);
+        commit();
+        commit();
+        assertEquals(2, group.getForceCount());
+        assertEquals(1.0, group.getAverageGroupSize(), 0.0);
+    }
+
+    /**
+     * Commits arriving within the window share one force, which doesn't wait for the window to end once the group is
+     * full
+     */
+    @Test
+    public void commitsShareForce() throws Exception {
+        int threads = 4;
+        group.configure(TimeUnit.SECONDS.toMicros(30), threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> committers = new ArrayList<>();
+        long began = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    commit();
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            committers.add(t);
+            t.start();
+        }
+        for (Thread t : committers) {
+            t.join();
+        }
+        assertNull(error.get());
+        assertTrue(System.nanoTime() - began < TimeUnit.SECONDS.toNanos(10));
+        assertEquals(1, group.getForceCount());
+        assertEquals(threads, group.getGroupedCommitCount());
+        assertEquals(threads, group.getAverageGroupSize(), 0.0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -0,0 +1,73 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.LogFile;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+
+public class LogBufferTest extends SimpleDbTestBase {
+
+    private LogFile log;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        log = Database.getLogFile();
+    }
+
+    /**
+     * Records wait in the buffer until somebody needs them durable, then go out in one write
+     */
+    @Test
+    public void recordsBuffered() throws Exception {
+        log.logXactionBegin(new TransactionId());
+        log.force();
+        long first = log.getLsn();
+        long writes = log.getLogBuffer().getWriteCount();
+        long bytes = log.getLogBuffer().getBytesWritten();
+        for (int i = 0; i < 100; i++) {
+            log.logXactionBegin(new TransactionId());
+        }
+        long lsn = log.getLsn();
+        assertTrue(lsn > first);
+        assertTrue(log.getDurableLsn() < lsn);
+
+        log.awaitDurable(lsn);
+        assertTrue(log.getDurableLsn() >= lsn);
+        assertEquals(writes + 1, log.getLogBuffer().getWriteCount());
+        assertEquals(bytes + lsn - first, log.getLogBuffer().getBytesWritten());
+    }
+
+    /**
+     * Truncating the log keeps the LSNs growing
+     */
+    @Test
+    public void lsnsSurviveTruncation() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        long before = log.getLsn();
+        log.logCheckpoint();
+        long after = log.getLsn();
+        assertTrue(after > before);
+
+        tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        assertTrue(log.getLsn() > after);
+        assertTrue(log.getDurableLsn() >= log.getLsn());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
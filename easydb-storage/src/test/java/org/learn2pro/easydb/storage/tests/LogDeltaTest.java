@@ -0,0 +1,124 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.LogFile;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.common.IntField;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+
+public class LogDeltaTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile table;
+    private LogFile log;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("delta", ".dat");
+        file.deleteOnExit();
+        table = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        log = Database.getLogFile();
+    }
+
+    /**
+     * Insert a row and write its page, which logs it
+     *
+     * @return the bytes logged
+     */
+    private long insert(Transaction t, int value) throws Exception {
+        long before = log.getLsn();
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(value, 2));
+        Database.getBufferPool().flushAllPages();
+        return log.getLsn() - before;
+    }
+
+    private Set<Integer> values() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Set<Integer> values = new HashSet<>();
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        t.commit();
+        return values;
+    }
+
+    /**
+     * Only the first record of a page holds its images, later ones the bytes that changed
+     */
+    @Test
+    public void smallUpdatesLogDeltas() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        long deltas = log.getDeltaRecordCount();
+        assertTrue(insert(t, 1) > 2 * BufferPool.getPageSize());
+        assertTrue(insert(t, 2) < 256);
+        assertTrue(insert(t, 3) < 256);
+        assertEquals(deltas + 2, log.getDeltaRecordCount());
+        t.commit();
+    }
+
+    /**
+     * A checkpoint makes the next record of a page hold its images again
+     */
+    @Test
+    public void checkpointLogsImagesAgain() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 1);
+        assertTrue(insert(t, 2) < 256);
+        log.logCheckpoint();
+        assertTrue(insert(t, 3) > 2 * BufferPool.getPageSize());
+        t.commit();
+    }
+
+    /**
+     * Recovery redoes the deltas on the image before them and undoes the deltas of a loser
+     */
+    @Test
+    public void deltasRecovered() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, 1);
+        insert(t1, 2);
+        insert(t1, 3);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, 4);
+        insert(t2, 5);
+
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+
+        Set<Integer> values = values();
+        assertEquals(3, values.size());
+        assertTrue(values.contains(1) && values.contains(2) && values.contains(3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogDeltaTest.class);
+    }
+}
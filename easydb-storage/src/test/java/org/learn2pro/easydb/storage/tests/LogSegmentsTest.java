@@ -0,0 +1,171 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.LogFile;
+import org.learn2pro.easydb.storage.LogSegments;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+
+public class LogSegmentsTest extends SimpleDbTestBase {
+
+    /**
+     * smaller than an UPDATE record, which spans segments, and a few dozen DELTA records
+     */
+    private static final long SEGMENT_BYTES = 8 * 1024;
+
+    private File file;
+    private HeapFile table;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(LogSegments.SEGMENT_PROPERTY, Long.toString(SEGMENT_BYTES));
+        super.setUp();
+        file = File.createTempFile("segments", ".dat");
+        file.deleteOnExit();
+        table = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(LogSegments.SEGMENT_PROPERTY);
+    }
+
+    private void insert(int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(i, 2));
+            t.commit();
+        }
+    }
+
+    private int count(HeapFile table) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        int count = 0;
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    /**
+     * The log moves on to new segments, all of them preallocated to their full size
+     */
+    @Test
+    public void rotate() throws Exception {
+        insert(0, 200);
+        LogSegments segments = Database.getLogFile().getSegments();
+        assertEquals(SEGMENT_BYTES, segments.getSegmentBytes());
+        assertTrue(segments.getSegmentCount() > 2);
+        File[] files = segments.getDirectory().listFiles((dir, name) -> name.endsWith(".seg"));
+        assertEquals(segments.getSegmentCount(), files.length);
+        for (File segment : files) {
+            assertEquals(SEGMENT_BYTES, segment.length());
+        }
+    }
+
+    /**
+     * A checkpoint without active transactions deletes the segments before it
+     */
+    @Test
+    public void truncateDeletesSegments() throws Exception {
+        insert(0, 200);
+        LogSegments segments = Database.getLogFile().getSegments();
+        int before = segments.getSegmentCount();
+        Database.getLogFile().logCheckpoint();
+        assertTrue(segments.getDeletedCount() > 0);
+        assertTrue(segments.getSegmentCount() < before);
+        assertTrue(segments.getFirstLsn() >= segments.getSegmentBytes());
+        assertEquals(segments.getFirstLsn(), segments.getCheckpointLsn());
+    }
+
+    /**
+     * A transaction aborted through the buffer pool alone gets its ABORT record, so it doesn't hold back truncation
+     */
+    @Test
+    public void abortInPoolEndsTransaction() throws Exception {
+        insert(0, 50);
+        Transaction aborted = new Transaction();
+        aborted.start();
+        Database.getBufferPool().insertTuple(aborted.getId(), table.getId(), Utility.getHeapTuple(50, 2));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(aborted.getId(), false);
+        insert(50, 200);
+        Database.getLogFile().logCheckpoint();
+        LogSegments segments = Database.getLogFile().getSegments();
+        assertEquals(segments.getFirstLsn(), segments.getCheckpointLsn());
+        assertEquals(200, count(table));
+    }
+
+    /**
+     * Recovery reads the records across segments, and the log goes on after the last one
+     */
+    @Test
+    public void recoverAcrossSegments() throws Exception {
+        insert(0, 50);
+        Database.getLogFile().logCheckpoint();
+        insert(50, 100);
+        Transaction loser = new Transaction();
+        loser.start();
+        for (int i = 0; i < 10; i++) {
+            Database.getBufferPool().insertTuple(loser.getId(), table.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(100, count(table));
+        insert(100, 110);
+
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(110, count(table));
+    }
+
+    /**
+     * A log file from before segments is neither read nor thrown away
+     */
+    @Test
+    public void refuseUnsegmentedLog() throws Exception {
+        File old = File.createTempFile("log", ".old");
+        old.deleteOnExit();
+        Files.write(old.toPath(), new byte[]{1, 2, 3});
+        try {
+            new LogFile(old);
+            fail("opened an unsegmented log");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(old.isFile());
+        assertEquals(3, old.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentsTest.class);
+    }
+}
@@ -0,0 +1,172 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.OffHeapFrames;
+import org.learn2pro.easydb.storage.Page;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.btree.BTreeFile;
+import org.learn2pro.easydb.storage.btree.BTreeUtility;
+import org.learn2pro.easydb.storage.buffer.FrameArena;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+import org.learn2pro.easydb.storage.tests.systemtest.SystemTestUtil;
+
+public class OffHeapFramesTest extends SimpleDbTestBase {
+
+    private static final int TABLE_PAGES = 10;
+    private static final int POOL_PAGES = 2;
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        System.setProperty(OffHeapFrames.BYTES_PROPERTY, Long.toString(64L * BufferPool.getPageSize()));
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(OffHeapFrames.BYTES_PROPERTY);
+    }
+
+    private HeapPageId pid(int no) {
+        return new HeapPageId(table.getId(), no);
+    }
+
+    /**
+     * Frames are taken up to the budget and reused once freed
+     */
+    @Test
+    public void arena() {
+        FrameArena arena = new FrameArena(16, 16 * 5, 16 * 2);
+        assertEquals(5, arena.capacity());
+        assertEquals(0, arena.allocatedBytes());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, arena.allocate());
+        }
+        assertEquals(-1, arena.allocate());
+        assertEquals(16 * 5, arena.allocatedBytes());
+
+        byte[] data = {1, 2, 3, 4, 5};
+        arena.write(3, data);
+        assertArrayEquals(data, arena.read(3));
+        arena.free(3);
+        assertEquals(4, arena.size());
+        assertEquals(3, arena.allocate());
+    }
+
+    /**
+     * Evicted pages are decoded from their frames instead of read from the file
+     */
+    @Test
+    public void evictedPagesComeBackFromFrames() throws Exception {
+        OffHeapFrames frames = bp.getOffHeapFrames();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertEquals(TABLE_PAGES - POOL_PAGES, frames.getStoreCount());
+        assertEquals(TABLE_PAGES - POOL_PAGES, frames.getResidentPages());
+        assertTrue(frames.getAllocatedBytes() > 0);
+
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            Page page = bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+            assertArrayEquals(table.readPage(pid(i)).getPageData(), page.getPageData());
+        }
+        assertEquals(TABLE_PAGES, frames.getHitCount());
+        // a page is in the pool or in a frame, never both
+        assertEquals(TABLE_PAGES - POOL_PAGES, frames.getResidentPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Discarding a page drops its frame
+     */
+    @Test
+    public void discardDropsFrame() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        OffHeapFrames frames = bp.getOffHeapFrames();
+        int kept = frames.getResidentPages();
+        bp.discardPage(pid(0));
+        assertEquals(kept - 1, frames.getResidentPages());
+    }
+
+    /**
+     * A full arena reclaims the frames of the pages stored first
+     */
+    @Test
+    public void fullArenaReclaimsOldestFrames() throws Exception {
+        System.setProperty(OffHeapFrames.BYTES_PROPERTY, Long.toString(3L * BufferPool.getPageSize()));
+        bp = Database.resetBufferPool(POOL_PAGES);
+        OffHeapFrames frames = bp.getOffHeapFrames();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertEquals(3, frames.getResidentPages());
+        assertEquals(TABLE_PAGES - POOL_PAGES - 3, frames.getReclaimCount());
+
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(0, frames.getHitCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * B+ tree pages of every category survive the trip through their frames
+     */
+    @Test
+    public void btreeScan() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+        bp = Database.resetBufferPool(8);
+        for (int pass = 0; pass < 2; pass++) {
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = bf.iterator(tid);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            assertEquals(10000, count);
+            bp.transactionComplete(tid);
+        }
+        assertTrue(bp.getOffHeapFrames().getHitCount() > 0);
+    }
+
+    /**
+     * Without the property the pool keeps nothing off the heap
+     */
+    @Test
+    public void offByDefault() {
+        System.clearProperty(OffHeapFrames.BYTES_PROPERTY);
+        assertNull(new BufferPool(POOL_PAGES).getOffHeapFrames());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapFramesTest.class);
+    }
+}
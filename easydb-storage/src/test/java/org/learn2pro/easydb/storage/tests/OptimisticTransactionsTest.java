@@ -0,0 +1,142 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPage;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.TransactionAbortedException;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+import org.learn2pro.easydb.storage.tests.systemtest.SystemTestUtil;
+
+public class OptimisticTransactionsTest extends SimpleDbTestBase {
+
+    /**
+     * two pages of two int columns
+     */
+    private static final int ROWS = 600;
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        bp = Database.resetBufferPool(50);
+    }
+
+    private HeapPageId pid(int no) {
+        return new HeapPageId(table.getId(), no);
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private Transaction optimistic() {
+        Transaction t = new Transaction(Transaction.Mode.OPTIMISTIC);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Delete the first tuple of a page, reading only that page
+     */
+    private void deleteFirst(Transaction t, int page) throws Exception {
+        HeapPage p = (HeapPage) bp.getPage(t.getId(), pid(page), Permissions.READ_ONLY);
+        bp.deleteTuple(t.getId(), p.iterator().next());
+    }
+
+    /**
+     * Transactions writing different pages both commit, without taking locks before
+     */
+    @Test
+    public void disjointWritesCommit() throws Exception {
+        Transaction t1 = optimistic();
+        Transaction t2 = optimistic();
+        deleteFirst(t1, 0);
+        deleteFirst(t2, 1);
+        assertFalse(bp.holdsLock(t1.getId(), pid(0)));
+        assertFalse(bp.holdsLock(t2.getId(), pid(1)));
+        t1.commit();
+        t2.commit();
+
+        TransactionId reader = new TransactionId();
+        assertEquals(ROWS - 2, count(reader));
+        bp.transactionComplete(reader);
+        assertEquals(0, bp.getOptimisticTransactions().getConflictCount());
+        assertEquals(0, bp.getOptimisticTransactions().size());
+    }
+
+    /**
+     * Writes stay private until commit
+     */
+    @Test
+    public void writesArePrivate() throws Exception {
+        Transaction t1 = optimistic();
+        bp.insertTuple(t1.getId(), table.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        assertEquals(ROWS + 1, count(t1.getId()));
+
+        TransactionId reader = new TransactionId();
+        assertEquals(ROWS, count(reader));
+        bp.transactionComplete(reader);
+        t1.commit();
+
+        reader = new TransactionId();
+        assertEquals(ROWS + 1, count(reader));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A transaction that read a page written by a commit after it started fails validation
+     */
+    @Test
+    public void conflictAborts() throws Exception {
+        Transaction t1 = optimistic();
+        Transaction t2 = optimistic();
+        deleteFirst(t1, 0);
+        deleteFirst(t2, 0);
+        t1.commit();
+        try {
+            t2.commit();
+            fail("t2 read page 0 before t1 committed it");
+        } catch (TransactionAbortedException expected) {
+        }
+        t2.abort();
+        assertEquals(1, bp.getOptimisticTransactions().getConflictCount());
+
+        TransactionId reader = new TransactionId();
+        assertEquals(ROWS - 1, count(reader));
+        assertTrue(bp.holdsLock(reader, pid(0)));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticTransactionsTest.class);
+    }
+}
@@ -0,0 +1,198 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPage;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.Page;
+import org.learn2pro.easydb.storage.PageCleaner;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.Tuple;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.common.IntField;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+import org.learn2pro.easydb.storage.tests.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10;
+    // random tables only hold non-negative values
+    private static final int MAGIC = -4242;
+    private static final long WAIT_MILLIS = 10 * 1000;
+
+    private HeapFile table;
+    private HeapPageId pid;
+    private BufferPool bp;
+
+    /**
+     * Create a one page table and a pool whose cleaner runs every intervalMillis
+     */
+    private void setUp(int poolPages, long intervalMillis) throws Exception {
+        System.setProperty(PageCleaner.INTERVAL_PROPERTY, Long.toString(intervalMillis));
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        pid = new HeapPageId(table.getId(), 0);
+        bp = Database.resetBufferPool(poolPages);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(PageCleaner.INTERVAL_PROPERTY);
+    }
+
+    private void insert(Transaction t) throws Exception {
+        Tuple tuple = Utility.getHeapTuple(new int[]{MAGIC, MAGIC});
+        bp.insertTuple(t.getId(), table.getId(), tuple);
+    }
+
+    private static int count(Page page) {
+        int count = 0;
+        Iterator<Tuple> it = ((HeapPage) page).iterator();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean contains(Page page, int value) {
+        Iterator<Tuple> it = ((HeapPage) page).iterator();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void awaitCleaned() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (bp.getPageCleaner().getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * A commit logs the page but leaves writing it to the cleaner; closing the pool writes it
+     */
+    @Test
+    public void commitDoesNotWritePages() throws Exception {
+        setUp(BufferPool.DEFAULT_PAGES, 60 * 1000);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t);
+        t.commit();
+
+        assertEquals(1, bp.getPageCleaner().getPendingCount());
+        assertEquals(ROWS, count(table.readPage(pid)));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(ROWS + 1, count(table.readPage(pid)));
+    }
+
+    /**
+     * The cleaner thread writes committed pages in the background
+     */
+    @Test
+    public void cleanerWritesCommittedPages() throws Exception {
+        setUp(BufferPool.DEFAULT_PAGES, 5);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t);
+        t.commit();
+
+        awaitCleaned();
+        assertEquals(0, bp.getPageCleaner().getPendingCount());
+        assertEquals(1, bp.getPageCleaner().getWrittenCount());
+        assertTrue(contains(table.readPage(pid), MAGIC));
+    }
+
+    /**
+     * Aborting a transaction that changed a page waiting for the cleaner restores the committed version
+     */
+    @Test
+    public void abortKeepsCommittedChanges() throws Exception {
+        setUp(BufferPool.DEFAULT_PAGES, 60 * 1000);
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        bp.insertTuple(t2.getId(), table.getId(), Utility.getHeapTuple(new int[]{MAGIC - 1, 0}));
+        t2.abort();
+
+        TransactionId tid = new TransactionId();
+        Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertTrue(contains(page, MAGIC));
+        assertFalse(contains(page, MAGIC - 1));
+        assertEquals(1, bp.getPageCleaner().getPendingCount());
+        // the cleaner still waits for the records of the commit before it writes the restored page
+        assertTrue(page.getLsn() > 0);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page waiting for the cleaner is written before it is evicted
+     */
+    @Test
+    public void evictionWritesPendingPages() throws Exception {
+        setUp(1, 60 * 1000);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t);
+        t.commit();
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(0, bp.getPageCleaner().getPendingCount());
+        assertTrue(contains(table.readPage(pid), MAGIC));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Eviction passes a page waiting for the cleaner once, then leaves it out of the replacement order until it is
+     * written
+     */
+    @Test
+    public void evictionHoldsPendingPages() throws Exception {
+        setUp(3, 60 * 1000);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t);
+        t.commit();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < other.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+        }
+        assertTrue(bp.getEvictionCount() >= 2);
+        assertEquals(1, bp.getHeldPageCount());
+        assertEquals(1, bp.getPageCleaner().getPendingCount());
+
+        bp.flushAllPages();
+        assertEquals(0, bp.getHeldPageCount());
+        assertEquals(0, bp.getPageCleaner().getPendingCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,117 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.LogFile;
+import org.learn2pro.easydb.storage.Page;
+import org.learn2pro.easydb.storage.PageCodecs;
+import org.learn2pro.easydb.storage.PageId;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.btree.BTreeFile;
+import org.learn2pro.easydb.storage.btree.BTreeHeaderPage;
+import org.learn2pro.easydb.storage.btree.BTreeInternalPage;
+import org.learn2pro.easydb.storage.btree.BTreeLeafPage;
+import org.learn2pro.easydb.storage.btree.BTreePageId;
+import org.learn2pro.easydb.storage.btree.BTreeRootPtrPage;
+import org.learn2pro.easydb.storage.btree.BTreeUtility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+
+public class PageCodecsTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    private static Page roundTrip(Page page) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        PageCodecs.writePage(out, page);
+        out.flush();
+        Page read = PageCodecs.readPage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(page.getClass(), read.getClass());
+        assertEquals(page.getId(), read.getId());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+        return read;
+    }
+
+    /**
+     * Every page class of the heap and B+ tree files comes back as it was written
+     */
+    @Test
+    public void pagesRoundTrip() throws Exception {
+        File file = File.createTempFile("codecs", ".dat");
+        file.deleteOnExit();
+        HeapFile heap = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        roundTrip(Database.getBufferPool().getPage(tid, new HeapPageId(heap.getId(), 0), Permissions.READ_ONLY));
+
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool()
+                .getPage(tid, BTreeRootPtrPage.getId(btree.getId()), Permissions.READ_ONLY);
+        roundTrip(rootPtr);
+        Page root = roundTrip(Database.getBufferPool().getPage(tid, rootPtr.getRootId(), Permissions.READ_ONLY));
+        assertTrue(root instanceof BTreeInternalPage);
+        BTreePageId leafId = ((BTreeInternalPage) root).iterator().next().getLeftChild();
+        assertTrue(roundTrip(Database.getBufferPool().getPage(tid, leafId, Permissions.READ_ONLY))
+                instanceof BTreeLeafPage);
+        BTreePageId headerId = new BTreePageId(btree.getId(), 1, BTreePageId.HEADER);
+        roundTrip(new BTreeHeaderPage(headerId, BTreeHeaderPage.createEmptyPageData()));
+    }
+
+    /**
+     * Page ids are written as a tag and their fields
+     */
+    @Test
+    public void pageIdsRoundTrip() throws Exception {
+        for (PageId pid : new PageId[]{new HeapPageId(3, 7), new BTreePageId(5, 11, BTreePageId.LEAF)}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            PageCodecs.writePageId(out, pid);
+            out.flush();
+            assertTrue(bytes.size() <= 1 + 3 * 4);
+            assertEquals(pid, PageCodecs.readPageId(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        }
+    }
+
+    /**
+     * An UPDATE record is the two pages and a few bytes, no class names
+     */
+    @Test
+    public void updateRecordSize() throws Exception {
+        File file = File.createTempFile("codecs", ".dat");
+        file.deleteOnExit();
+        HeapFile heap = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        Page page = Database.getBufferPool().getPage(tid, new HeapPageId(heap.getId(), 0), Permissions.READ_ONLY);
+        LogFile log = Database.getLogFile();
+        log.logXactionBegin(tid);
+        long before = log.getLsn();
+        log.logWrite(tid, page.getBeforeImage(), page);
+        assertTrue(log.getLsn() - before <= 2 * BufferPool.getPageSize() + 64);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecsTest.class);
+    }
+}
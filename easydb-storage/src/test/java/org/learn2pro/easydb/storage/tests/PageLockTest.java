@@ -0,0 +1,378 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.LockMode;
+import org.learn2pro.easydb.storage.PageId;
+import org.learn2pro.easydb.storage.PageLock;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.RecordId;
+import org.learn2pro.easydb.storage.TransactionAbortedException;
+import org.learn2pro.easydb.storage.TransactionId;
+
+public class PageLockTest {
+
+    private static final int SHORT_WAIT = 50;
+    private static final int LONG_WAIT = 10000;
+
+    private PageLock locks;
+
+    @Before
+    public void setUp() {
+        locks = new PageLock();
+    }
+
+    private static PageId pid(int no) {
+        return new HeapPageId(1, no);
+    }
+
+    private static boolean acquires(PageLock locks, TransactionId tid, PageId pid, Permissions perm) {
+        try {
+            locks.lockPage(tid, pid, perm, SHORT_WAIT);
+            return true;
+        } catch (TransactionAbortedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Start a thread that waits for a lock
+     */
+    private Thread waitFor(TransactionId tid, PageId pid, Permissions perm, CountDownLatch granted,
+            AtomicReference<Exception> error) {
+        Thread t = new Thread(() -> {
+            try {
+                locks.lockPage(tid, pid, perm, LONG_WAIT);
+                granted.countDown();
+            } catch (TransactionAbortedException e) {
+                error.set(e);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    /**
+     * The number of locks is not bounded by a fixed table
+     */
+    @Test
+    public void manyLocks() throws Exception {
+        TransactionId tid = new TransactionId();
+        locks.setEscalationThreshold(Integer.MAX_VALUE);
+        for (int i = 0; i < 5000; i++) {
+            locks.lockPage(tid, pid(i), i % 2 == 0 ? Permissions.READ_ONLY : Permissions.READ_WRITE);
+        }
+        assertEquals(5000, locks.getPagesHeldByTid(tid).size());
+        // and the intention lock on the table
+        assertEquals(5001, locks.size());
+        assertTrue(locks.holdsLock(tid, pid(4999)));
+
+        locks.releaseLockTrans(tid);
+        assertEquals(0, locks.getPagesHeldByTid(tid).size());
+        assertFalse(locks.holdsLock(tid, pid(4999)));
+        assertEquals(0, locks.size());
+    }
+
+    /**
+     * Shared locks are compatible, exclusive locks are not
+     */
+    @Test
+    public void modes() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        locks.lockPage(t1, pid(0), Permissions.READ_ONLY);
+        assertTrue(acquires(locks, t2, pid(0), Permissions.READ_ONLY));
+        assertFalse(acquires(locks, t2, pid(0), Permissions.READ_WRITE));
+
+        locks.releaseLock(t1, pid(0));
+        assertFalse(locks.holdsLock(t1, pid(0)));
+        // upgrade as the only holder
+        assertTrue(acquires(locks, t2, pid(0), Permissions.READ_WRITE));
+        assertFalse(acquires(locks, t1, pid(0), Permissions.READ_ONLY));
+        assertFalse(locks.readLockable(t1, pid(0)));
+        assertTrue(locks.writeLockable(t2, pid(0)));
+        // a lock held exclusively covers reads
+        assertTrue(acquires(locks, t2, pid(0), Permissions.READ_ONLY));
+        assertFalse(locks.readLockable(t1, pid(0)));
+    }
+
+    /**
+     * Page locks take intention locks on their table, which conflict with table locks but not with each other
+     */
+    @Test
+    public void intentionLocks() throws Exception {
+        TransactionId writer = new TransactionId();
+        TransactionId scanner = new TransactionId();
+        TransactionId other = new TransactionId();
+        locks.lockPage(writer, pid(0), Permissions.READ_WRITE);
+        assertEquals(LockMode.IX, locks.getTableLock(writer, 1));
+        assertTrue(acquires(locks, other, pid(1), Permissions.READ_WRITE));
+        try {
+            locks.lockTable(scanner, 1, LockMode.S);
+            fail("a shared table lock conflicts with a writer on a page");
+        } catch (TransactionAbortedException expected) {
+        }
+        locks.releaseLockTrans(writer);
+        locks.releaseLockTrans(other);
+
+        // a table lock covers the pages: no page lock heads
+        locks.lockTable(scanner, 1, LockMode.S);
+        locks.lockPage(scanner, pid(0), Permissions.READ_ONLY);
+        locks.lockPage(scanner, pid(1), Permissions.READ_ONLY);
+        assertEquals(1, locks.size());
+        assertTrue(locks.holdsLock(scanner, pid(1)));
+        assertFalse(acquires(locks, writer, pid(2), Permissions.READ_WRITE));
+        assertTrue(acquires(locks, other, pid(2), Permissions.READ_ONLY));
+
+        // a reader of the whole table writing a page of it holds SIX
+        locks.releaseLockTrans(other);
+        locks.lockPage(scanner, pid(3), Permissions.READ_WRITE);
+        assertEquals(LockMode.SIX, locks.getTableLock(scanner, 1));
+        locks.releaseLockTrans(scanner);
+        assertEquals(0, locks.size());
+    }
+
+    /**
+     * Writers of different records of a page don't block each other, writers of the same record do
+     */
+    @Test
+    public void recordLocks() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        locks.lockRecord(t1, new RecordId(pid(0), 0), Permissions.READ_WRITE);
+        locks.lockRecord(t2, new RecordId(pid(0), 1), Permissions.READ_WRITE);
+        assertTrue(locks.holdsLock(t1, pid(0)));
+        assertFalse(acquires(locks, t1, pid(0), Permissions.READ_ONLY));
+        try {
+            locks.lockRecord(t2, new RecordId(pid(0), 0), Permissions.READ_ONLY);
+            fail("the record is written by another transaction");
+        } catch (TransactionAbortedException expected) {
+        }
+        locks.releaseLockTrans(t1);
+        locks.releaseLockTrans(t2);
+        assertEquals(0, locks.size());
+    }
+
+    /**
+     * Past the threshold, page locks are traded for one table lock
+     */
+    @Test
+    public void escalation() throws Exception {
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        locks.setEscalationThreshold(10);
+        for (int i = 0; i < 20; i++) {
+            locks.lockPage(reader, pid(i), Permissions.READ_ONLY);
+        }
+        assertEquals(1, locks.getEscalationCount());
+        assertEquals(LockMode.S, locks.getTableLock(reader, 1));
+        assertEquals(20, locks.getPagesHeldByTid(reader).size());
+        assertEquals(1, locks.size());
+        assertFalse(acquires(locks, writer, pid(100), Permissions.READ_WRITE));
+        locks.releaseLockTrans(reader);
+
+        // escalation doesn't wait for other holders of the table
+        TransactionId other = new TransactionId();
+        locks.lockPage(other, pid(100), Permissions.READ_ONLY);
+        for (int i = 0; i < 20; i++) {
+            locks.lockPage(writer, pid(i), Permissions.READ_WRITE);
+        }
+        assertEquals(1, locks.getEscalationCount());
+        assertEquals(LockMode.IX, locks.getTableLock(writer, 1));
+        locks.releaseLockTrans(other);
+        locks.lockPage(writer, pid(20), Permissions.READ_WRITE);
+        assertEquals(2, locks.getEscalationCount());
+        assertEquals(LockMode.X, locks.getTableLock(writer, 1));
+        locks.releaseLockTrans(writer);
+        assertEquals(0, locks.size());
+    }
+
+    /**
+     * A reader arriving after a waiting writer queues behind it
+     */
+    @Test
+    public void fifoQueue() throws Exception {
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        TransactionId late = new TransactionId();
+        locks.lockPage(reader, pid(0), Permissions.READ_ONLY);
+
+        CountDownLatch granted = new CountDownLatch(1);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread t = waitFor(writer, pid(0), Permissions.READ_WRITE, granted, error);
+        assertFalse(granted.await(SHORT_WAIT, TimeUnit.MILLISECONDS));
+        assertFalse(acquires(locks, late, pid(0), Permissions.READ_ONLY));
+
+        locks.releaseLockTrans(reader);
+        assertTrue(granted.await(LONG_WAIT, TimeUnit.MILLISECONDS));
+        t.join();
+        assertTrue(locks.holdsLock(writer, pid(0)));
+        locks.releaseLockTrans(writer);
+        assertEquals(0, locks.size());
+    }
+
+    /**
+     * A waiter is woken up as soon as the lock is released, not after a polling interval
+     */
+    @Test
+    public void wakeUpOnRelease() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        locks.lockPage(t1, pid(0), Permissions.READ_WRITE);
+        CountDownLatch granted = new CountDownLatch(1);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread t = waitFor(t2, pid(0), Permissions.READ_ONLY, granted, error);
+        assertFalse(granted.await(SHORT_WAIT, TimeUnit.MILLISECONDS));
+        assertEquals(1, locks.getWaitCount());
+        assertEquals(0, locks.detectDeadlocks());
+
+        locks.releaseLockTrans(t1);
+        assertTrue(granted.await(LONG_WAIT, TimeUnit.MILLISECONDS));
+        t.join();
+        locks.releaseLockTrans(t2);
+        assertEquals(0, locks.size());
+    }
+
+    /**
+     * Two transactions waiting for each other: the younger one is aborted, the older one gets its lock
+     */
+    @Test
+    public void deadlock() throws Exception {
+        breakDeadlock();
+    }
+
+    /**
+     * The same, found by the detector thread
+     */
+    @Test
+    public void periodicDetection() throws Exception {
+        locks = new PageLock(LONG_WAIT, 20);
+        try {
+            breakDeadlock();
+        } finally {
+            locks.close();
+        }
+    }
+
+    private void breakDeadlock() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        locks.lockPage(older, pid(0), Permissions.READ_WRITE);
+        locks.lockPage(younger, pid(1), Permissions.READ_WRITE);
+
+        CountDownLatch youngerGranted = new CountDownLatch(1);
+        AtomicReference<Exception> youngerError = new AtomicReference<>();
+        Thread y = waitFor(younger, pid(0), Permissions.READ_WRITE, youngerGranted, youngerError);
+        assertFalse(youngerGranted.await(SHORT_WAIT, TimeUnit.MILLISECONDS));
+
+        long start = System.currentTimeMillis();
+        CountDownLatch olderGranted = new CountDownLatch(1);
+        AtomicReference<Exception> olderError = new AtomicReference<>();
+        Thread o = waitFor(older, pid(1), Permissions.READ_WRITE, olderGranted, olderError);
+        y.join();
+        assertTrue(youngerError.get() instanceof TransactionAbortedException);
+        assertTrue(System.currentTimeMillis() - start < LONG_WAIT);
+        assertEquals(1, locks.getDeadlockCount());
+
+        // the victim aborts and releases its locks
+        locks.releaseLockTrans(younger);
+        assertTrue(olderGranted.await(LONG_WAIT, TimeUnit.MILLISECONDS));
+        o.join();
+        assertNull(olderError.get());
+        locks.releaseLockTrans(older);
+        assertEquals(0, locks.size());
+    }
+
+    /**
+     * No-wait refuses a busy lock at once
+     */
+    @Test
+    public void noWait() throws Exception {
+        locks = new PageLock(LONG_WAIT, 0, PageLock.Policy.NO_WAIT);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        locks.lockPage(t1, pid(0), Permissions.READ_ONLY);
+        locks.lockPage(t2, pid(0), Permissions.READ_ONLY);
+        long start = System.currentTimeMillis();
+        try {
+            locks.lockPage(t2, pid(0), Permissions.READ_WRITE, LONG_WAIT);
+            fail("expected no-wait to refuse the upgrade");
+        } catch (TransactionAbortedException e) {
+            assertTrue(System.currentTimeMillis() - start < LONG_WAIT);
+        }
+        assertEquals(1, locks.getAbortCount());
+        assertEquals(0, locks.getWaitCount());
+    }
+
+    /**
+     * Wait-die: the older transaction waits, the younger one dies
+     */
+    @Test
+    public void waitDie() throws Exception {
+        locks = new PageLock(LONG_WAIT, 0, PageLock.Policy.WAIT_DIE);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        locks.lockPage(older, pid(0), Permissions.READ_WRITE);
+        locks.lockPage(younger, pid(1), Permissions.READ_WRITE);
+        assertFalse(acquires(locks, younger, pid(0), Permissions.READ_ONLY));
+        assertEquals(1, locks.getAbortCount());
+
+        CountDownLatch granted = new CountDownLatch(1);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread t = waitFor(older, pid(1), Permissions.READ_ONLY, granted, error);
+        assertFalse(granted.await(SHORT_WAIT, TimeUnit.MILLISECONDS));
+        locks.releaseLockTrans(younger);
+        assertTrue(granted.await(LONG_WAIT, TimeUnit.MILLISECONDS));
+        t.join();
+        assertNull(error.get());
+    }
+
+    /**
+     * Wound-wait: the older transaction aborts the younger one and gets its lock once the younger one is gone
+     */
+    @Test
+    public void woundWait() throws Exception {
+        locks = new PageLock(LONG_WAIT, 0, PageLock.Policy.WOUND_WAIT);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        locks.lockPage(older, pid(0), Permissions.READ_WRITE);
+        locks.lockPage(younger, pid(1), Permissions.READ_WRITE);
+
+        // the younger one waits for the older one ...
+        CountDownLatch youngerGranted = new CountDownLatch(1);
+        AtomicReference<Exception> youngerError = new AtomicReference<>();
+        Thread y = waitFor(younger, pid(0), Permissions.READ_WRITE, youngerGranted, youngerError);
+        assertFalse(youngerGranted.await(SHORT_WAIT, TimeUnit.MILLISECONDS));
+        assertNull(youngerError.get());
+
+        // ... until the older one wants a lock of the younger one
+        CountDownLatch olderGranted = new CountDownLatch(1);
+        AtomicReference<Exception> olderError = new AtomicReference<>();
+        Thread o = waitFor(older, pid(1), Permissions.READ_WRITE, olderGranted, olderError);
+        y.join();
+        assertTrue(youngerError.get() instanceof TransactionAbortedException);
+        locks.releaseLockTrans(younger);
+        assertTrue(olderGranted.await(LONG_WAIT, TimeUnit.MILLISECONDS));
+        o.join();
+        assertNull(olderError.get());
+        assertEquals(0, locks.getDeadlockCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageLockTest.class);
+    }
+}
@@ -0,0 +1,124 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbException;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+import org.learn2pro.easydb.storage.tests.systemtest.SystemTestUtil;
+
+public class PageVersionsTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 100;
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        bp = Database.resetBufferPool(50);
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private Transaction snapshot() {
+        Transaction t = new Transaction(true);
+        t.start();
+        return t;
+    }
+
+    /**
+     * A snapshot neither waits for an uncommitted writer nor sees commits made after it started
+     */
+    @Test
+    public void snapshotIgnoresLaterCommits() throws Exception {
+        Transaction reader = snapshot();
+        assertEquals(ROWS, count(reader.getId()));
+
+        Transaction writer = new Transaction();
+        writer.start();
+        bp.insertTuple(writer.getId(), table.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        assertEquals(ROWS, count(reader.getId()));
+        writer.commit();
+        assertEquals(ROWS, count(reader.getId()));
+        assertFalse(bp.holdsLock(reader.getId(), new HeapPageId(table.getId(), 0)));
+
+        Transaction later = snapshot();
+        assertEquals(ROWS + 1, count(later.getId()));
+        later.commit();
+        reader.commit();
+        assertEquals(0, bp.getPageVersions().getSnapshotCount());
+        assertEquals(0, bp.getPageVersions().size());
+    }
+
+    /**
+     * Old versions are kept while a snapshot needs them
+     */
+    @Test
+    public void versionsCollected() throws Exception {
+        Transaction w1 = new Transaction();
+        w1.start();
+        bp.insertTuple(w1.getId(), table.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        w1.commit();
+        // no snapshot running: nothing is kept
+        assertEquals(0, bp.getPageVersions().size());
+
+        Transaction reader = snapshot();
+        Transaction w2 = new Transaction();
+        w2.start();
+        bp.insertTuple(w2.getId(), table.getId(), Utility.getHeapTuple(new int[]{3, 4}));
+        w2.commit();
+        assertEquals(1, bp.getPageVersions().size());
+        assertEquals(ROWS + 1, count(reader.getId()));
+        reader.commit();
+        assertEquals(0, bp.getPageVersions().size());
+    }
+
+    /**
+     * A read-only transaction can't write
+     */
+    @Test
+    public void snapshotCantWrite() throws Exception {
+        Transaction reader = snapshot();
+        try {
+            bp.getPage(reader.getId(), new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+            fail("a snapshot is read-only");
+        } catch (DbException expected) {
+        }
+        reader.commit();
+        assertTrue(bp.getPageLock().getPagesHeldByTid(reader.getId()).isEmpty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageVersionsTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.RecoveryStats;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+
+public class PartitionedRecoveryTest extends SimpleDbTestBase {
+
+    private static final String THREADS_PROPERTY = "easydb.log.recoveryThreads";
+    private static final String CHUNK_PROPERTY = "easydb.log.readChunkBytes";
+    private static final int TABLES = 4;
+    /**
+     * rows per table, a few pages of them
+     */
+    private static final int ROWS = 1200;
+
+    private final List<File> files = new ArrayList<>();
+    private final List<HeapFile> tables = new ArrayList<>();
+    private File loserFile;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < TABLES; i++) {
+            File file = File.createTempFile("partitioned", ".dat");
+            file.deleteOnExit();
+            files.add(file);
+            tables.add(Utility.createEmptyHeapFile(file.getAbsolutePath(), 2));
+        }
+        loserFile = File.createTempFile("partitioned", ".dat");
+        loserFile.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(THREADS_PROPERTY);
+        System.clearProperty(CHUNK_PROPERTY);
+    }
+
+    private int count(HeapFile table) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        int count = 0;
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    /**
+     * Fill the tables in one transaction and leave a loser that wrote its page, then restart and recover
+     */
+    private RecoveryStats crashAndRecover() throws Exception {
+        HeapFile loserTable = Utility.createEmptyHeapFile(loserFile.getAbsolutePath(), 2);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS; i++) {
+            for (HeapFile table : tables) {
+                Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(i, 2));
+            }
+        }
+        t.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        for (int i = 0; i < 10; i++) {
+            Database.getBufferPool().insertTuple(loser.getId(), loserTable.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        tables.clear();
+        for (File file : files) {
+            tables.add(Utility.openHeapFile(2, file));
+        }
+        loserTable = Utility.openHeapFile(2, loserFile);
+        Database.getLogFile().recover();
+
+        for (HeapFile table : tables) {
+            assertEquals(ROWS, count(table));
+        }
+        assertEquals(0, count(loserTable));
+        return Database.getLogFile().getRecoveryStats();
+    }
+
+    /**
+     * Redo and undo run on several workers and the phases are timed
+     */
+    @Test
+    public void recoverOnWorkers() throws Exception {
+        System.setProperty(THREADS_PROPERTY, "4");
+        RecoveryStats stats = crashAndRecover();
+        assertEquals(4, stats.getThreads());
+        assertTrue(stats.getPagesRedone() >= TABLES * 3);
+        assertTrue(stats.getRecordsUndone() > 0);
+        assertEquals(1, stats.getLosers());
+        assertTrue(stats.getRedoMillis() >= stats.getAnalysisMillis());
+        assertTrue(stats.getRecordsRead() > 0);
+    }
+
+    /**
+     * Records span the chunks the log is read in
+     */
+    @Test
+    public void recoverWithSmallChunks() throws Exception {
+        System.setProperty(THREADS_PROPERTY, "1");
+        System.setProperty(CHUNK_PROPERTY, "4096");
+        RecoveryStats stats = crashAndRecover();
+        assertEquals(1, stats.getThreads());
+        assertTrue(stats.getBytesRead() > 4096);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionedRecoveryTest.class);
+    }
+}
@@ -0,0 +1,198 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbException;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.PageId;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.PinnedPage;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.btree.BTreeFile;
+import org.learn2pro.easydb.storage.btree.BTreeInternalPage;
+import org.learn2pro.easydb.storage.btree.BTreeLeafPage;
+import org.learn2pro.easydb.storage.btree.BTreePageId;
+import org.learn2pro.easydb.storage.btree.BTreeRootPtrPage;
+import org.learn2pro.easydb.storage.btree.BTreeUtility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+import org.learn2pro.easydb.storage.tests.systemtest.SystemTestUtil;
+
+public class PinnedPageTest extends SimpleDbTestBase {
+
+    private static final int TABLE_PAGES = 5;
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        bp = Database.resetBufferPool(2);
+    }
+
+    private HeapPageId pid(int no) {
+        return new HeapPageId(table.getId(), no);
+    }
+
+    /**
+     * Eviction passes over a pinned page until it is unpinned
+     */
+    @Test
+    public void pinnedPagesAreNotEvicted() throws Exception {
+        TransactionId tid = new TransactionId();
+        PinnedPage pinned = bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        assertTrue(pinned.isShared());
+        assertEquals(1, bp.getPinnedPageCount());
+        for (int i = 1; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        long misses = bp.getMissCount();
+        assertSame(pinned.getPage(), bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        assertEquals(misses, bp.getMissCount());
+
+        pinned.close();
+        assertEquals(0, bp.getPinnedPageCount());
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(misses + 3, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A miss fails if every page is pinned
+     */
+    @Test
+    public void allPinned() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(1), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+            fail("expected the pool to run out of unpinned pages");
+        } catch (DbException e) {
+        }
+        // pins left behind go away with the transaction
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getPinnedPageCount());
+    }
+
+    /**
+     * Pins are counted: the page stays pinned until the last pin is gone
+     */
+    @Test
+    public void pinCount() throws Exception {
+        TransactionId tid = new TransactionId();
+        PinnedPage first = bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        PinnedPage second = bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        first.close();
+        first.close();
+        assertEquals(1, bp.getPinnedPageCount());
+        second.close();
+        assertEquals(0, bp.getPinnedPageCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * An exclusive latch keeps readers out until it is dropped
+     */
+    @Test
+    public void exclusiveLatch() throws Exception {
+        TransactionId tid = new TransactionId();
+        PinnedPage writer = bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        writer.latchExclusive();
+
+        AtomicBoolean read = new AtomicBoolean(false);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            PinnedPage p = bp.pin(tid, writer.getPage());
+            p.latchShared();
+            read.set(true);
+            p.close();
+            done.countDown();
+        });
+        reader.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertFalse(read.get());
+
+        writer.unlatch();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(read.get());
+        writer.close();
+        assertEquals(0, bp.getPinnedPageCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Coupling moves along the leaves of a B+ tree, holding one pin at a time
+     */
+    @Test
+    public void coupleAlongLeaves() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        bp = Database.resetBufferPool(50);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        it.next();
+        assertEquals(1, bp.getPinnedPageCount());
+        it.close();
+        assertEquals(0, bp.getPinnedPageCount());
+
+        // walk the chain by hand from the leftmost leaf
+        BTreeLeafPage leaf = null;
+        int leaves = 0;
+        PinnedPage cur = bp.pin(tid, bp.getPage(tid, firstLeaf(bf, tid), Permissions.READ_ONLY));
+        while (cur != null) {
+            leaf = (BTreeLeafPage) cur.getPage();
+            leaves++;
+            assertEquals(1, bp.getPinnedPageCount());
+            PinnedPage next = bp.couple(cur, leaf.getRightSiblingId(),
+                    p -> ((BTreeLeafPage) p).getRightSiblingId());
+            if (next != null) {
+                assertTrue(next.isLatched());
+                next.unlatch();
+            }
+            cur = next;
+        }
+        assertNotNull(leaf);
+        assertNull(leaf.getRightSiblingId());
+        assertTrue(leaves > 1);
+        assertEquals(0, bp.getPinnedPageCount());
+        bp.transactionComplete(tid);
+    }
+
+    private PageId firstLeaf(BTreeFile bf, TransactionId tid) throws Exception {
+        BTreeRootPtrPage root = (BTreeRootPtrPage) bp.getPage(tid, BTreeRootPtrPage.getId(bf.getId()),
+                Permissions.READ_ONLY);
+        BTreePageId pid = root.getRootId();
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage internal = (BTreeInternalPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+            pid = internal.iterator().next().getLeftChild();
+        }
+        return pid;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinnedPageTest.class);
+    }
+}
@@ -0,0 +1,143 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.PageId;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.PoolSnapshot;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.btree.BTreeFile;
+import org.learn2pro.easydb.storage.btree.BTreeRootPtrPage;
+import org.learn2pro.easydb.storage.btree.BTreeUtility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+import org.learn2pro.easydb.storage.tests.systemtest.SystemTestUtil;
+
+public class PoolSnapshotTest extends SimpleDbTestBase {
+
+    private static final int TABLE_PAGES = 10;
+    private static final long WAIT_SECONDS = 10;
+
+    private File file;
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("pool", ".snapshot");
+        file.delete();
+        file.deleteOnExit();
+        System.setProperty(PoolSnapshot.FILE_PROPERTY, file.getPath());
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        bp = Database.resetBufferPool(50);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(PoolSnapshot.FILE_PROPERTY);
+        file.delete();
+    }
+
+    private HeapPageId pid(int no) {
+        return new HeapPageId(table.getId(), no);
+    }
+
+    private void readPages(int... nos) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int no : nos) {
+            bp.getPage(tid, pid(no), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Closing the pool saves the ids of its pages, heap and B+ tree alike
+     */
+    @Test
+    public void closeSavesResidentPages() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 100, null, null, 0);
+        bp = Database.resetBufferPool(50);
+        readPages(7, 2, 5);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        bp = Database.resetBufferPool(50);
+        assertTrue(file.exists());
+        Set<PageId> saved = new HashSet<>(bp.getSnapshot().read());
+        assertEquals(4, saved.size());
+        assertTrue(saved.contains(pid(7)));
+        assertTrue(saved.contains(BTreeRootPtrPage.getId(bf.getId())));
+    }
+
+    /**
+     * Warm-up loads the saved pages in the background, so they are hits afterwards
+     */
+    @Test
+    public void warmUpLoadsSavedPages() throws Exception {
+        readPages(9, 1, 4, 3);
+        bp = Database.resetBufferPool(50);
+        assertEquals(0, bp.getResidentPages());
+
+        PoolSnapshot snapshot = bp.getSnapshot();
+        snapshot.warmUp();
+        assertTrue(snapshot.awaitWarmUp(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(4, snapshot.getWarmedCount());
+        assertEquals(4, bp.getResidentPages());
+
+        long misses = bp.getMissCount();
+        readPages(9, 1, 4, 3);
+        assertEquals(misses, bp.getMissCount());
+    }
+
+    /**
+     * Warm-up only fills free slots
+     */
+    @Test
+    public void warmUpNeverEvicts() throws Exception {
+        readPages(0, 1, 2, 3, 4, 5);
+        bp = Database.resetBufferPool(4);
+        readPages(8);
+
+        PoolSnapshot snapshot = bp.getSnapshot();
+        snapshot.warmUp();
+        assertTrue(snapshot.awaitWarmUp(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(3, snapshot.getWarmedCount());
+        assertEquals(4, bp.getResidentPages());
+        assertEquals(0, bp.getEvictionCount());
+    }
+
+    /**
+     * A file that is not a snapshot is ignored
+     */
+    @Test
+    public void garbageIsIgnored() throws Exception {
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        PoolSnapshot snapshot = bp.getSnapshot();
+        snapshot.warmUp();
+        assertTrue(snapshot.awaitWarmUp(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, snapshot.getWarmedCount());
+        assertEquals(0, bp.getResidentPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PoolSnapshotTest.class);
+    }
+}
@@ -0,0 +1,128 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.HeapPageId;
+import org.learn2pro.easydb.storage.Permissions;
+import org.learn2pro.easydb.storage.ReadAhead;
+import org.learn2pro.easydb.storage.SeqScan;
+import org.learn2pro.easydb.storage.TransactionId;
+import org.learn2pro.easydb.storage.btree.BTreeFile;
+import org.learn2pro.easydb.storage.btree.BTreeUtility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+import org.learn2pro.easydb.storage.tests.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 50;
+    private static final long WAIT_MILLIS = 10 * 1000;
+
+    private HeapFile table;
+    private BufferPool bp;
+    private ReadAhead readAhead;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+        readAhead = bp.getReadAhead();
+    }
+
+    private void awaitPrefetches(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (readAhead.getPrefetchCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Small pools don't read ahead
+     */
+    @Test
+    public void disabledForSmallPools() {
+        assertNotNull(readAhead.newStream(null));
+        assertEquals(ReadAhead.DEFAULT_WINDOW, readAhead.getWindow());
+        assertNull(new BufferPool(3).getReadAhead().newStream(null));
+    }
+
+    /**
+     * Two sequential pages start read-ahead of a window of pages, which later requests find in the pool
+     */
+    @Test
+    public void sequentialPagesAreReadAhead() throws Exception {
+        int numPages = table.numPages();
+        ReadAhead.Stream stream = readAhead.newStream(null);
+        stream.onPage(new HeapPageId(table.getId(), 0), numPages);
+        assertEquals(0, readAhead.getPrefetchCount());
+        stream.onPage(new HeapPageId(table.getId(), 1), numPages);
+        awaitPrefetches(numPages - 2);
+        assertEquals(numPages - 2, readAhead.getPrefetchCount());
+
+        TransactionId tid = new TransactionId();
+        long misses = bp.getMissCount();
+        for (int i = 2; i < numPages; i++) {
+            bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(misses, bp.getMissCount());
+        assertEquals(numPages - 2, readAhead.getUsedCount());
+        assertEquals(0, readAhead.getWastedCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Read-ahead doesn't change what a heap scan returns
+     */
+    @Test
+    public void heapScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(504 * 10, count);
+        assertTrue(readAhead.getUsedCount() + readAhead.getWastedCount() <= readAhead.getPrefetchCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Read-ahead along the right sibling pointers doesn't change what a B+ tree scan returns
+     */
+    @Test
+    public void btreeScan() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(10000, count);
+        assertTrue(readAhead.getUsedCount() + readAhead.getWastedCount() <= readAhead.getPrefetchCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
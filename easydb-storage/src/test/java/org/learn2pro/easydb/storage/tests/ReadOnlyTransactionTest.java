@@ -0,0 +1,116 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.BufferPool;
+import org.learn2pro.easydb.storage.Database;
+import org.learn2pro.easydb.storage.DbFileIterator;
+import org.learn2pro.easydb.storage.HeapFile;
+import org.learn2pro.easydb.storage.LogFile;
+import org.learn2pro.easydb.storage.Transaction;
+import org.learn2pro.easydb.storage.Utility;
+import org.learn2pro.easydb.storage.tests.systemtest.SimpleDbTestBase;
+
+public class ReadOnlyTransactionTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile table;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("readonly", ".dat");
+        file.deleteOnExit();
+        table = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 10; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(i, 2));
+        }
+        t.commit();
+    }
+
+    private int scan(Transaction t) throws Exception {
+        int count = 0;
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * A transaction that only reads writes no log record, doesn't force the log and leaves no lock behind
+     */
+    @Test
+    public void readerLogsNothing() throws Exception {
+        LogFile log = Database.getLogFile();
+        BufferPool pool = Database.getBufferPool();
+        long lsn = log.getLsn();
+        long forces = log.getGroupCommit().getForceCount();
+        long completions = pool.getReadOnlyCompletionCount();
+        for (int i = 0; i < 5; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            assertEquals(10, scan(t));
+            t.commit();
+            assertFalse(pool.mayHaveWritten(t.getId()));
+        }
+        assertEquals(lsn, log.getLsn());
+        assertEquals(forces, log.getGroupCommit().getForceCount());
+        assertEquals(completions + 5, pool.getReadOnlyCompletionCount());
+
+        // the locks are gone, a writer gets them at once
+        Transaction writer = new Transaction();
+        writer.start();
+        pool.insertTuple(writer.getId(), table.getId(), Utility.getHeapTuple(10, 2));
+        writer.commit();
+        assertTrue(log.getLsn() > lsn);
+    }
+
+    /**
+     * A writer logs its BEGIN record with its first update, so a stolen page is still rolled back on abort and undone
+     * by recovery
+     */
+    @Test
+    public void writerLogsBeginWithFirstUpdate() throws Exception {
+        LogFile log = Database.getLogFile();
+        Transaction aborted = new Transaction();
+        aborted.start();
+        long lsn = log.getLsn();
+        Database.getBufferPool().insertTuple(aborted.getId(), table.getId(), Utility.getHeapTuple(20, 2));
+        assertEquals(lsn, log.getLsn());
+        Database.getBufferPool().flushAllPages();
+        assertTrue(log.getLsn() > lsn);
+        aborted.abort();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        Database.getBufferPool().insertTuple(loser.getId(), table.getId(), Utility.getHeapTuple(21, 2));
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(10, scan(t));
+        t.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadOnlyTransactionTest.class);
+    }
+}
@@ -0,0 +1,140 @@
+package org.learn2pro.easydb.storage.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import org.learn2pro.easydb.storage.buffer.ClockPolicy;
+import org.learn2pro.easydb.storage.buffer.LruKPolicy;
+import org.learn2pro.easydb.storage.buffer.LruPolicy;
+import org.learn2pro.easydb.storage.buffer.ReplacementPolicy;
+import org.learn2pro.easydb.storage.buffer.ReplacementPolicyType;
+import org.learn2pro.easydb.storage.buffer.TwoQueuePolicy;
+
+public class ReplacementPolicyTest {
+
+    private static void insert(ReplacementPolicy<Integer> policy, int from, int to) {
+        for (int i = from; i < to; i++) {
+            policy.onInsert(i);
+        }
+    }
+
+    /**
+     * Unit test for LruPolicy: the least recently hit key goes first
+     */
+    @Test
+    public void lru() {
+        ReplacementPolicy<Integer> policy = new LruPolicy<>();
+        insert(policy, 0, 4);
+        policy.onAccess(0);
+        assertEquals(Integer.valueOf(1), policy.victim(k -> true));
+        assertEquals(Integer.valueOf(2), policy.victim(k -> true));
+        assertEquals(2, policy.size());
+    }
+
+    /**
+     * Unit test for ClockPolicy: referenced keys get a second chance
+     */
+    @Test
+    public void clock() {
+        ReplacementPolicy<Integer> policy = new ClockPolicy<>();
+        insert(policy, 0, 4);
+        policy.onAccess(0);
+        policy.onAccess(1);
+        assertEquals(Integer.valueOf(2), policy.victim(k -> true));
+        policy.onRemove(3);
+        // the bits of 0 and 1 were cleared by the first sweep
+        assertEquals(Integer.valueOf(0), policy.victim(k -> true));
+        policy.onInsert(5);
+        assertEquals(Integer.valueOf(1), policy.victim(k -> true));
+        assertEquals(1, policy.size());
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a scan does not push out keys promoted to Am
+     */
+    @Test
+    public void twoQueueIsScanResistant() {
+        ReplacementPolicy<Integer> policy = new TwoQueuePolicy<>(8);
+        insert(policy, 0, 8);
+        // evict and re-admit 0 and 1, which promotes them through the ghost queue
+        assertEquals(Integer.valueOf(0), policy.victim(k -> true));
+        assertEquals(Integer.valueOf(1), policy.victim(k -> true));
+        insert(policy, 0, 2);
+        for (int i = 100; i < 120; i++) {
+            Integer victim = policy.victim(k -> true);
+            assertEquals(true, victim >= 2);
+            policy.onInsert(i);
+        }
+    }
+
+    /**
+     * Unit test for LruKPolicy: keys with fewer than K references go first
+     */
+    @Test
+    public void lruK() {
+        ReplacementPolicy<Integer> policy = new LruKPolicy<>(2);
+        insert(policy, 0, 3);
+        policy.onAccess(0);
+        policy.onAccess(1);
+        policy.onAccess(0);
+        assertEquals(Integer.valueOf(2), policy.victim(k -> true));
+        // 1 has the older second most recent reference
+        assertEquals(Integer.valueOf(1), policy.victim(k -> true));
+        assertEquals(Integer.valueOf(0), policy.victim(k -> true));
+        assertNull(policy.victim(k -> true));
+    }
+
+    /**
+     * Unit test for the evictable filter, e.g. dirty pages must be skipped
+     */
+    @Test
+    public void victimFilter() {
+        for (ReplacementPolicyType type : ReplacementPolicyType.values()) {
+            ReplacementPolicy<Integer> policy = type.create(4);
+            insert(policy, 0, 4);
+            assertEquals(type.name(), Integer.valueOf(3), policy.victim(k -> k == 3));
+            assertNull(type.name(), policy.victim(k -> k == 3));
+            assertEquals(type.name(), 3, policy.size());
+        }
+    }
+
+    /**
+     * Unit test for pinning: non-evictable keys are never offered, and come back when they are evictable again
+     */
+    @Test
+    public void pinnedKeys() {
+        for (ReplacementPolicyType type : ReplacementPolicyType.values()) {
+            ReplacementPolicy<Integer> policy = type.create(4);
+            insert(policy, 0, 3);
+            policy.setEvictable(0, false);
+            policy.setEvictable(1, false);
+            policy.onAccess(0);
+            assertEquals(type.name(), 3, policy.size());
+            assertEquals(type.name(), Integer.valueOf(2), policy.victim(k -> true));
+            assertNull(type.name(), policy.victim(k -> true));
+
+            policy.setEvictable(1, true);
+            assertEquals(type.name(), Integer.valueOf(1), policy.victim(k -> true));
+            policy.onRemove(0);
+            policy.setEvictable(0, true);
+            assertNull(type.name(), policy.victim(k -> true));
+            assertEquals(type.name(), 0, policy.size());
+        }
+    }
+
+    @Test
+    public void parse() {
+        assertEquals(ReplacementPolicyType.TWO_QUEUE, ReplacementPolicyType.parse("2q"));
+        assertEquals(ReplacementPolicyType.LRU_K, ReplacementPolicyType.parse("lru-k"));
+        assertEquals(ReplacementPolicyType.CLOCK, ReplacementPolicyType.parse("clock"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
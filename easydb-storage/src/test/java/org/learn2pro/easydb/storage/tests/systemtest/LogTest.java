@@ -2,6 +2,7 @@ package org.learn2pro.easydb.storage.tests.systemtest;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
@@ -428,6 +429,71 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestBiggerThanPoolCommitCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        Database.resetBufferPool(2);
+
+        // *** Test:
+        // T1 dirties more pages than the pool holds and commits
+        // T2 does the same but does not commit
+        // crash: only T1 data should be there
+        int rows = 1200;
+        Transaction t1 = new Transaction();
+        t1.start();
+        for (int i = 0; i < rows; i++) {
+            insertRow(hf1, t1, i, 0);
+        }
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        for (int i = 0; i < rows; i++) {
+            insertRow(hf2, t2, i, 0);
+        }
+        assertTrue(Database.getBufferPool().getStealCount() > 0);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 0, true);
+        look(hf1, t, rows - 1, true);
+        look(hf2, t, 0, false);
+        look(hf2, t, rows - 1, false);
+        t.commit();
+    }
+
+    @Test public void TestRollbackCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts, its page is written, and it is rolled back
+        // T2 inserts and commits
+        // crash before T1's ABORT record: the rollback must not be undone again
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3, 0);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().rollback(t1.getId());
+        Database.getBufferPool().transactionComplete(t1.getId(), false);
+
+        doInsert(hf1, 4, 5);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        look(hf1, t, 4, true);
+        look(hf1, t, 5, true);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);
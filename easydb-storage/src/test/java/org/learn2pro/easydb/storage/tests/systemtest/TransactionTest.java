@@ -1,6 +1,7 @@
 package org.learn2pro.easydb.storage.tests.systemtest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -254,7 +255,7 @@ public class TransactionTest extends SimpleDbTestBase {
     }
 
     @Test
-    public void testAllDirtyFails()
+    public void testAllDirtySteals()
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data
         HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
@@ -267,12 +268,9 @@ public class TransactionTest extends SimpleDbTestBase {
         // Insert a new row
         EvictionTest.insertRow(f, t);
 
-        // Scanning the table must fail because it can't evict the dirty page
-        try {
-            EvictionTest.findMagicTuple(f, t);
-            fail("Expected scan to run out of available buffer pages");
-        } catch (DbException e) {
-        }
+        // Scanning the table writes the dirty page to make room, and reads the row back
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        assertTrue(Database.getBufferPool().getStealCount() > 0);
         t.commit();
     }
 